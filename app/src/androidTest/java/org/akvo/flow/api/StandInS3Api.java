@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2010-2016 Stichting Akvo (Akvo Foundation)
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
  *
  *  This file is part of Akvo Flow.
  *
@@ -17,26 +17,17 @@
  *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package org.akvo.flow.domain.response;
+package org.akvo.flow.api;
 
-import org.akvo.flow.domain.SurveyedLocale;
+import android.content.Context;
 
-import java.util.List;
-
-public class SurveyedLocalesResponse {
-    private List<SurveyedLocale> mSurveyedLocales;
-    private String mError;
-
-    public SurveyedLocalesResponse(List<SurveyedLocale> surveyedLocales, String error) {
-        mSurveyedLocales = surveyedLocales;
-        mError = error;
-    }
-
-    public List<SurveyedLocale> getSurveyedLocales() {
-        return mSurveyedLocales;
-    }
+/**
+ * {@link S3Api} sending its requests to a local
+ * {@link org.akvo.flow.testhelper.StandInServer}, instead of AWS
+ */
+public class StandInS3Api extends S3Api {
 
-    public String getError() {
-        return mError;
+    public StandInS3Api(Context context, String endpoint) {
+        super(context, endpoint);
     }
 }
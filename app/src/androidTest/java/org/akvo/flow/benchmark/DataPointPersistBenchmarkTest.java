@@ -0,0 +1,280 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.benchmark;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.akvo.flow.data.database.DatabaseHelper;
+import org.akvo.flow.data.database.LanguageTable;
+import org.akvo.flow.data.database.RecordColumns;
+import org.akvo.flow.data.database.ResponseColumns;
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.data.database.SurveyInstanceColumns;
+import org.akvo.flow.data.database.SurveyInstanceStatus;
+import org.akvo.flow.data.database.SyncTimeColumns;
+import org.akvo.flow.data.database.Tables;
+import org.akvo.flow.data.database.TransmissionColumns;
+import org.akvo.flow.data.database.TransmissionStatus;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.util.ConstantUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Benchmark of the data point persistence: one transaction per data point, querying every row
+ * before writing it, as the sync used to do, against the bulk path, storing a page per
+ * transaction with compiled statements. Every path stores the same
+ * data points twice: the first run inserts them, the second one updates them.
+ * The benchmark runs on its own database, leaving the app data untouched. Results are logged
+ * with the {@link #TAG} tag: adb logcat -s DataPointBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPointPersistBenchmarkTest {
+
+    private static final String TAG = "DataPointBenchmark";
+
+    private static final long SURVEY_GROUP_ID = 1000L;
+    private static final String FORM_ID = "1001";
+
+    private static final int DATA_POINT_COUNT = 10000;
+    private static final int ANSWER_COUNT = 30;
+    private static final int PAGE_SIZE = 100;
+
+    private Context context;
+    private SurveyDbAdapter database;
+    private List<SurveyedLocale> dataPoints;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "benchmark_");
+        database = new SurveyDbAdapter(context).open();
+        DatabaseHelper helper = new DatabaseHelper(context, new LanguageTable());
+        try {
+            // Never clear the app data, even if the app process has its database open
+            assertEquals(context.getDatabasePath("surveydata").getPath(),
+                    helper.getWritableDatabase().getPath());
+        } finally {
+            helper.close();
+        }
+        database.clearCollectedData();
+        dataPoints = createDataPoints();
+    }
+
+    @After
+    public void tearDown() {
+        database.clearCollectedData();
+        database.close();
+    }
+
+    @Test
+    public void transactionPerDataPoint() {
+        DatabaseHelper helper = new DatabaseHelper(context, new LanguageTable());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            for (String run : new String[] { "insert", "update" }) {
+                LatencyStats stats = new LatencyStats("Per data point, " + run);
+                stats.start();
+                for (List<SurveyedLocale> page : pages()) {
+                    long start = System.nanoTime();
+                    for (SurveyedLocale dataPoint : page) {
+                        syncSurveyedLocale(db, dataPoint);
+                    }
+                    stats.add(System.nanoTime() - start, 0);
+                }
+                stats.stop();
+                Log.i(TAG, stats.toString());
+                assertStored();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void bulkPerPage() {
+        for (String run : new String[] { "insert", "update" }) {
+            LatencyStats stats = new LatencyStats("Bulk, " + run);
+            stats.start();
+            for (List<SurveyedLocale> page : pages()) {
+                long start = System.nanoTime();
+                database.syncSurveyedLocales(page);
+                stats.add(System.nanoTime() - start, 0);
+            }
+            stats.stop();
+            Log.i(TAG, stats.toString());
+            assertStored();
+        }
+    }
+
+    /**
+     * Previous persistence of a data point, in its own transaction. Every survey instance and
+     * response is looked up before being inserted or updated.
+     */
+    private static void syncSurveyedLocale(SQLiteDatabase db, SurveyedLocale surveyedLocale) {
+        final String id = surveyedLocale.getId();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(RecordColumns.RECORD_ID, id);
+            values.put(RecordColumns.SURVEY_GROUP_ID, surveyedLocale.getSurveyGroupId());
+            values.put(RecordColumns.NAME, surveyedLocale.getName());
+            values.put(RecordColumns.LATITUDE, surveyedLocale.getLatitude());
+            values.put(RecordColumns.LONGITUDE, surveyedLocale.getLongitude());
+            db.insert(Tables.RECORD, null, values);
+
+            for (SurveyInstance surveyInstance : surveyedLocale.getSurveyInstances()) {
+                syncSurveyInstance(db, surveyInstance, id);
+            }
+
+            values = new ContentValues();
+            values.put(RecordColumns.LAST_MODIFIED, surveyedLocale.getLastModified());
+            db.update(Tables.RECORD, values,
+                    RecordColumns.RECORD_ID + " = ? AND " + RecordColumns.LAST_MODIFIED + " < ?",
+                    new String[] { id, String.valueOf(surveyedLocale.getLastModified()) });
+
+            values = new ContentValues();
+            values.put(SyncTimeColumns.TIME, String.valueOf(surveyedLocale.getLastModified()));
+            String[] surveyGroupId = { String.valueOf(surveyedLocale.getSurveyGroupId()) };
+            if (db.update(Tables.SYNC_TIME, values, SyncTimeColumns.SURVEY_GROUP_ID + " = ?",
+                    surveyGroupId) == 0) {
+                values.put(SyncTimeColumns.SURVEY_GROUP_ID, surveyedLocale.getSurveyGroupId());
+                db.insert(Tables.SYNC_TIME, null, values);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void syncSurveyInstance(SQLiteDatabase db, SurveyInstance surveyInstance,
+            String surveyedLocaleId) {
+        String[] uuid = { surveyInstance.getUuid() };
+        Cursor cursor = db.query(Tables.SURVEY_INSTANCE,
+                new String[] { SurveyInstanceColumns._ID }, SurveyInstanceColumns.UUID + " = ?",
+                uuid, null, null, null);
+        long id = -1;
+        if (cursor.moveToFirst()) {
+            id = cursor.getLong(0);
+        }
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put(SurveyInstanceColumns.SURVEY_ID, surveyInstance.getSurveyId());
+        values.put(SurveyInstanceColumns.SUBMITTED_DATE, surveyInstance.getDate());
+        values.put(SurveyInstanceColumns.RECORD_ID, surveyedLocaleId);
+        values.put(SurveyInstanceColumns.STATUS, SurveyInstanceStatus.DOWNLOADED);
+        values.put(SurveyInstanceColumns.SYNC_DATE, System.currentTimeMillis());
+        values.put(SurveyInstanceColumns.SUBMITTER, surveyInstance.getSubmitter());
+        if (id != -1) {
+            db.update(Tables.SURVEY_INSTANCE, values, SurveyInstanceColumns.UUID + " = ?", uuid);
+        } else {
+            values.put(SurveyInstanceColumns.UUID, surveyInstance.getUuid());
+            id = db.insert(Tables.SURVEY_INSTANCE, null, values);
+        }
+
+        for (QuestionResponse response : surveyInstance.getResponses()) {
+            String where = ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
+                    + ResponseColumns.QUESTION_ID + " = ?";
+            String[] whereArgs = { String.valueOf(id), response.getQuestionId() };
+            cursor = db.query(Tables.RESPONSE, new String[] { ResponseColumns.QUESTION_ID },
+                    where, whereArgs, null, null, null);
+            boolean exists = cursor.getCount() > 0;
+            cursor.close();
+
+            values = new ContentValues();
+            values.put(ResponseColumns.ANSWER, response.getValue());
+            values.put(ResponseColumns.TYPE, response.getType());
+            values.put(ResponseColumns.QUESTION_ID, response.getQuestionId());
+            values.put(ResponseColumns.INCLUDE, response.getIncludeFlag());
+            values.put(ResponseColumns.SURVEY_INSTANCE_ID, id);
+            if (exists) {
+                db.update(Tables.RESPONSE, values, where, whereArgs);
+            } else {
+                db.insert(Tables.RESPONSE, null, values);
+            }
+        }
+
+        values = new ContentValues();
+        values.put(TransmissionColumns.SURVEY_INSTANCE_ID, id);
+        values.put(TransmissionColumns.SURVEY_ID, surveyInstance.getSurveyId());
+        values.put(TransmissionColumns.FILENAME, surveyInstance.getUuid());
+        values.put(TransmissionColumns.STATUS, TransmissionStatus.SYNCED);
+        final String date = String.valueOf(System.currentTimeMillis());
+        values.put(TransmissionColumns.START_DATE, date);
+        values.put(TransmissionColumns.END_DATE, date);
+        db.insert(Tables.TRANSMISSION, null, values);
+    }
+
+    private void assertStored() {
+        Cursor cursor = database.getSurveyedLocales(SURVEY_GROUP_ID);
+        try {
+            assertEquals(DATA_POINT_COUNT, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(String.valueOf(DATA_POINT_COUNT - 1),
+                database.getSyncTime(SURVEY_GROUP_ID));
+    }
+
+    private List<List<SurveyedLocale>> pages() {
+        List<List<SurveyedLocale>> pages = new ArrayList<>();
+        for (int i = 0; i < dataPoints.size(); i += PAGE_SIZE) {
+            pages.add(dataPoints.subList(i, Math.min(i + PAGE_SIZE, dataPoints.size())));
+        }
+        return pages;
+    }
+
+    private static List<SurveyedLocale> createDataPoints() {
+        List<SurveyedLocale> dataPoints = new ArrayList<>(DATA_POINT_COUNT);
+        for (int i = 0; i < DATA_POINT_COUNT; i++) {
+            List<QuestionResponse> responses = new ArrayList<>(ANSWER_COUNT);
+            for (int j = 0; j < ANSWER_COUNT; j++) {
+                responses.add(new QuestionResponse("Answer " + j,
+                        ConstantUtil.VALUE_RESPONSE_TYPE, String.valueOf(2000 + j)));
+            }
+            SurveyInstance surveyInstance = new SurveyInstance("benchmark-" + i, FORM_ID,
+                    "Enumerator", i, responses);
+            SurveyedLocale dataPoint = new SurveyedLocale("abcd-efgh-" + i, "Data point " + i,
+                    i, SURVEY_GROUP_ID, -1.2921, 36.8219);
+            dataPoint.setSurveyInstances(Collections.singletonList(surveyInstance));
+            dataPoints.add(dataPoint);
+        }
+        return dataPoints;
+    }
+}
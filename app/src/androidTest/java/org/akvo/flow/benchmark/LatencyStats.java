@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects request latencies of a benchmark run, reporting percentiles and throughput
+ */
+class LatencyStats {
+
+    private final String name;
+    private final List<Long> latencies = new ArrayList<>();
+    private long bytes;
+    private long start;
+    private long end;
+
+    LatencyStats(String name) {
+        this.name = name;
+    }
+
+    void start() {
+        start = System.nanoTime();
+    }
+
+    void stop() {
+        end = System.nanoTime();
+    }
+
+    synchronized void add(long latencyNanos, long bytes) {
+        latencies.add(latencyNanos);
+        this.bytes += bytes;
+    }
+
+    synchronized int getCount() {
+        return latencies.size();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency, in milliseconds, of the given percentile (nearest rank)
+     */
+    synchronized double getPercentile(int percentile) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1)) / 1e6;
+    }
+
+    double getElapsedSeconds() {
+        return (end - start) / 1e9;
+    }
+
+    synchronized double getRequestsPerSecond() {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? latencies.size() / elapsed : 0;
+    }
+
+    synchronized double getKilobytesPerSecond() {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? bytes / 1024.0 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s: %d requests in %.2fs (%.1f req/s, %.1f KB/s). p50=%.1fms p90=%.1fms p99=%.1fms",
+                name, getCount(), getElapsedSeconds(), getRequestsPerSecond(),
+                getKilobytesPerSecond(), getPercentile(50), getPercentile(90),
+                getPercentile(99));
+    }
+}
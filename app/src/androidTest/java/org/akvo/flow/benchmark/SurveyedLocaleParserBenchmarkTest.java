@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.benchmark;
+
+import android.os.Debug;
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Benchmark of the streaming surveyedlocale response parser, over generated pages of growing
+ * size. Reports the median parse time and the bytes allocated per page. Results are logged
+ * with the {@link #TAG} tag: adb logcat -s ParserBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class SurveyedLocaleParserBenchmarkTest {
+
+    private static final String TAG = "ParserBenchmark";
+
+    private static final int[] PAGE_SIZES = { 10, 100, 1000 };
+    private static final int INSTANCES = 3;
+    private static final int ANSWERS = 20;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 15;
+
+    @Test
+    public void parseByPageSize() throws Exception {
+        for (int pageSize : PAGE_SIZES) {
+            byte[] page = page(pageSize);
+            Result result = run(page);
+            Timber.tag(TAG).i("%d data points, %d KB: %s", pageSize, page.length / 1024,
+                    result);
+            assertEquals(pageSize, result.count);
+        }
+    }
+
+    private static Result run(byte[] page) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            parse(new ByteArrayInputStream(page));
+        }
+        Result result = new Result();
+        long[] times = new long[ITERATIONS];
+        long allocated = 0;
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                long bytes = Debug.getThreadAllocSize();
+                long start = System.nanoTime();
+                result.count = parse(new ByteArrayInputStream(page));
+                times[i] = System.nanoTime() - start;
+                allocated += Debug.getThreadAllocSize() - bytes;
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        Arrays.sort(times);
+        result.medianMs = times[ITERATIONS / 2] / 1000000.0;
+        result.allocated = allocated / ITERATIONS;
+        return result;
+    }
+
+    private static int parse(InputStream in) throws IOException {
+        return new SurveyedLocaleStreamParser().parse(in,
+                new SurveyedLocaleStreamParser.Callback() {
+                    @Override
+                    public void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale) {
+                        // Handed over to the persistence layer, and discarded
+                    }
+                });
+    }
+
+    private static byte[] page(int size) throws IOException {
+        StringBuilder builder = new StringBuilder("{\"resultCount\":").append(size)
+                .append(",\"surveyedLocaleData\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"abcd-efgh-").append(i)
+                    .append("\",\"displayName\":\"Data point ").append(i)
+                    .append("\",\"lat\":-1.2921,\"lon\":36.8219,\"surveyGroupId\":1000,")
+                    .append("\"lastUpdateDateTime\":").append(1490000000000L + i)
+                    .append(",\"surveyInstances\":[");
+            for (int j = 0; j < INSTANCES; j++) {
+                if (j > 0) {
+                    builder.append(',');
+                }
+                builder.append("{\"uuid\":\"").append(i).append('-').append(j)
+                        .append("\",\"surveyId\":\"1001\",\"submitter\":\"Enumerator\",")
+                        .append("\"collectionDate\":1480000000000,\"qasList\":[");
+                for (int k = 0; k < ANSWERS; k++) {
+                    if (k > 0) {
+                        builder.append(',');
+                    }
+                    builder.append("{\"q\":\"").append(2000 + k)
+                            .append("\",\"a\":\"Answer number ").append(k).append("\"}");
+                }
+                builder.append("]}");
+            }
+            builder.append("]}");
+        }
+        return builder.append("]}").toString().getBytes("UTF-8");
+    }
+
+    static class Result {
+        int count;
+        double medianMs;
+        long allocated;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.2f ms, %d KB allocated", medianMs,
+                    allocated / 1024);
+        }
+    }
+}
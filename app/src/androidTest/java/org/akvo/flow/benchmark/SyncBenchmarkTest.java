@@ -0,0 +1,256 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.benchmark;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.akvo.flow.api.FlowApi;
+import org.akvo.flow.api.S3Api;
+import org.akvo.flow.api.StandInS3Api;
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.ProcessingNotification;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser;
+import org.akvo.flow.service.upload.UploadResult;
+import org.akvo.flow.service.upload.UploadWorkerPool;
+import org.akvo.flow.testhelper.StandInServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * End-to-end benchmarks of the sync paths against a local {@link StandInServer}, under
+ * configurable network conditions. Results are logged with the {@link #TAG} tag:
+ * adb logcat -s SyncBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncBenchmarkTest {
+
+    private static final String TAG = "SyncBenchmark";
+
+    private static final long SURVEY_GROUP_ID = 1000L;
+    private static final long FORM_ID = 1001L;
+
+    // Simulated mobile network: 150ms round trip, 256KB/s per connection
+    private static final long LATENCY_MS = 150;
+    private static final long BANDWIDTH = 256 * 1024;
+
+    private static final int FILE_COUNT = 40;
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final int NOTIFICATION_COUNT = 200;
+    private static final int DATA_POINT_COUNT = 1000;
+    private static final int DATA_POINT_PAGE_SIZE = 100;
+
+    private Context context;
+    private StandInServer server;
+    private Prefs prefs;
+    private String backendServer;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getTargetContext();
+        server = new StandInServer();
+        server.start();
+        server.setLatency(LATENCY_MS);
+        server.setBandwidth(BANDWIDTH);
+
+        prefs = new Prefs(context);
+        backendServer = prefs.getString(Prefs.KEY_BACKEND_SERVER, null);
+        prefs.setString(Prefs.KEY_BACKEND_SERVER, server.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        restore(Prefs.KEY_BACKEND_SERVER, backendServer);
+        server.stop();
+    }
+
+    @Test
+    public void uploadThroughputByWorkers() throws IOException {
+        List<FileTransmission> transmissions = createFiles(FILE_COUNT, FILE_SIZE);
+        final S3Api s3Api = new StandInS3Api(context, server.getUrl());
+        for (int workers = UploadWorkerPool.MIN_WORKERS; workers <= UploadWorkerPool.MAX_WORKERS;
+                workers++) {
+            final LatencyStats stats = new LatencyStats("Upload, " + workers + " workers");
+            stats.start();
+            UploadResult result = new UploadWorkerPool(workers).upload(transmissions,
+                    new UploadWorkerPool.FileUploader() {
+                        @Override
+                        public boolean upload(@NonNull FileTransmission transmission) {
+                            File file = new File(transmission.getFileName());
+                            long start = System.nanoTime();
+                            try {
+                                boolean ok = s3Api.put("images/" + file.getName(), file,
+                                        "image/jpeg", false);
+                                stats.add(System.nanoTime() - start, file.length());
+                                return ok;
+                            } catch (IOException e) {
+                                Log.e(TAG, e.getMessage(), e);
+                                return false;
+                            }
+                        }
+                    });
+            stats.stop();
+            Log.i(TAG, stats.toString());
+            assertEquals(FILE_COUNT, stats.getCount());
+            assertTrue(result.getUnsyncedInstances().isEmpty());
+        }
+    }
+
+    @Test
+    public void uploadWithFailures() throws IOException {
+        server.setFailureRate(0.1);
+        List<FileTransmission> transmissions = createFiles(FILE_COUNT, FILE_SIZE);
+        final S3Api s3Api = new StandInS3Api(context, server.getUrl());
+        final LatencyStats stats = new LatencyStats("Upload, 10% failures");
+        stats.start();
+        new UploadWorkerPool(Prefs.DEFAULT_VALUE_UPLOAD_WORKERS).upload(transmissions,
+                new UploadWorkerPool.FileUploader() {
+                    @Override
+                    public boolean upload(@NonNull FileTransmission transmission) {
+                        File file = new File(transmission.getFileName());
+                        long start = System.nanoTime();
+                        try {
+                            return s3Api.put("images/" + file.getName(), file, "image/jpeg",
+                                    false);
+                        } catch (IOException e) {
+                            return false;
+                        } finally {
+                            stats.add(System.nanoTime() - start, file.length());
+                        }
+                    }
+                });
+        stats.stop();
+        Log.i(TAG, stats.toString() + ". Stored objects: " + server.getObjectCount());
+    }
+
+    @Test
+    public void processingNotifications() {
+        List<ProcessingNotification> notifications = new ArrayList<>();
+        for (int i = 0; i < NOTIFICATION_COUNT; i++) {
+            notifications.add(new ProcessingNotification(String.valueOf(FORM_ID), "image",
+                    "image-" + i + ".jpg"));
+        }
+        LatencyStats stats = new LatencyStats("Notifications");
+        stats.start();
+        long start = System.nanoTime();
+        Map<String, Integer> results = new FlowApi(context)
+                .sendProcessingNotifications(notifications);
+        stats.add(System.nanoTime() - start, 0);
+        stats.stop();
+        Log.i(TAG, stats.toString() + ". Requests: "
+                + server.getRequestCount(StandInServer.PATH_PROCESSOR));
+        assertEquals(NOTIFICATION_COUNT, results.size());
+    }
+
+    @Test
+    public void dataPointSync() throws IOException {
+        server.setDataPoints(SURVEY_GROUP_ID, FORM_ID, DATA_POINT_COUNT, DATA_POINT_PAGE_SIZE);
+        FlowApi api = new FlowApi(context);
+        SurveyDbAdapter database = new SurveyDbAdapter(context).open();
+        LatencyStats fetch = new LatencyStats("Data points, fetch");
+        LatencyStats persist = new LatencyStats("Data points, persist");
+        int synced = 0;
+        try {
+            fetch.start();
+            persist.start();
+            while (true) {
+                // Same loop as SurveyedDataPointSyncService, timing each stage
+                long start = System.nanoTime();
+                final List<SurveyedLocale> dataPoints = new ArrayList<>();
+                api.getSurveyedLocales(SURVEY_GROUP_ID, database.getSyncTime(SURVEY_GROUP_ID),
+                        null, 0, new SurveyedLocaleStreamParser.Callback() {
+                            @Override
+                            public void onSurveyedLocale(@NonNull SurveyedLocale dataPoint) {
+                                dataPoints.add(dataPoint);
+                            }
+                        });
+                fetch.add(System.nanoTime() - start, 0);
+                if (dataPoints.isEmpty()) {
+                    break;
+                }
+                start = System.nanoTime();
+                database.syncSurveyedLocales(dataPoints);
+                persist.add(System.nanoTime() - start, 0);
+                synced += dataPoints.size();
+            }
+            fetch.stop();
+            persist.stop();
+        } finally {
+            database.close();
+        }
+        Log.i(TAG, fetch.toString());
+        Log.i(TAG, persist.toString() + ". " + synced + " data points");
+        assertEquals(DATA_POINT_COUNT, synced);
+    }
+
+    private List<FileTransmission> createFiles(int count, int size) throws IOException {
+        File dir = new File(context.getCacheDir(), "benchmark");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        Random random = new Random(count);
+        byte[] data = new byte[size];
+        List<FileTransmission> transmissions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(data);
+            File file = new File(dir, "benchmark-" + i + ".jpg");
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            FileTransmission transmission = new FileTransmission();
+            transmission.setRespondentId((long) i);
+            transmission.setFormId(String.valueOf(FORM_ID));
+            transmission.setFileName(file.getAbsolutePath());
+            transmissions.add(transmission);
+        }
+        return transmissions;
+    }
+
+    private void restore(String key, String value) {
+        if (value != null) {
+            prefs.setString(key, value);
+        } else {
+            prefs.removePreference(key);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.akvo.flow.benchmark;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.akvo.flow.data.database.DatabaseHelper;
+import org.akvo.flow.data.database.LanguageTable;
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.data.database.SurveyInstanceStatus;
+import org.akvo.flow.data.database.Tables;
+import org.akvo.flow.data.database.TransmissionColumns;
+import org.akvo.flow.data.database.TransmissionStatus;
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Benchmark of the bookkeeping writes of an upload pass over {@link #FILE_COUNT} files from
+ * {@link #INSTANCE_COUNT} survey instances: autocommitted writes per file and instance, as the
+ * sync used to do, against the batched transactions of the current sync. Every commit costs
+ * a journal fsync, so the elapsed time is dominated by the number of commits, reported as the
+ * request count. No file is actually uploaded.
+ * The benchmark runs on its own database, leaving the app data untouched. Results are logged
+ * with the {@link #TAG} tag: adb logcat -s SyncBookkeepingBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncBookkeepingBenchmarkTest {
+
+    private static final String TAG = "SyncBookkeepingBenchmark";
+
+    private static final long SURVEY_GROUP_ID = 1000L;
+    private static final String FORM_ID = "1001";
+
+    private static final int INSTANCE_COUNT = 50;
+    private static final int FILES_PER_INSTANCE = 4;
+    private static final int FILE_COUNT = INSTANCE_COUNT * FILES_PER_INSTANCE;
+
+    private static final String OWNER = "benchmark";
+    private static final long LEASE_DURATION = 60000;
+
+    private Context context;
+    private SurveyDbAdapter database;
+    private List<Long> surveyInstanceIds;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "benchmark_");
+        database = new SurveyDbAdapter(context).open();
+        DatabaseHelper helper = new DatabaseHelper(context, new LanguageTable());
+        try {
+            // Never clear the app data, even if the app process has its database open
+            assertEquals(context.getDatabasePath("surveydata").getPath(),
+                    helper.getWritableDatabase().getPath());
+        } finally {
+            helper.close();
+        }
+        database.clearCollectedData();
+        surveyInstanceIds = createSurveyInstances();
+    }
+
+    @After
+    public void tearDown() {
+        database.clearCollectedData();
+        database.close();
+    }
+
+    @Test
+    public void commitPerFile() {
+        List<FileTransmission> transmissions = database.getUnsyncedTransmissions();
+        LatencyStats stats = new LatencyStats("Commit per file");
+        DatabaseHelper helper = new DatabaseHelper(context, new LanguageTable());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            stats.start();
+            for (FileTransmission transmission : transmissions) {
+                long start = System.nanoTime();
+                updateTransmission(db, transmission.getFileName(),
+                        TransmissionStatus.IN_PROGRESS);
+                stats.add(System.nanoTime() - start, 0);
+            }
+            for (FileTransmission transmission : transmissions) {
+                long start = System.nanoTime();
+                updateTransmission(db, transmission.getFileName(), TransmissionStatus.SYNCED);
+                stats.add(System.nanoTime() - start, 0);
+            }
+        } finally {
+            helper.close();
+        }
+        for (long surveyInstanceId : surveyInstanceIds) {
+            long start = System.nanoTime();
+            database.updateSurveyStatus(surveyInstanceId, SurveyInstanceStatus.SYNCED);
+            stats.add(System.nanoTime() - start, 0);
+        }
+        stats.stop();
+        Log.i(TAG, stats.toString());
+        assertEquals(2 * FILE_COUNT + INSTANCE_COUNT, stats.getCount());
+        assertSynced();
+    }
+
+    @Test
+    public void batchedTransactions() {
+        LatencyStats stats = new LatencyStats("Batched transactions");
+        stats.start();
+        long start = System.nanoTime();
+        List<FileTransmission> transmissions = database.acquireTransmissions(OWNER,
+                System.currentTimeMillis(), LEASE_DURATION);
+        stats.add(System.nanoTime() - start, 0);
+        for (FileTransmission transmission : transmissions) {
+            transmission.setStatus(TransmissionStatus.SYNCED);
+        }
+
+        start = System.nanoTime();
+        database.updateTransmissions(transmissions, OWNER);
+        stats.add(System.nanoTime() - start, 0);
+
+        start = System.nanoTime();
+        Set<Long> synced = new HashSet<>(surveyInstanceIds);
+        Set<Long> unsynced = database.getUnsyncedInstances(synced);
+        synced.removeAll(unsynced);
+        database.updateSurveyStatus(synced, SurveyInstanceStatus.SYNCED);
+        stats.add(System.nanoTime() - start, 0);
+
+        start = System.nanoTime();
+        database.updateSurveyStatus(unsynced, SurveyInstanceStatus.EXPORTED);
+        stats.add(System.nanoTime() - start, 0);
+        stats.stop();
+        Log.i(TAG, stats.toString());
+        assertEquals(FILE_COUNT, transmissions.size());
+        assertTrue(unsynced.isEmpty());
+        assertSynced();
+    }
+
+    /**
+     * Previous per file update of the transmission status, autocommitted
+     */
+    private static void updateTransmission(SQLiteDatabase db, String fileName, int status) {
+        ContentValues values = new ContentValues();
+        values.put(TransmissionColumns.STATUS, status);
+        final String date = String.valueOf(System.currentTimeMillis());
+        if (TransmissionStatus.SYNCED == status) {
+            values.put(TransmissionColumns.END_DATE, date);
+        } else if (TransmissionStatus.IN_PROGRESS == status) {
+            values.put(TransmissionColumns.START_DATE, date);
+        }
+        db.update(Tables.TRANSMISSION, values, TransmissionColumns.FILENAME + " = ?",
+                new String[] { fileName });
+    }
+
+    private void assertSynced() {
+        assertTrue(database.getUnsyncedTransmissions().isEmpty());
+    }
+
+    /**
+     * Store the survey instances, and queue the transmission of their files
+     */
+    private List<Long> createSurveyInstances() {
+        List<SurveyedLocale> dataPoints = new ArrayList<>(INSTANCE_COUNT);
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            SurveyInstance surveyInstance = new SurveyInstance("benchmark-" + i, FORM_ID,
+                    "Enumerator", i, Collections.<QuestionResponse>emptyList());
+            SurveyedLocale dataPoint = new SurveyedLocale("abcd-efgh-" + i, "Data point " + i,
+                    i, SURVEY_GROUP_ID, null, null);
+            dataPoint.setSurveyInstances(Collections.singletonList(surveyInstance));
+            dataPoints.add(dataPoint);
+        }
+        database.syncSurveyedLocales(dataPoints);
+
+        List<Long> ids = new ArrayList<>(INSTANCE_COUNT);
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            long surveyInstanceId = database.getLastSurveyInstance("abcd-efgh-" + i, FORM_ID);
+            List<String> files = new ArrayList<>(FILES_PER_INSTANCE);
+            for (int j = 0; j < FILES_PER_INSTANCE; j++) {
+                files.add("/benchmark/" + i + "-" + j + ".jpg");
+            }
+            database.createTransmissions(surveyInstanceId, FORM_ID, files);
+            ids.add(surveyInstanceId);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Upgrades a database of version 84, as installed before the sync changes, to the
+ * current version. The old schema is spelled out here, as the column constants follow the
+ * current one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseUpgradeTest {
+
+    private static final String DATABASE_NAME = "surveydata";
+    private static final int BASELINE_VERSION = 84;
+
+    private static final String[] BASELINE_SCHEMA = {
+            "CREATE TABLE user (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL,"
+                    + "email TEXT, deleted INTEGER NOT NULL DEFAULT 0)",
+            "CREATE TABLE survey (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "survey_id TEXT NOT NULL, survey_group_id INTEGER, display_name TEXT NOT NULL,"
+                    + "version REAL, type TEXT, location TEXT, filename TEXT, language TEXT,"
+                    + "help_downloaded_flag INTEGER NOT NULL DEFAULT 0,"
+                    + "deleted INTEGER NOT NULL DEFAULT 0,"
+                    + "UNIQUE (survey_id) ON CONFLICT REPLACE)",
+            "CREATE TABLE survey_group (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "survey_group_id INTEGER, name TEXT, register_survey_id TEXT,"
+                    + "monitored INTEGER NOT NULL DEFAULT 0,"
+                    + "UNIQUE (survey_group_id) ON CONFLICT REPLACE)",
+            "CREATE TABLE survey_instance (_id INTEGER PRIMARY KEY AUTOINCREMENT, uuid TEXT,"
+                    + "survey_id TEXT NOT NULL, user_id INTEGER, start_date INTEGER,"
+                    + "saved_date INTEGER, submitted_date INTEGER, surveyed_locale_id TEXT,"
+                    + "status INTEGER, exported_date INTEGER, sync_date INTEGER,"
+                    + "duration INTEGER NOT NULL DEFAULT 0, submitter TEXT, version REAL,"
+                    + "UNIQUE (uuid) ON CONFLICT REPLACE)",
+            "CREATE TABLE response (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "survey_instance_id INTEGER NOT NULL, question_id TEXT NOT NULL,"
+                    + "answer TEXT NOT NULL, type TEXT NOT NULL,"
+                    + "include INTEGER NOT NULL DEFAULT 1, filename TEXT)",
+            "CREATE TABLE record (_id INTEGER PRIMARY KEY AUTOINCREMENT, record_id TEXT,"
+                    + "survey_group_id INTEGER, name TEXT, latitude REAL, longitude REAL,"
+                    + "last_modified INTEGER NOT NULL DEFAULT 0,"
+                    + "UNIQUE (record_id) ON CONFLICT REPLACE)",
+            "CREATE TABLE transmission (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "survey_instance_id INTEGER NOT NULL, survey_id TEXT, filename TEXT,"
+                    + "status INTEGER, start_date INTEGER, end_date INTEGER,"
+                    + "UNIQUE (filename) ON CONFLICT REPLACE)",
+            "CREATE TABLE sync_time (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "survey_group_id INTEGER, time TEXT,"
+                    + "UNIQUE (survey_group_id) ON CONFLICT REPLACE)",
+            "CREATE TABLE IF NOT EXISTS survey_languages_preferences ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "survey_instance_id INTEGER NOT NULL, language_code TEXT NOT NULL, "
+                    + "UNIQUE(survey_instance_id, language_code) ON CONFLICT REPLACE)",
+            "CREATE INDEX response_idx ON response(survey_instance_id, question_id)",
+            "CREATE INDEX record_name_idx ON record(name)",
+            "CREATE INDEX response_status_idx ON survey_instance(status)",
+            "CREATE INDEX response_modified_idx ON survey_instance(submitted_date)",
+    };
+
+    private Context context;
+    private SurveyDbAdapter database;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "upgrade_");
+        context.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        try {
+            for (String statement : BASELINE_SCHEMA) {
+                db.execSQL(statement);
+            }
+            db.execSQL("INSERT INTO transmission (survey_instance_id, survey_id, filename,"
+                    + " status) VALUES (1, '10', '/data/1.zip', "
+                    + TransmissionStatus.QUEUED + ")");
+            db.execSQL("INSERT INTO sync_time (survey_group_id, time) VALUES (5, '1490000000')");
+            db.setVersion(BASELINE_VERSION);
+        } finally {
+            db.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (database != null) {
+            database.close();
+        }
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromBaseline() {
+        database = new SurveyDbAdapter(context).open();
+
+        SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        try {
+            assertTrue(getColumns(db, Tables.UPLOAD_PART).contains(UploadPartColumns.PART_SIZE));
+            Set<String> transmissionColumns = getColumns(db, Tables.TRANSMISSION);
+            assertTrue(transmissionColumns.contains(TransmissionColumns.ATTEMPTS));
+            assertTrue(transmissionColumns.contains(TransmissionColumns.BYTES));
+            assertTrue(transmissionColumns.contains(TransmissionColumns.LEASE_EXPIRY));
+            assertTrue(getColumns(db, Tables.SYNC_TIME).contains(SyncTimeColumns.CURSOR));
+            assertTrue(getColumns(db, Tables.SYNC_JOURNAL).contains(SyncJournalColumns.STAGE));
+        } finally {
+            db.close();
+        }
+
+        // Existing data is kept, and usable by the current code
+        assertEquals("1490000000", database.getSyncTime(5));
+        List<FileTransmission> transmissions = database.acquireTransmissions("owner",
+                System.currentTimeMillis(), 60 * 1000);
+        assertEquals(1, transmissions.size());
+        assertEquals("/data/1.zip", transmissions.get(0).getFileName());
+    }
+
+    private static Set<String> getColumns(SQLiteDatabase db, String table) {
+        Set<String> columns = new HashSet<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.data.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests of the sync state kept by the {@link SurveyDbAdapter}. They run on their own database,
+ * leaving the app data untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SurveyDbAdapterTest {
+
+    private Context context;
+    private SurveyDbAdapter database;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test_");
+        database = new SurveyDbAdapter(context).open();
+        database.clearCollectedData();
+    }
+
+    @After
+    public void tearDown() {
+        database.clearCollectedData();
+        database.close();
+    }
+
+    @Test
+    public void appDatabaseIsNotShared() {
+        // Either one may be open already, i.e. by a scheduled sync in the app process
+        DatabaseHelper appHelper = new DatabaseHelper(InstrumentationRegistry.getTargetContext(),
+                new LanguageTable());
+        DatabaseHelper testHelper = new DatabaseHelper(context, new LanguageTable());
+        try {
+            SQLiteDatabase appDb = appHelper.getWritableDatabase();
+            SQLiteDatabase testDb = testHelper.getWritableDatabase();
+            assertFalse(appDb.getPath().equals(testDb.getPath()));
+            assertEquals(context.getDatabasePath("surveydata").getPath(), testDb.getPath());
+        } finally {
+            testHelper.close();
+            appHelper.close();
+        }
+    }
+
+    @Test
+    public void instancesWithFilesOutsideThePassAreNotSynced() {
+        // Instance 1: every file synced
+        database.createTransmission(1, "10", "/data/1.zip", TransmissionStatus.SYNCED);
+        database.createTransmission(1, "10", "/data/1.jpg", TransmissionStatus.SYNCED);
+        // Instance 2: its form data was synced, but a photo is waiting for a retry
+        database.createTransmission(2, "10", "/data/2.zip", TransmissionStatus.SYNCED);
+        database.createTransmission(2, "10", "/data/2.jpg", TransmissionStatus.FAILED);
+        // Instance 3: a video is still queued
+        database.createTransmission(3, "10", "/data/3.zip", TransmissionStatus.SYNCED);
+        database.createTransmission(3, "10", "/data/3.mp4", TransmissionStatus.QUEUED);
+
+        Set<Long> unsynced = database.getUnsyncedInstances(Arrays.asList(1L, 2L, 3L));
+
+        assertEquals(2, unsynced.size());
+        assertTrue(unsynced.contains(2L));
+        assertTrue(unsynced.contains(3L));
+        assertTrue(database.getUnsyncedInstances(Collections.<Long>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void failedFilesKeepLiveLeases() {
+        final long now = System.currentTimeMillis();
+        database.createTransmission(1, "10", "/data/1.jpg");
+        database.createTransmission(1, "10", "/data/2.jpg", TransmissionStatus.SYNCED);
+        assertEquals(1, database.acquireTransmissions("pass", now, 60000).size());
+
+        // Leased by a running pass
+        assertFalse(database.setTransmissionFailed("/data/1.jpg", now));
+        // Not leased, or the lease has expired
+        assertTrue(database.setTransmissionFailed("/data/2.jpg", now));
+        assertTrue(database.setTransmissionFailed("/data/1.jpg", now + 60000));
+        // Unknown files are recorded
+        assertTrue(database.setTransmissionFailed("/data/3.jpg", now));
+
+        assertEquals(TransmissionStatus.FAILED, getStatus(1, "/data/1.jpg"));
+        assertEquals(TransmissionStatus.FAILED, getStatus(1, "/data/2.jpg"));
+        assertEquals(TransmissionStatus.FAILED, getStatus(-1, "/data/3.jpg"));
+    }
+
+    @Test
+    public void invalidSyncedRowsAreSkipped() {
+        // Responses and survey instances require a value, type and form ID
+        SurveyInstance answered = new SurveyInstance("uuid-1", "10", null, 1000L, Arrays.asList(
+                new QuestionResponse(null, null, "q1"),
+                new QuestionResponse("answer", "VALUE", "q2")));
+        SurveyInstance unknownForm = new SurveyInstance("uuid-2", null, null, 2000L,
+                Collections.<QuestionResponse>emptyList());
+        SurveyedLocale dataPoint = new SurveyedLocale("locale-1", null, 3000L, 1L, null, null);
+        dataPoint.setSurveyInstances(Arrays.asList(answered, unknownForm));
+
+        database.syncSurveyedLocales(Collections.singletonList(dataPoint));
+
+        assertNotNull(database.getSurveyedLocale("locale-1"));
+        Long surveyInstanceId = database.getLastSurveyInstance("locale-1", "10");
+        assertNotNull(surveyInstanceId);
+        Map<String, QuestionResponse> responses = database.getResponses(surveyInstanceId);
+        assertEquals(1, responses.size());
+        assertEquals("answer", responses.get("q2").getValue());
+    }
+
+    @Test
+    public void resetExportsDeleteTheirTransmissions() {
+        final long now = System.currentTimeMillis();
+        database.createTransmission(1, "10", "/data/1.zip");
+        database.createTransmission(1, "10", "/data/1.jpg", TransmissionStatus.SYNCED);
+        database.createTransmission(2, "10", "/data/2.zip");
+        assertEquals(2, database.acquireTransmissions("pass", now, 60000).size());
+
+        database.resetExports(Collections.singletonList(1L));
+
+        assertTrue(database.getFileTransmissions(1).isEmpty());
+        assertEquals(1, database.getFileTransmissions(2).size());
+        // Nothing of the reset instance is left for the expired lease to reclaim
+        for (FileTransmission transmission : database.getUnsyncedTransmissions(now + 60000)) {
+            assertEquals(Long.valueOf(2), transmission.getRespondentId());
+        }
+    }
+
+    private int getStatus(long surveyInstanceId, String filename) {
+        for (FileTransmission transmission : database.getFileTransmissions(surveyInstanceId)) {
+            if (filename.equals(transmission.getFileName())) {
+                return transmission.getStatus();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.testhelper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded stand-in for the S3 and Flow (GAE) back-ends, so the sync paths can be exercised
+ * and measured on a device without real AWS and GAE instances. Point the app to it through
+ * the {@code backend.server} preference, and S3 requests through
+ * {@link org.akvo.flow.api.StandInS3Api}.
+ * It speaks the subset of both APIs the app uses:
+ * <ul>
+ * <li>S3, path-style (any bucket): PUT (including server side copies), GET and HEAD of objects, with
+ * MD5 ETags. Multipart uploads are not supported, so files must stay below the multipart
+ * threshold.</li>
+ * <li>Flow: surveyedlocale (paged by update time), processor (single and batch
+ * notifications), devicenotification and surveymanager.</li>
+ * </ul>
+ * Every response can be delayed by a fixed latency, throttled to a given bandwidth, and
+ * replaced by a 503 error at a given rate. Signatures (SigV2 or SigV4) are not verified.
+ */
+public class StandInServer {
+
+    public static final String PATH_SURVEYED_LOCALE = "/surveyedlocale";
+    public static final String PATH_PROCESSOR = "/processor";
+    public static final String PATH_DEVICE_NOTIFICATION = "/devicenotification";
+    public static final String PATH_SURVEY_MANAGER = "/surveymanager";
+    /**
+     * Request counter of all S3 object requests. Any other path is served as an S3 object,
+     * keyed by its full path, bucket included.
+     */
+    public static final String PATH_S3 = "/s3";
+
+    private static final List<String> FLOW_PATHS = Arrays.asList(PATH_SURVEYED_LOCALE,
+            PATH_PROCESSOR, PATH_DEVICE_NOTIFICATION, PATH_SURVEY_MANAGER);
+
+    private static final int ANSWERS_PER_DATA_POINT = 10;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String CRLF = "\r\n";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final List<String> surveys = Collections.synchronizedList(new ArrayList<String>());
+    private final Random random = new Random(0);
+
+    private volatile long latencyMs = 0;
+    private volatile long bandwidth = 0;// Bytes per second. 0 means unlimited
+    private volatile double failureRate = 0;
+
+    private volatile long dataPointGroup;
+    private volatile long dataPointForm;
+    private volatile int dataPointCount = 0;
+    private volatile int dataPointPageSize = 100;
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // Server stopped
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Delay added to every response
+     */
+    public void setLatency(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Bandwidth of every single connection, in bytes per second. 0 means unlimited.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Rate, between 0 and 1, of requests answered with a 503 error
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Serve the given number of data points for the survey group, in pages of the given size.
+     * Each data point holds one form instance of the given form.
+     */
+    public void setDataPoints(long surveyGroupId, long formId, int count, int pageSize) {
+        this.dataPointGroup = surveyGroupId;
+        this.dataPointForm = formId;
+        this.dataPointCount = count;
+        this.dataPointPageSize = pageSize;
+    }
+
+    /**
+     * Add a survey to the surveymanager list, formatted as the server does:
+     * device,id,name,language,version,groupId,groupName,monitored,registrationSurveyId
+     */
+    public void addSurvey(String line) {
+        surveys.add(line);
+    }
+
+    /**
+     * @param path object path, as in /bucket/key
+     */
+    public void putObject(String path, byte[] data) {
+        objects.put(path, data);
+    }
+
+    public byte[] getObject(String path) {
+        return objects.get(path);
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    /**
+     * Number of requests served for the given path, i.e. {@link #PATH_PROCESSOR}
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = requests.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    public void resetRequestCounts() {
+        requests.clear();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Request request;
+            while ((request = Request.read(in)) != null) {
+                Response response = handle(request);
+                sleep(latencyMs);
+                response.write(out, "HEAD".equals(request.method), bandwidth);
+                if (!request.keepAlive) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // Connection closed by the client
+        } catch (IOException e) {
+            // Broken connection
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private Response handle(Request request) throws IOException {
+        final boolean flowRequest = FLOW_PATHS.contains(request.path);
+        String counter = flowRequest ? request.path : PATH_S3;
+        requests.putIfAbsent(counter, new AtomicInteger());
+        requests.get(counter).incrementAndGet();
+
+        if (failureRate > 0 && nextDouble() < failureRate) {
+            return new Response(503, "Injected failure");
+        }
+        if (!flowRequest) {
+            return handleS3(request, request.path);
+        }
+        switch (request.path) {
+            case PATH_SURVEYED_LOCALE:
+                return handleSurveyedLocales(request);
+            case PATH_PROCESSOR:
+                return handleProcessor(request);
+            case PATH_DEVICE_NOTIFICATION:
+                return new Response(200, "{\"missingFiles\":[],\"missingUnknown\":[],"
+                        + "\"deletedForms\":[]}");
+            case PATH_SURVEY_MANAGER:
+                StringBuilder builder = new StringBuilder();
+                synchronized (surveys) {
+                    for (String survey : surveys) {
+                        builder.append(survey).append('\n');
+                    }
+                }
+                return new Response(200, builder.toString());
+            default:
+                return new Response(404, "Not found");
+        }
+    }
+
+    private Response handleS3(Request request, String key) {
+        switch (request.method) {
+            case "PUT":
+                String copySource = request.headers.get("x-amz-copy-source");
+                if (copySource != null) {
+                    byte[] source = objects.get(copySource);
+                    if (source == null) {
+                        return new Response(404, "<Error><Code>NoSuchKey</Code></Error>");
+                    }
+                    objects.put(key, source);
+                    return new Response(200, "<CopyObjectResult><ETag>\"" + md5(source)
+                            + "\"</ETag></CopyObjectResult>");
+                }
+                objects.put(key, request.body);
+                Response response = new Response(200, new byte[0]);
+                response.headers.put("ETag", "\"" + md5(request.body) + "\"");
+                return response;
+            case "GET":
+            case "HEAD":
+                byte[] data = objects.get(key);
+                if (data == null) {
+                    return new Response(404, "<Error><Code>NoSuchKey</Code></Error>");
+                }
+                Response object = new Response(200, data);
+                object.headers.put("ETag", "\"" + md5(data) + "\"");
+                return object;
+            default:
+                return new Response(501, "Not implemented");
+        }
+    }
+
+    private Response handleSurveyedLocales(Request request) {
+        long since = 0;
+        String lastUpdate = request.query.get("lastUpdateTime");
+        if (lastUpdate != null && !lastUpdate.isEmpty()) {
+            since = Long.parseLong(lastUpdate);
+        }
+        // Data point i was last updated at time i + 1
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode dataPoints = root.putArray("surveyedLocaleData");
+        for (long time = since + 1; time <= dataPointCount
+                && dataPoints.size() < dataPointPageSize; time++) {
+            ObjectNode dataPoint = dataPoints.addObject();
+            dataPoint.put("id", String.format(Locale.US, "dp-%06d", time));
+            dataPoint.put("surveyGroupId", dataPointGroup);
+            dataPoint.put("displayName", "Data point " + time);
+            dataPoint.put("lat", 52.0 + time / 100000.0);
+            dataPoint.put("lon", 4.0 + time / 100000.0);
+            dataPoint.put("lastUpdateDateTime", time);
+            ObjectNode formInstance = dataPoint.putArray("surveyInstances").addObject();
+            formInstance.put("uuid", String.format(Locale.US, "fi-%06d", time));
+            formInstance.put("surveyId", String.valueOf(dataPointForm));
+            formInstance.put("collectionDate", time);
+            formInstance.put("submitter", "stand-in");
+            ArrayNode answers = formInstance.putArray("qasList");
+            for (int question = 1; question <= ANSWERS_PER_DATA_POINT; question++) {
+                answers.addObject()
+                        .put("q", String.valueOf(question))
+                        .put("a", "Answer " + question + " of data point " + time);
+            }
+        }
+        return new Response(200, root.toString());
+    }
+
+    private Response handleProcessor(Request request) throws IOException {
+        if (!"batch".equals(request.query.get("action"))) {
+            return new Response(200, "OK");
+        }
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode results = root.putArray("results");
+        for (JsonNode file : mapper.readTree(request.body).path("files")) {
+            results.addObject()
+                    .put("fileName", file.path("fileName").asText())
+                    .put("status", 200);
+        }
+        return new Response(200, root.toString());
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Request {
+        String method;
+        String path;
+        final Map<String, String> query = new HashMap<>();
+        final Map<String, String> headers = new HashMap<>();
+        byte[] body = new byte[0];
+        boolean keepAlive = true;
+
+        /**
+         * @return the next request of the connection, or null once it is closed
+         */
+        static Request read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            Request request = new Request();
+            request.method = parts[0];
+            String target = parts[1];
+            int queryStart = target.indexOf('?');
+            request.path = queryStart < 0 ? target : target.substring(0, queryStart);
+            if (queryStart >= 0) {
+                for (String param : target.substring(queryStart + 1).split("&")) {
+                    int eq = param.indexOf('=');
+                    if (eq > 0) {
+                        request.query.put(param.substring(0, eq),
+                                URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                    }
+                }
+            }
+
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            request.keepAlive = !"close".equalsIgnoreCase(request.headers.get("connection"));
+
+            String length = request.headers.get("content-length");
+            if (length != null) {
+                request.body = readFully(in, Integer.parseInt(length));
+            } else if ("chunked".equalsIgnoreCase(request.headers.get("transfer-encoding"))) {
+                request.body = readChunked(in);
+            }
+            if ("aws-chunked".equalsIgnoreCase(request.headers.get("content-encoding"))) {
+                // SigV4 streamed payload. Chunk signatures are not verified
+                request.body = readChunked(new ByteArrayInputStream(request.body));
+            }
+            return request;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder builder = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int end = builder.length();
+                    if (end > 0 && builder.charAt(end - 1) == '\r') {
+                        builder.setLength(end - 1);
+                    }
+                    return builder.toString();
+                }
+                builder.append((char) c);
+            }
+            return builder.length() > 0 ? builder.toString() : null;
+        }
+
+        private static byte[] readFully(InputStream in, int length) throws IOException {
+            byte[] data = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = in.read(data, offset, length - offset);
+                if (read == -1) {
+                    throw new IOException("Unexpected end of request body");
+                }
+                offset += read;
+            }
+            return data;
+        }
+
+        private static byte[] readChunked(InputStream in) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new IOException("Unexpected end of chunked body");
+                }
+                int size = Integer.parseInt(sizeLine.split(";")[0].trim(), 16);
+                if (size == 0) {
+                    readLine(in);// Trailing CRLF
+                    return body.toByteArray();
+                }
+                body.write(readFully(in, size));
+                readLine(in);
+            }
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        Response(int status, String body) {
+            this(status, body.getBytes(UTF_8));
+        }
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        void write(OutputStream out, boolean headOnly, long bandwidth) throws IOException {
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append(' ')
+                    .append(status < 400 ? "OK" : "Error").append(CRLF);
+            headers.put("Content-Length", String.valueOf(body.length));
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+            }
+            head.append(CRLF);
+            out.write(head.toString().getBytes("ISO-8859-1"));
+            if (!headOnly) {
+                writeThrottled(out, body, bandwidth);
+            }
+            out.flush();
+        }
+
+        private static void writeThrottled(OutputStream out, byte[] data, long bandwidth)
+                throws IOException {
+            if (bandwidth <= 0) {
+                out.write(data);
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(BUFFER_SIZE, data.length - offset);
+                out.write(data, offset, length);
+                offset += length;
+                // Hold the stream back until the time the bytes so far should have taken
+                sleep(offset * 1000L / bandwidth - (System.currentTimeMillis() - start));
+            }
+        }
+    }
+}
@@ -33,7 +33,9 @@ import android.widget.Toast;
 import org.akvo.flow.R;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.util.ConnectivityStateManager;
+import org.akvo.flow.util.FileDigestHelper;
 import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.HttpClient;
 import org.akvo.flow.util.FileUtil.FileType;
 import org.akvo.flow.util.PlatformUtil;
 
@@ -47,6 +49,8 @@ import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 import timber.log.Timber;
 
@@ -125,7 +129,7 @@ public class AppUpdateActivity extends Activity {
                 // The file was found, but we need to ensure the checksum matches,
                 // to ensure the download succeeded
                 File file = new File(latestVersion);
-                if (!mMd5Checksum.equals(FileUtil.hexMd5(file))) {
+                if (!mMd5Checksum.equals(new FileDigestHelper(this).getHexMd5(file))) {
                     file.delete();// Wipe corrupted files
                     return null;
                 }
@@ -161,6 +165,7 @@ public class AppUpdateActivity extends Activity {
         private final String mVersion;
         private final WeakReference<AppUpdateActivity> activityWeakReference;
         private final ConnectivityStateManager connectivityStateManager;
+        private final FileDigestHelper digestHelper;
         private String mMd5Checksum;
 
         public UpdateAsyncTask(AppUpdateActivity context, String mUrl, String mVersion,
@@ -170,6 +175,7 @@ public class AppUpdateActivity extends Activity {
             this.mVersion = mVersion;
             this.activityWeakReference = new WeakReference<>(context);
             this.connectivityStateManager = new ConnectivityStateManager(context);
+            this.digestHelper = new FileDigestHelper(context);
             this.mMd5Checksum = mMd5Checksum;
         }
 
@@ -272,14 +278,17 @@ public class AppUpdateActivity extends Activity {
             InputStream in = null;
             OutputStream out = null;
             HttpURLConnection conn = null;
+            int bytesWritten = 0;
             try {
                 URL url = new URL(location);
-                conn = (HttpURLConnection) url.openConnection();
+                conn = HttpClient.getInstance().open(url);
 
                 in = new BufferedInputStream(conn.getInputStream());
-                out = new BufferedOutputStream(new FileOutputStream(localPath));
+                // Hash the APK as it is written, so it does not need to be read again
+                MessageDigest md5 = FileDigestHelper.newMd5Digest();
+                out = new DigestOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(localPath)), md5);
 
-                int bytesWritten = 0;
                 byte[] b = new byte[IO_BUFFER_SIZE];
 
                 final int fileSize = conn.getContentLength();
@@ -299,10 +308,14 @@ public class AppUpdateActivity extends Activity {
                 final int status = conn.getResponseCode();
 
                 if (status == HttpURLConnection.HTTP_OK) {
-                    final String checksum = FileUtil.hexMd5(new File(localPath));
-                    if (TextUtils.isEmpty(checksum)) {
+                    out.close();
+                    File file = new File(localPath);
+                    if (!file.exists()) {
                         throw new IOException("Downloaded file is not available");
                     }
+                    final byte[] rawMd5 = md5.digest();
+                    final String checksum = FileUtil.hexMd5(rawMd5);
+                    digestHelper.saveMd5(file, rawMd5);
 
                     if (mMd5Checksum == null) {
                         // If we don't have a checksum yet, try to get it form the ETag header
@@ -319,8 +332,11 @@ public class AppUpdateActivity extends Activity {
             } catch (IOException e) {
                 Timber.e(e, e.getMessage());
             } finally {
-                if (conn != null) {
-                    conn.disconnect();
+                if (ok) {
+                    HttpClient.getInstance().release(conn, bytesWritten);
+                } else {
+                    // Cancelled or broken downloads leave unread data; drop the socket
+                    HttpClient.getInstance().abort(conn);
                 }
                 FileUtil.close(in);
                 FileUtil.close(out);
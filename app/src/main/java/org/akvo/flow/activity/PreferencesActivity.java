@@ -36,6 +36,7 @@ import org.akvo.flow.R;
 import org.akvo.flow.app.FlowApp;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.service.SurveyDownloadService;
+import org.akvo.flow.service.schedule.SyncScheduler;
 import org.akvo.flow.util.ServerManager;
 import org.akvo.flow.util.StringUtil;
 import org.akvo.flow.util.ViewUtil;
@@ -221,6 +222,8 @@ public class PreferencesActivity extends BackActivity implements OnClickListener
             prefs.setBoolean(Prefs.KEY_SCREEN_ON, isChecked);
         } else if (buttonView == mobileDataCheckbox) {
             prefs.setBoolean(Prefs.KEY_CELL_UPLOAD, isChecked);
+            // The network required by the sync windows has changed
+            SyncScheduler.schedule(this);
         }
     }
 
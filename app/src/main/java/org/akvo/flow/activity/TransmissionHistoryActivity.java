@@ -20,14 +20,20 @@
 package org.akvo.flow.activity;
 
 import android.app.ListActivity;
+import android.content.Intent;
 import android.os.Bundle;
+import android.view.View;
 import android.view.Window;
+import android.widget.TextView;
 
 import org.akvo.flow.R;
 import org.akvo.flow.data.database.SurveyDbAdapter;
 import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.SyncSession;
 import org.akvo.flow.ui.adapter.FileTransmissionArrayAdapter;
 import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.HttpClient;
+import org.akvo.flow.util.SyncReport;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,6 +44,12 @@ import java.util.List;
  * @author Christopher Fagiani
  */
 public class TransmissionHistoryActivity extends ListActivity {
+
+    /**
+     * Sync sessions included in the shared metrics
+     */
+    private static final int REPORT_SESSIONS = 50;
+
     private SurveyDbAdapter databaseAdapter;
     private Long respondentId;
 
@@ -55,6 +67,12 @@ public class TransmissionHistoryActivity extends ListActivity {
         }
         setContentView(R.layout.transmissionhistory);
         databaseAdapter = new SurveyDbAdapter(this);
+        findViewById(R.id.export_metrics).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                shareMetrics();
+            }
+        });
 
     }
 
@@ -65,6 +83,20 @@ public class TransmissionHistoryActivity extends ListActivity {
     }
 
     private void getData() {
+        TextView networkQuality = (TextView) findViewById(R.id.network_quality);
+        networkQuality.setText(getString(R.string.network_quality,
+                HttpClient.getInstance().getNetworkQuality()));
+
+        TextView syncSession = (TextView) findViewById(R.id.sync_session);
+        List<SyncSession> sessions = databaseAdapter.getSyncSessions(1);
+        if (!sessions.isEmpty()) {
+            SyncSession session = sessions.get(0);
+            syncSession.setText(getString(R.string.sync_session_summary, session.getFiles(),
+                    session.getFailed(), session.getFilesPerSecond(),
+                    session.getMegabytesPerSecond(), session.getExportTime(),
+                    session.getUploadTime(), session.getNotifyTime()));
+        }
+
         List<FileTransmission> transmissionList = databaseAdapter.getFileTransmissions(respondentId);
         FileTransmissionArrayAdapter adapter = new FileTransmissionArrayAdapter(
                 this, R.layout.transmissionrow,
@@ -73,6 +105,20 @@ public class TransmissionHistoryActivity extends ListActivity {
         setListAdapter(adapter);
     }
 
+    /**
+     * Share the recent sync sessions and the transmissions of this submission as plain text,
+     * i.e. to be emailed to field support
+     */
+    private void shareMetrics() {
+        String report = new SyncReport().format(databaseAdapter.getSyncSessions(REPORT_SESSIONS),
+                databaseAdapter.getFileTransmissions(respondentId));
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.sync_metrics_subject));
+        intent.putExtra(Intent.EXTRA_TEXT, report);
+        startActivity(Intent.createChooser(intent, getString(R.string.export_sync_metrics)));
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
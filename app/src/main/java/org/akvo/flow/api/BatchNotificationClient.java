@@ -0,0 +1,128 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.api;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.akvo.flow.domain.ProcessingNotification;
+import org.akvo.flow.exception.HttpException;
+import org.akvo.flow.util.HttpUtil;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Sends a whole batch of processing notifications in a single request. The request body is
+ * a JSON document like:
+ * {"files": [{"formID": "123", "action": "submit", "fileName": "uuid.zip"}, ...]}
+ * and the server replies with the outcome of each file:
+ * {"results": [{"fileName": "uuid.zip", "status": 200}, ...]}
+ * Status codes follow the ones of the single file notification: 200 (OK), 404 (form deleted)
+ * or any other error code.
+ */
+public class BatchNotificationClient {
+
+    private static final String FILES = "files";
+    private static final String RESULTS = "results";
+    private static final String FORM_ID = "formID";
+    private static final String ACTION = "action";
+    private static final String FILENAME = "fileName";
+    private static final String STATUS = "status";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A 400 (bad request) only rejects this batch, and is thrown as any other error
+     *
+     * @return the status code of each file, by file name, or null if the server does not
+     * support batch notifications
+     */
+    @Nullable
+    public Map<String, Integer> send(@NonNull String url,
+            @NonNull List<ProcessingNotification> notifications) throws IOException {
+        String response;
+        try {
+            response = HttpUtil.httpPostJson(url, serialize(notifications));
+        } catch (HttpException e) {
+            switch (e.getStatus()) {
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                case HttpURLConnection.HTTP_BAD_METHOD:
+                case HttpURLConnection.HTTP_NOT_IMPLEMENTED:
+                    Timber.w("Batch notifications not supported. Status: %d", e.getStatus());
+                    return null;
+                default:
+                    throw e;
+            }
+        }
+        return parse(response);
+    }
+
+    @NonNull
+    String serialize(@NonNull List<ProcessingNotification> notifications) throws IOException {
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode files = root.putArray(FILES);
+        for (ProcessingNotification notification : notifications) {
+            files.addObject()
+                    .put(FORM_ID, notification.getFormId())
+                    .put(ACTION, notification.getAction())
+                    .put(FILENAME, notification.getFileName());
+        }
+        return mapper.writeValueAsString(root);
+    }
+
+    /**
+     * @return results by file name, or null if the response is not a batch response
+     */
+    @Nullable
+    Map<String, Integer> parse(@Nullable String response) {
+        if (response == null) {
+            return null;
+        }
+        JsonNode results;
+        try {
+            results = mapper.readTree(response).get(RESULTS);
+        } catch (IOException e) {
+            Timber.w("Unexpected batch notification response: %s", e.getMessage());
+            return null;
+        }
+        if (results == null || !results.isArray()) {
+            return null;
+        }
+        Map<String, Integer> statuses = new HashMap<>();
+        for (JsonNode result : results) {
+            JsonNode fileName = result.get(FILENAME);
+            if (fileName != null) {
+                statuses.put(fileName.asText(), result.path(STATUS).asInt(FlowApi.ERROR_UNKNOWN));
+            }
+        }
+        return statuses;
+    }
+}
@@ -26,15 +26,16 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Base64;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 import org.akvo.flow.BuildConfig;
 import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.domain.ProcessingNotification;
 import org.akvo.flow.domain.Survey;
-import org.akvo.flow.domain.SurveyedLocale;
-import org.akvo.flow.domain.response.SurveyedLocalesResponse;
 import org.akvo.flow.exception.HttpException;
 import org.akvo.flow.exception.HttpException.Status;
 import org.akvo.flow.serialization.form.SurveyMetaParser;
-import org.akvo.flow.serialization.response.SurveyedLocaleParser;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser;
 import org.akvo.flow.util.HttpUtil;
 import org.akvo.flow.util.PlatformUtil;
 import org.akvo.flow.util.ServerManager;
@@ -43,6 +44,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
@@ -52,8 +54,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.crypto.Mac;
@@ -71,7 +75,18 @@ public class FlowApi {
 
     private final String deviceIdentifier;
 
-    private static final int ERROR_UNKNOWN = -1;
+    static final int ERROR_UNKNOWN = -1;
+
+    /**
+     * Maximum number of files announced in a single batch notification
+     */
+    private static final int NOTIFICATION_BATCH_SIZE = 100;
+
+    /**
+     * Whether the server does not support batch notifications (404, 405 or 501). Kept for the
+     * lifetime of the process, so unsupported batches are not attempted on every sync.
+     */
+    private static volatile boolean sBatchNotificationsUnsupported = false;
     private static final String HMAC_SHA_1_ALGORITHM = "HmacSHA1";
     private static final String CHARSET_UTF8 = "UTF-8";
 
@@ -209,6 +224,92 @@ public class FlowApi {
         }
     }
 
+    /**
+     * Notify GAE back-end of a set of uploaded files, using as few requests as possible.
+     * Servers not supporting batch notifications are notified of every file separately.
+     *
+     * @return the status code of each notification, by file name
+     */
+    @NonNull
+    public Map<String, Integer> sendProcessingNotifications(
+            @NonNull List<ProcessingNotification> notifications) {
+        Map<String, Integer> results = new HashMap<>();
+        int start = 0;
+        while (start < notifications.size() && !sBatchNotificationsUnsupported) {
+            List<ProcessingNotification> batch = notifications.subList(start,
+                    Math.min(start + NOTIFICATION_BATCH_SIZE, notifications.size()));
+            Map<String, Integer> batchResults = sendBatchNotification(batch);
+            if (batchResults == null) {
+                sBatchNotificationsUnsupported = true;
+                break;
+            }
+            for (ProcessingNotification notification : batch) {
+                Integer status = batchResults.get(notification.getFileName());
+                results.put(notification.getFileName(), status != null ? status : ERROR_UNKNOWN);
+            }
+            start += batch.size();
+        }
+
+        // Per-file fallback
+        results.putAll(sendEachNotification(notifications.subList(start, notifications.size())));
+        return results;
+    }
+
+    @NonNull
+    private Map<String, Integer> sendEachNotification(
+            @NonNull List<ProcessingNotification> notifications) {
+        Map<String, Integer> results = new HashMap<>();
+        for (ProcessingNotification notification : notifications) {
+            results.put(notification.getFileName(),
+                    sendProcessingNotification(notification.getFormId(),
+                            notification.getAction(), notification.getFileName()));
+        }
+        return results;
+    }
+
+    /**
+     * A batch rejected as a bad request, i.e. with a malformed entry, is notified file by file
+     *
+     * @return results by file name, or null if batch notifications are not supported
+     */
+    @Nullable
+    private Map<String, Integer> sendBatchNotification(
+            @NonNull List<ProcessingNotification> notifications) {
+        try {
+            return new BatchNotificationClient()
+                    .send(buildBatchNotificationUrl(baseUrl), notifications);
+        } catch (HttpException e) {
+            if (e.getStatus() == HttpURLConnection.HTTP_BAD_REQUEST) {
+                Timber.w("Batch notification rejected. Notifying its files one by one");
+                return sendEachNotification(notifications);
+            }
+            Timber.e("%d response for batch notification", e.getStatus());
+            return getFailedResults(notifications, e.getStatus());
+        } catch (IOException e) {
+            Timber.e(e, "GAE batch sync notification failed");
+            return getFailedResults(notifications, ERROR_UNKNOWN);
+        }
+    }
+
+    @NonNull
+    private static Map<String, Integer> getFailedResults(
+            @NonNull List<ProcessingNotification> notifications, int status) {
+        Map<String, Integer> results = new HashMap<>();
+        for (ProcessingNotification notification : notifications) {
+            results.put(notification.getFileName(), status);
+        }
+        return results;
+    }
+
+    @NonNull
+    private String buildBatchNotificationUrl(@NonNull String serverBaseUrl) {
+        Uri.Builder builder = Uri.parse(serverBaseUrl).buildUpon();
+        builder.appendPath(Path.NOTIFICATION);
+        builder.appendQueryParameter(Param.PARAM_ACTION, Param.VALUE_BATCH);
+        appendDeviceParams(builder);
+        return builder.build().toString();
+    }
+
     @NonNull
     private String buildProcessingNotificationUrl(@NonNull String serverBaseUrl,
             @NonNull String formId, @NonNull
@@ -222,32 +323,55 @@ public class FlowApi {
         return builder.build().toString();
     }
 
-    @Nullable
-    public List<SurveyedLocale> getSurveyedLocales(long surveyGroup, @NonNull String timestamp)
-            throws IOException {
+    /**
+     * Fetch a page of the data points of the survey group modified since the given time,
+     * handing them to the callback one by one, as they are read from the response
+     *
+     * @param cursor   paging token returned with the previous page, if any. The server reads
+     *                 from the cursor rather than from the given time.
+     * @param pageSize number of data points to request, or 0 for the server default
+     * @return the paging of the response, with the cursor of the next page
+     */
+    @NonNull
+    public SurveyedLocaleStreamParser.Paging getSurveyedLocales(long surveyGroup,
+            @Nullable String timestamp, @Nullable String cursor, int pageSize,
+            @NonNull final SurveyedLocaleStreamParser.Callback callback) throws IOException {
         // Note: To compute the HMAC auth token, query params must be alphabetically ordered
-        String url = buildSyncUrl(baseUrl, surveyGroup, timestamp);
-        String response = HttpUtil.httpGet(url);
-        if (response != null) {
-            SurveyedLocalesResponse slRes = new SurveyedLocaleParser().parseResponse(response);
-            if (slRes.getError() != null) {
-                throw new HttpException(slRes.getError(), Status.MALFORMED_RESPONSE);
-            }
-            return slRes.getSurveyedLocales();
+        String url = buildSyncUrl(baseUrl, surveyGroup, timestamp, cursor, pageSize);
+        try {
+            return HttpUtil.httpGet(url,
+                    new HttpUtil.StreamReader<SurveyedLocaleStreamParser.Paging>() {
+                        @Override
+                        public SurveyedLocaleStreamParser.Paging read(@NonNull InputStream in)
+                                throws IOException {
+                            SurveyedLocaleStreamParser parser = new SurveyedLocaleStreamParser();
+                            parser.parse(in, callback);
+                            return parser.getPaging();
+                        }
+                    });
+        } catch (JsonProcessingException e) {
+            // Something went wrong in the parsing. We consider this invalid data,
+            // and will stop the sync, to avoid storing corrupted data.
+            Timber.e(e, e.getMessage());
+            throw new HttpException("Invalid JSON response", Status.MALFORMED_RESPONSE);
         }
-
-        return null;
     }
 
     @NonNull
     private String buildSyncUrl(@NonNull String serverBaseUrl, long surveyGroup,
-            @NonNull String timestamp) {
+            @Nullable String timestamp, @Nullable String cursor, int pageSize) {
         // Note: To compute the HMAC auth token, query params must be alphabetically ordered
         StringBuilder queryStringBuilder = new StringBuilder();
         appendParam(queryStringBuilder, Param.ANDROID_ID, encodeParam(androidId));
+        if (!TextUtils.isEmpty(cursor)) {
+            appendParam(queryStringBuilder, Param.CURSOR, encodeParam(cursor));
+        }
         appendParam(queryStringBuilder, Param.IMEI, encodeParam(imei));
         appendParam(queryStringBuilder, Param.LAST_UPDATED, (!TextUtils.isEmpty(timestamp) ?
                 timestamp : "0"));
+        if (pageSize > 0) {
+            appendParam(queryStringBuilder, Param.PAGE_SIZE, String.valueOf(pageSize));
+        }
         appendParam(queryStringBuilder, Param.PHONE_NUMBER, encodeParam(phoneNumber));
         appendParam(queryStringBuilder, Param.SURVEY_GROUP, surveyGroup + "");
         queryStringBuilder.append(Param.TIMESTAMP).append(Param.EQUALS).append(getTimestamp());
@@ -330,6 +454,8 @@ public class FlowApi {
         String IMEI = "imei";
         String TIMESTAMP = "ts";
         String LAST_UPDATED = "lastUpdateTime";
+        String CURSOR = "cursor";
+        String PAGE_SIZE = "pageSize";
         String HMAC = "h";
         String VERSION = "ver";
         String DEVICE_ID = "devId";
@@ -342,6 +468,7 @@ public class FlowApi {
 
         String VALUE_HEADER = "getSurveyHeader";
         String VALUE_SURVEY = "getAvailableSurveysDevice";
+        String VALUE_BATCH = "batch";
 
         String SEPARATOR = "&";
         String EQUALS = "=";
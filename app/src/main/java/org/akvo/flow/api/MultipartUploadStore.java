@@ -0,0 +1,43 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.api;
+
+import android.support.annotation.NonNull;
+
+import org.akvo.flow.domain.UploadPart;
+
+import java.util.List;
+
+/**
+ * Persistence of S3 multipart upload progress, keyed by local file path.
+ */
+public interface MultipartUploadStore {
+
+    /**
+     * @return confirmed parts, sorted by part number. An empty list if there is no upload
+     * in progress for the given file.
+     */
+    @NonNull
+    List<UploadPart> getUploadParts(@NonNull String filename);
+
+    void saveUploadPart(@NonNull String filename, @NonNull UploadPart part);
+
+    void deleteUploadParts(@NonNull String filename);
+}
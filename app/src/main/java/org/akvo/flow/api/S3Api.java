@@ -20,12 +20,19 @@
 package org.akvo.flow.api;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Base64;
 
+import org.akvo.flow.domain.UploadPart;
 import org.akvo.flow.exception.HttpException;
 import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.FileDigestHelper;
 import org.akvo.flow.util.FileUtil;
+import org.akvo.flow.util.HttpClient;
 import org.akvo.flow.util.HttpUtil;
+import org.akvo.flow.util.NetworkQuality;
 import org.akvo.flow.util.PropertyUtil;
 
 import java.io.BufferedInputStream;
@@ -33,68 +40,109 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.security.InvalidKeyException;
-import java.security.Key;
-import java.security.NoSuchAlgorithmException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.TimeZone;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import timber.log.Timber;
 
 public class S3Api {
     private static final String URL = "https://%s.s3.amazonaws.com/%s";
-    private static final String PAYLOAD_GET = "GET\n\n\n%s\n/%s/%s";// date, bucket, obj
-    private static final String PAYLOAD_PUT_PUBLIC = "PUT\n%s\n%s\n%s\nx-amz-acl:public-read\n/%s/%s";// md5, type, date, bucket, obj
-    private static final String PAYLOAD_PUT_PRIVATE = "PUT\n%s\n%s\n%s\n/%s/%s";// md5, type, date, bucket, obj
-    private static final String PAYLOAD_HEAD = "HEAD\n\n\n%s\n/%s/%s";// date, bucket, obj
+    private static final String ENDPOINT_URL = "%s/%s/%s";// endpoint, bucket, obj
+
+    private static final String PART_CONTENT_TYPE = "application/octet-stream";
+    private static final String XML_CONTENT_TYPE = "application/xml";
+
+    /**
+     * Files bigger than this will be sent as a multipart upload, if a store is provided
+     */
+    public static final long MULTIPART_THRESHOLD = 10 * 1024 * 1024;
+
+    /**
+     * Size of each part of a multipart upload. S3 requires at least 5 MB, except for the last one.
+     */
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * Part size on good networks, saving requests. A failed part is sent again in full.
+     */
+    private static final int LARGE_PART_SIZE = 8 * 1024 * 1024;
 
     private String mBucket;
-    private String mAccessKey;
-    private String mSecret;
+    private final SigV2Signer mV2Signer;
+    @Nullable
+    private final SigV4Signer mV4Signer;
+    private final String mEndpoint;
+    private final FileDigestHelper mDigestHelper;
 
     public S3Api(Context c) {
+        this(c, null);
+    }
+
+    /**
+     * @param endpoint S3 compatible endpoint to send requests to, instead of AWS. Only meant
+     *                 for tests against a local stand-in server.
+     */
+    S3Api(Context c, @Nullable String endpoint) {
         PropertyUtil properties = new PropertyUtil(c.getResources());
         mBucket = properties.getProperty(ConstantUtil.S3_BUCKET);
-        mAccessKey = properties.getProperty(ConstantUtil.S3_ACCESSKEY);
-        mSecret = properties.getProperty(ConstantUtil.S3_SECRET);
+        final String accessKey = properties.getProperty(ConstantUtil.S3_ACCESSKEY);
+        final String secret = properties.getProperty(ConstantUtil.S3_SECRET);
+        final String region = properties.getProperty(ConstantUtil.S3_REGION);
+        mV2Signer = new SigV2Signer(accessKey, secret);
+        // SigV4 requires the region of the bucket. Without it, fall back to the legacy scheme
+        mV4Signer = TextUtils.isEmpty(region) ? null : new SigV4Signer(accessKey, secret, region);
+        mDigestHelper = new FileDigestHelper(c);
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * Objects are addressed by bucket subdomain, unless an S3 compatible endpoint (i.e. a local
+     * stand-in server) is given, which is then addressed by path.
+     */
+    private String getUrl(String objectKey) {
+        if (TextUtils.isEmpty(mEndpoint)) {
+            return String.format(URL, mBucket, objectKey);
+        }
+        return String.format(ENDPOINT_URL, mEndpoint, mBucket, objectKey);
     }
 
     public String getEtag(String objectKey) throws IOException {
-        // Get date and signature
-        final String date = getDate();
-        final String payload = String.format(PAYLOAD_HEAD, date, mBucket, objectKey);
-        final String signature = getSignature(payload);
-        final URL url = new URL(String.format(URL, mBucket, objectKey));
+        final URL url = new URL(getUrl(objectKey));
 
         HttpURLConnection conn = null;
         String etag = null;
         try {
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestProperty("Date", date);
-            conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
+            conn = HttpClient.getInstance().open(url);
             // Handle EOS bug in Android pre Jelly Bean: https://code.google.com/p/android/issues/detail?id=24672
-            conn.setRequestProperty("Accept-Encoding", "");
+            // The ETag also refers to the stored bytes, not to a compressed representation
+            HttpUtil.setAcceptEncoding(conn, false);
             conn.setRequestMethod("HEAD");
+            authorize(conn, objectKey, SigV4Signer.EMPTY_PAYLOAD);
 
             if (conn.getResponseCode() == 200) {
                 etag = getEtag(conn);
             }
             return etag;
         } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
+            HttpClient.getInstance().release(conn);
         }
     }
 
@@ -103,7 +151,7 @@ public class S3Api {
         if (etag == null) {
             throw new HttpException("Could not read ETag from object: " + objectKey, 404);
         }
-        if (dst.exists() && etag.equals(FileUtil.hexMd5(dst))) {
+        if (dst.exists() && etag.equals(mDigestHelper.getHexMd5(dst))) {
             // No need to re-fetch the file. The integrity of the local copy has been verified
             return;
         }
@@ -111,22 +159,21 @@ public class S3Api {
     }
 
     public void get(String objectKey, File dst) throws IOException {
-        // Get date and signature
-        final String date = getDate();
-        final String payload = String.format(PAYLOAD_GET, date, mBucket, objectKey);
-        final String signature = getSignature(payload);
-        final URL url = new URL(String.format(URL, mBucket, objectKey));
+        final URL url = new URL(getUrl(objectKey));
 
         InputStream in = null;
-        OutputStream out = null;
+        DigestOutputStream out = null;
         HttpURLConnection conn = null;
+        long transferred = 0;
         try {
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestProperty("Date", date);
-            conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
+            conn = HttpClient.getInstance().open(url);
+            conn.setRequestMethod("GET");
+            authorize(conn, objectKey, SigV4Signer.EMPTY_PAYLOAD);
 
             in = new BufferedInputStream(conn.getInputStream());
-            out = new BufferedOutputStream(new FileOutputStream(dst));
+            // Hash the content as it is written, so the file does not need to be read again
+            out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(dst)),
+                    FileDigestHelper.newMd5Digest());
 
             HttpUtil.copyStream(in, out);
 
@@ -134,10 +181,11 @@ public class S3Api {
             if (status != HttpURLConnection.HTTP_OK) {
                 throw new IOException("Status Code: " + status + ". Expected: 200 - OK");
             }
+            out.close();
+            transferred = dst.length();
+            mDigestHelper.saveMd5(dst, out.getMessageDigest().digest());
         } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
+            HttpClient.getInstance().release(conn, transferred);
             FileUtil.close(in);
             FileUtil.close(out);
         }
@@ -147,23 +195,30 @@ public class S3Api {
         // Calculate data size, up to 2 GB
         final int size = file.length() < Integer.MAX_VALUE ? (int)file.length() : -1;
 
-        // Get date and signature
-        final byte[] rawMd5 = FileUtil.getMD5Checksum(file);
+        // The digest is only computed if not already known
+        final byte[] rawMd5 = mDigestHelper.getMd5(file);
+        if (rawMd5 == null) {
+            throw new IOException("Could not compute MD5 checksum of " + file.getName());
+        }
         final String md5Base64 = Base64.encodeToString(rawMd5, Base64.NO_WRAP);
         final String md5Hex = FileUtil.hexMd5(rawMd5);
-        final String date = getDate();
-        String payloadStr = isPublic ? PAYLOAD_PUT_PUBLIC : PAYLOAD_PUT_PRIVATE;
-        final String payload = String.format(payloadStr, md5Base64, type, date, mBucket, objectKey);
-        final String signature = getSignature(payload);
-        final URL url = new URL(String.format(URL, mBucket, objectKey));
+        // SigV4 payloads are signed chunk by chunk as they are sent, instead of hashing the
+        // whole file upfront. Content-Length is an int before API 19, which limits the size.
+        final long chunkedLength = SigV4Signer.getChunkedLength(size);
+        final boolean streaming = mV4Signer != null && size > 0
+                && chunkedLength <= Integer.MAX_VALUE;
+        final URL url = new URL(getUrl(objectKey));
 
         InputStream in = null;
         OutputStream out = null;
         HttpURLConnection conn = null;
+        long transferred = 0;
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            conn = HttpClient.getInstance().open(url);
             conn.setDoOutput(true);
-            if (size > 0) {
+            if (streaming) {
+                conn.setFixedLengthStreamingMode((int) chunkedLength);
+            } else if (size > 0) {
                 conn.setFixedLengthStreamingMode(size);
             } else {
                 conn.setChunkedStreamingMode(0);
@@ -171,61 +226,557 @@ public class S3Api {
             conn.setRequestMethod("PUT");
             conn.setRequestProperty("Content-MD5", md5Base64);
             conn.setRequestProperty("Content-Type", type);
-            conn.setRequestProperty("Date", date);
             if (isPublic) {
                 // If we don't send this header, the object will be private by default
                 conn.setRequestProperty("x-amz-acl", "public-read");
             }
-            conn.setRequestProperty("Authorization", "AWS " + mAccessKey + ":" + signature);
+            if (streaming) {
+                conn.setRequestProperty("Content-Encoding", "aws-chunked");
+                conn.setRequestProperty(SigV4Signer.HEADER_DECODED_LENGTH, String.valueOf(size));
+            }
+            SigV4Signer.Signature signature = authorize(conn, objectKey,
+                    streaming ? SigV4Signer.STREAMING_PAYLOAD : SigV4Signer.UNSIGNED_PAYLOAD);
 
             in = new BufferedInputStream(new FileInputStream(file));
             out = new BufferedOutputStream(conn.getOutputStream());
 
-            HttpUtil.copyStream(in, out);
+            if (streaming) {
+                writeChunked(in, out, new SigV4Signer.ChunkedPayloadWriter(mV4Signer, signature));
+            } else {
+                HttpUtil.copyStream(in, out);
+            }
             out.flush();
 
             int status = conn.getResponseCode();
+            transferred = file.length();
             if (status != 200 && status != 201) {
                 Timber.e("Status Code: " + status + ". Expected: 200 or 201");
+                if (status == HttpURLConnection.HTTP_BAD_REQUEST) {
+                    // Possibly a BadDigest error. Do not trust the stored digest anymore
+                    mDigestHelper.invalidate(file);
+                }
                 return false;
             }
             String etag = getEtag(conn);
             if (!md5Hex.equals(etag)) {
                 Timber.e("ETag comparison failed. Response ETag: " + etag +
                         "Locally computed MD5: " + md5Hex);
+                mDigestHelper.invalidate(file);
+                return false;
+            }
+            Timber.d("File successfully uploaded: " + file.getName());
+            return true;
+        } finally {
+            HttpClient.getInstance().release(conn, transferred);
+            FileUtil.close(in);
+            FileUtil.close(out);
+        }
+    }
+
+    /**
+     * Upload a file, resuming any previous multipart upload recorded in the given store.
+     * Files smaller than {@link #MULTIPART_THRESHOLD} are sent in a single PUT request.
+     */
+    public boolean put(String objectKey, File file, String type, boolean isPublic,
+            @Nullable MultipartUploadStore store) throws IOException {
+        if (store == null || file.length() < MULTIPART_THRESHOLD) {
+            return put(objectKey, file, type, isPublic);
+        }
+        return putMultipart(objectKey, file, type, isPublic, store);
+    }
+
+    /**
+     * Copy an object already in the bucket to a new key. The content is copied by S3 itself,
+     * so no data is sent from the device.
+     *
+     * @return true if the object was copied, false if S3 rejected the copy
+     */
+    public boolean copy(String sourceKey, String objectKey, String type, boolean isPublic)
+            throws IOException {
+        final URL url = new URL(getUrl(objectKey));
+
+        HttpURLConnection conn = null;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(0);
+            conn.setRequestMethod("PUT");
+            conn.setRequestProperty("Content-Type", type);
+            if (isPublic) {
+                conn.setRequestProperty("x-amz-acl", "public-read");
+            }
+            conn.setRequestProperty("x-amz-copy-source", "/" + mBucket + "/" + sourceKey);
+            authorize(conn, objectKey, SigV4Signer.EMPTY_PAYLOAD);
+            conn.getOutputStream().close();
+
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Status Code: " + status + ". Expected: 200");
+                return false;
+            }
+            // S3 may report a failed copy in the body of a 200 response
+            String response = HttpUtil.readStream(conn.getInputStream());
+            if (!response.contains("<CopyObjectResult")) {
+                Timber.e("Could not copy " + sourceKey + " to " + objectKey + ": " + response);
                 return false;
             }
+            Timber.d("Object successfully copied: " + sourceKey + " -> " + objectKey);
+            return true;
+        } finally {
+            HttpClient.getInstance().release(conn);
+        }
+    }
+
+    private boolean putMultipart(String objectKey, File file, String type, boolean isPublic,
+            @NonNull MultipartUploadStore store) throws IOException {
+        final String filename = file.getAbsolutePath();
+        final long length = file.length();
+        final long modified = file.lastModified();
+
+        List<UploadPart> parts = store.getUploadParts(filename);
+        if (!parts.isEmpty() && (parts.get(0).getFileSize() != length
+                || parts.get(0).getFileModified() != modified)) {
+            // The confirmed parts do not belong to the current content of the file
+            Timber.d("%s changed since its upload started. Starting over", file.getName());
+            discardMultipartUpload(objectKey, filename, parts.get(0).getUploadId(), store);
+            parts = Collections.emptyList();
+        }
+        // Resumed uploads must keep the part size they were started with
+        final int partSize = parts.isEmpty() ? getPartSize() : parts.get(0).getPartSize();
+        final int partCount = (int) ((length + partSize - 1) / partSize);
+        String uploadId;
+        if (parts.isEmpty()) {
+            uploadId = initiateMultipartUpload(objectKey, type, isPublic);
+            if (uploadId == null) {
+                return false;
+            }
+        } else {
+            uploadId = parts.get(0).getUploadId();
+            Timber.d("Resuming upload of %s. %d of %d parts already sent", file.getName(),
+                    parts.size(), partCount);
+        }
+
+        Set<Integer> confirmedParts = new HashSet<>();
+        for (UploadPart part : parts) {
+            confirmedParts.add(part.getPartNumber());
+        }
+        parts = new ArrayList<>(parts);
+
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            if (confirmedParts.contains(partNumber)) {
+                continue;
+            }
+            final long offset = (long) (partNumber - 1) * partSize;
+            final int size = (int) Math.min(partSize, length - offset);
+            String etag = uploadPart(objectKey, uploadId, partNumber, file, offset, size);
+            if (etag == null) {
+                // Confirmed parts are kept, the next attempt will resume from here
+                return false;
+            }
+            UploadPart part = new UploadPart(uploadId, partNumber, etag, partSize, length,
+                    modified);
+            store.saveUploadPart(filename, part);
+            parts.add(part);
+        }
+
+        final int status = completeMultipartUpload(objectKey, uploadId, parts);
+        if (status == HttpURLConnection.HTTP_OK) {
+            store.deleteUploadParts(filename);
             Timber.d("File successfully uploaded: " + file.getName());
             return true;
+        }
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            // The upload does not exist anymore (aborted or expired). Start over next time.
+            store.deleteUploadParts(filename);
+        } else if (status >= HttpURLConnection.HTTP_BAD_REQUEST
+                && status < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            // S3 rejected the parts (invalid, or too small). Retrying them cannot succeed.
+            discardMultipartUpload(objectKey, filename, uploadId, store);
+        }
+        return false;
+    }
+
+    /**
+     * Abort the multipart upload in progress for the given file, if any, so S3 frees the parts
+     * sent so far. Meant for files that will not be uploaded anymore, such as deleted ones.
+     */
+    public void abortMultipart(String objectKey, File file, @NonNull MultipartUploadStore store)
+            throws IOException {
+        final String filename = file.getAbsolutePath();
+        List<UploadPart> parts = store.getUploadParts(filename);
+        if (!parts.isEmpty()) {
+            discardMultipartUpload(objectKey, filename, parts.get(0).getUploadId(), store);
+        }
+    }
+
+    /**
+     * Forget the confirmed parts of the upload, aborting it in S3. If the abort request fails,
+     * the upload is left for the bucket lifecycle rules to clean up.
+     */
+    private void discardMultipartUpload(String objectKey, String filename, String uploadId,
+            @NonNull MultipartUploadStore store) throws IOException {
+        store.deleteUploadParts(filename);
+        abortMultipartUpload(objectKey, uploadId);
+    }
+
+    private int getPartSize() {
+        NetworkQuality.Level level = HttpClient.getInstance().getNetworkQuality().getLevel();
+        return level == NetworkQuality.Level.GOOD ? LARGE_PART_SIZE : PART_SIZE;
+    }
+
+    @Nullable
+    private String initiateMultipartUpload(String objectKey, String type, boolean isPublic)
+            throws IOException {
+        final URL url = new URL(getUrl(objectKey) + "?uploads");
+
+        HttpURLConnection conn = null;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", type);
+            if (isPublic) {
+                conn.setRequestProperty("x-amz-acl", "public-read");
+            }
+            authorize(conn, objectKey, SigV4Signer.EMPTY_PAYLOAD);
+
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Status Code: " + status + ". Expected: 200 - OK");
+                return null;
+            }
+            String uploadId = getXmlElement(HttpUtil.readStream(conn.getInputStream()),
+                    "UploadId");
+            if (uploadId == null) {
+                Timber.e("Could not read UploadId for object: " + objectKey);
+            }
+            return uploadId;
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            HttpClient.getInstance().release(conn);
+        }
+    }
+
+    /**
+     * Send a single part, returning its ETag if the upload has been verified. The part is read
+     * twice from the file, once to hash it and once to send it, so it is never held in memory.
+     */
+    @Nullable
+    private String uploadPart(String objectKey, String uploadId, int partNumber, File file,
+            long offset, int size) throws IOException {
+        final MessageDigest md5 = FileDigestHelper.newMd5Digest();
+        final MessageDigest sha256 = mV4Signer != null ? SigV4Signer.newSha256Digest() : null;
+        InputStream in = null;
+        try {
+            in = new PartInputStream(file, offset, size);
+            byte[] buffer = new byte[SigV4Signer.CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md5.update(buffer, 0, read);
+                if (sha256 != null) {
+                    sha256.update(buffer, 0, read);
+                }
             }
+        } finally {
+            FileUtil.close(in);
+        }
+        final byte[] rawMd5 = md5.digest();
+        final String md5Hex = FileUtil.hexMd5(rawMd5);
+        final String md5Base64 = Base64.encodeToString(rawMd5, Base64.NO_WRAP);
+        final URL url = new URL(getUrl(objectKey) + "?partNumber="
+                + partNumber + "&uploadId=" + URLEncoder.encode(uploadId, "UTF-8"));
+
+        OutputStream out = null;
+        HttpURLConnection conn = null;
+        long transferred = 0;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(size);
+            conn.setRequestMethod("PUT");
+            conn.setRequestProperty("Content-MD5", md5Base64);
+            conn.setRequestProperty("Content-Type", PART_CONTENT_TYPE);
+            authorize(conn, objectKey, sha256 != null ? SigV4Signer.hex(sha256.digest()) : null);
+
+            in = new PartInputStream(file, offset, size);
+            out = new BufferedOutputStream(conn.getOutputStream());
+            HttpUtil.copyStream(in, out);
+            out.flush();
+
+            int status = conn.getResponseCode();
+            transferred = size;
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Part %d. Status Code: %d. Expected: 200 - OK", partNumber, status);
+                return null;
+            }
+            String etag = getEtag(conn);
+            if (!md5Hex.equals(etag)) {
+                Timber.e("Part %d. ETag comparison failed. Response ETag: %s."
+                        + " Locally computed MD5: %s", partNumber, etag, md5Hex);
+                return null;
+            }
+            return etag;
+        } finally {
+            HttpClient.getInstance().release(conn, transferred);
             FileUtil.close(in);
             FileUtil.close(out);
         }
     }
 
-    private String getDate() {
-        final DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ", Locale.US);
-        df.setTimeZone(TimeZone.getTimeZone("GMT"));
-        return df.format(new Date()) + "GMT";
+    /**
+     * @return the HTTP status code of the request. S3 may report errors within a 200 response,
+     * in which case a 500 code is returned.
+     */
+    private int completeMultipartUpload(String objectKey, String uploadId,
+            List<UploadPart> parts) throws IOException {
+        Collections.sort(parts, new Comparator<UploadPart>() {
+            @Override
+            public int compare(UploadPart lhs, UploadPart rhs) {
+                return lhs.getPartNumber() - rhs.getPartNumber();
+            }
+        });
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (UploadPart part : parts) {
+            xml.append("<Part><PartNumber>").append(part.getPartNumber())
+                    .append("</PartNumber><ETag>\"").append(part.getEtag())
+                    .append("\"</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        final byte[] body = xml.toString().getBytes("UTF-8");
+
+        final URL url = new URL(getUrl(objectKey) + "?uploadId="
+                + URLEncoder.encode(uploadId, "UTF-8"));
+
+        OutputStream out = null;
+        HttpURLConnection conn = null;
+        try {
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", XML_CONTENT_TYPE);
+            authorize(conn, objectKey, mV4Signer != null ? SigV4Signer.sha256Hex(body) : null);
+
+            out = new BufferedOutputStream(conn.getOutputStream());
+            out.write(body);
+            out.flush();
+
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                Timber.e("Could not complete upload of %s. Status Code: %d", objectKey, status);
+                return status;
+            }
+            String response = HttpUtil.readStream(conn.getInputStream());
+            if (getXmlElement(response, "Error") != null) {
+                Timber.e("Could not complete upload of %s: %s", objectKey, response);
+                return HttpURLConnection.HTTP_INTERNAL_ERROR;
+            }
+            return status;
+        } finally {
+            HttpClient.getInstance().release(conn);
+            FileUtil.close(out);
+        }
     }
 
-    private String getSignature(String payload) {
+    /**
+     * Ask S3 to drop the upload and its parts. An unknown upload is already gone.
+     */
+    private void abortMultipartUpload(String objectKey, String uploadId) throws IOException {
+        final URL url = new URL(getUrl(objectKey) + "?uploadId="
+                + URLEncoder.encode(uploadId, "UTF-8"));
+
+        HttpURLConnection conn = null;
         try {
-            Key signingKey = new SecretKeySpec(mSecret.getBytes(), "HmacSHA1");
-            Mac mac = Mac.getInstance("HmacSHA1");
-            mac.init(signingKey);
-            byte[] rawHmac = mac.doFinal(payload.getBytes());
-            return Base64.encodeToString(rawHmac, Base64.NO_WRAP);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            conn = HttpClient.getInstance().open(url);
+            conn.setRequestMethod("DELETE");
+            authorize(conn, objectKey, SigV4Signer.EMPTY_PAYLOAD);
+
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_NO_CONTENT
+                    && status != HttpURLConnection.HTTP_NOT_FOUND) {
+                Timber.e("Could not abort upload of %s. Status Code: %d", objectKey, status);
+                return;
+            }
+            Timber.d("Upload of %s aborted", objectKey);
+        } finally {
+            HttpClient.getInstance().release(conn);
+        }
+    }
+
+    /**
+     * Minimal extraction of a text element from the S3 XML responses
+     */
+    @Nullable
+    private static String getXmlElement(@Nullable String xml, String element) {
+        if (xml == null) {
             return null;
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+        }
+        final String open = "<" + element + ">";
+        final int start = xml.indexOf(open);
+        final int end = xml.indexOf("</" + element + ">");
+        if (start < 0 || end < start) {
+            return null;
+        }
+        return xml.substring(start + open.length(), end).trim();
+    }
+
+    /**
+     * Sign the request, setting its authentication headers. Requests are signed with SigV4 if
+     * the region of the bucket is configured, or with the legacy SigV2 otherwise.
+     * Must be called once the method and all other headers have been set.
+     *
+     * @param payloadHash SHA-256 of the body, as required by SigV4
+     * @return the SigV4 signature, which seeds the signatures of streamed payloads
+     */
+    @Nullable
+    private SigV4Signer.Signature authorize(HttpURLConnection conn, String objectKey,
+            @Nullable String payloadHash) throws IOException {
+        final URL url = conn.getURL();
+        final Date now = new Date();
+        if (mV4Signer == null) {
+            final String date = SigV2Signer.formatDate(now);
+            StringBuilder payload = new StringBuilder();
+            payload.append(conn.getRequestMethod()).append('\n')
+                    .append(getRequestProperty(conn, "Content-MD5")).append('\n')
+                    .append(getRequestProperty(conn, "Content-Type")).append('\n')
+                    .append(date).append('\n');
+            for (Map.Entry<String, String> header : getAmzHeaders(conn).entrySet()) {
+                payload.append(header.getKey()).append(':').append(header.getValue())
+                        .append('\n');
+            }
+            payload.append('/').append(mBucket).append('/').append(objectKey);
+            if (url.getQuery() != null) {
+                // Sub-resources, i.e. uploadId, are signed decoded
+                payload.append('?').append(URLDecoder.decode(url.getQuery(), "UTF-8"));
+            }
+            conn.setRequestProperty("Date", date);
+            conn.setRequestProperty("Authorization", mV2Signer.sign(payload.toString()));
             return null;
         }
+
+        if (payloadHash == null) {
+            payloadHash = SigV4Signer.UNSIGNED_PAYLOAD;
+        }
+        conn.setRequestProperty(SigV4Signer.HEADER_DATE, SigV4Signer.formatDate(now));
+        conn.setRequestProperty(SigV4Signer.HEADER_CONTENT_SHA256, payloadHash);
+        Map<String, String> headers = getAmzHeaders(conn);
+        headers.put("host", url.getPort() == -1 ? url.getHost()
+                : url.getHost() + ":" + url.getPort());
+        for (String name : new String[] { "Content-MD5", "Content-Type", "Content-Encoding" }) {
+            String value = conn.getRequestProperty(name);
+            if (value != null) {
+                headers.put(name.toLowerCase(Locale.US), value);
+            }
+        }
+        SigV4Signer.Signature signature = mV4Signer.sign(conn.getRequestMethod(), url.getPath(),
+                url.getQuery(), headers, payloadHash);
+        conn.setRequestProperty("Authorization", signature.getAuthorization());
+        return signature;
+    }
+
+    @NonNull
+    private static String getRequestProperty(HttpURLConnection conn, String name) {
+        String value = conn.getRequestProperty(name);
+        return value != null ? value : "";
+    }
+
+    /**
+     * @return the x-amz-* headers of the request, by lowercase name, sorted
+     */
+    @NonNull
+    private static Map<String, String> getAmzHeaders(HttpURLConnection conn) {
+        Map<String, String> headers = new TreeMap<>();
+        for (Map.Entry<String, List<String>> header : conn.getRequestProperties().entrySet()) {
+            String name = header.getKey() != null
+                    ? header.getKey().toLowerCase(Locale.US) : null;
+            if (name != null && name.startsWith("x-amz-")) {
+                headers.put(name, TextUtils.join(",", header.getValue()));
+            }
+        }
+        return headers;
+    }
+
+    private static void writeChunked(InputStream in, OutputStream out,
+            SigV4Signer.ChunkedPayloadWriter writer) throws IOException {
+        byte[] buffer = new byte[SigV4Signer.CHUNK_SIZE];
+        int length;
+        while ((length = readChunk(in, buffer)) > 0) {
+            writer.writeChunk(out, buffer, 0, length);
+        }
+        writer.finish(out);
+    }
+
+    /**
+     * Fill the buffer, as chunks must have a fixed size to match the announced Content-Length
+     */
+    private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        int read;
+        while (offset < buffer.length
+                && (read = in.read(buffer, offset, buffer.length - offset)) != -1) {
+            offset += read;
+        }
+        return offset;
+    }
+
+    /**
+     * Reads a region of a file, reporting the end of the stream once the region is consumed
+     */
+    static class PartInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        PartInputStream(@NonNull File file, long offset, long length) throws IOException {
+            super(null);
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(offset);
+            } catch (IOException e) {
+                FileUtil.close(in);
+                throw e;
+            }
+            this.in = new BufferedInputStream(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(count, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 
     private String getEtag(HttpURLConnection conn) {
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.api;
+
+import android.support.annotation.NonNull;
+import android.util.Base64;
+
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Legacy AWS Signature Version 2 signer, used when no S3 region is configured.
+ * The key is built once, and each thread reuses its own Mac and date format.
+ */
+public class SigV2Signer {
+
+    private static final String HMAC = "HmacSHA1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(HMAC);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return df;
+        }
+    };
+
+    private final String accessKey;
+    private final SecretKeySpec key;
+
+    public SigV2Signer(@NonNull String accessKey, @NonNull String secret) {
+        this.accessKey = accessKey;
+        this.key = new SecretKeySpec(secret.getBytes(UTF_8), HMAC);
+    }
+
+    @NonNull
+    public static String formatDate(@NonNull Date date) {
+        return DATE_FORMAT.get().format(date);
+    }
+
+    /**
+     * @param stringToSign canonical representation of the request: method, Content-MD5,
+     *                     Content-Type, date, x-amz headers and resource
+     * @return the value of the Authorization header
+     */
+    @NonNull
+    public String sign(@NonNull String stringToSign) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(key);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] rawHmac = mac.doFinal(stringToSign.getBytes(UTF_8));
+        return "AWS " + accessKey + ":" + Base64.encodeToString(rawHmac, Base64.NO_WRAP);
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.api;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AWS Signature Version 4 signer for S3 requests.
+ * The signing key derived from the secret is only valid for a day, so it is computed once per
+ * day and shared by all requests, and each thread reuses its own Mac and MessageDigest instances.
+ * Payloads can either be hashed upfront, or sent as signed aws-chunked streams
+ * ({@link ChunkedPayloadWriter}), which does not require reading files twice.
+ * See http://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-authenticating-requests.html
+ */
+public class SigV4Signer {
+
+    public static final String HEADER_DATE = "x-amz-date";
+    public static final String HEADER_CONTENT_SHA256 = "x-amz-content-sha256";
+    public static final String HEADER_DECODED_LENGTH = "x-amz-decoded-content-length";
+
+    public static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    public static final String STREAMING_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+    public static final String EMPTY_PAYLOAD =
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    /**
+     * Size of every chunk of a streamed payload, except for the last one
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String CHUNK_ALGORITHM = "AWS4-HMAC-SHA256-PAYLOAD";
+    private static final String HMAC = "HmacSHA256";
+    private static final String SERVICE = "s3";
+    private static final String TERMINATOR = "aws4_request";
+    private static final String CHUNK_SIGNATURE = ";chunk-signature=";
+    private static final String CRLF = "\r\n";
+    private static final int SIGNATURE_LENGTH = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(HMAC);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat df = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
+            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return df;
+        }
+    };
+
+    private final String accessKey;
+    private final byte[] secret;
+    private final String region;
+
+    private volatile SigningKey signingKey;
+
+    public SigV4Signer(@NonNull String accessKey, @NonNull String secret,
+            @NonNull String region) {
+        this.accessKey = accessKey;
+        this.secret = ("AWS4" + secret).getBytes(UTF_8);
+        this.region = region;
+    }
+
+    @NonNull
+    public static String formatDate(@NonNull Date date) {
+        return DATE_FORMAT.get().format(date);
+    }
+
+    /**
+     * Sign a request.
+     *
+     * @param method      HTTP method
+     * @param path        absolute path of the URL, not encoded
+     * @param rawQuery    encoded query of the URL, if any
+     * @param headers     headers to sign. They must include host and {@link #HEADER_DATE}
+     * @param payloadHash hex SHA-256 of the body, {@link #UNSIGNED_PAYLOAD} or
+     *                    {@link #STREAMING_PAYLOAD}
+     */
+    @NonNull
+    public Signature sign(@NonNull String method, @NonNull String path, @Nullable String rawQuery,
+            @NonNull Map<String, String> headers, @NonNull String payloadHash) {
+        Map<String, String> canonicalHeaders = new TreeMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.put(header.getKey().toLowerCase(Locale.US),
+                    header.getValue().trim().replaceAll(" +", " "));
+        }
+        final String amzDate = canonicalHeaders.get(HEADER_DATE);
+        if (amzDate == null) {
+            throw new IllegalArgumentException(HEADER_DATE + " header is required");
+        }
+
+        StringBuilder request = new StringBuilder();
+        request.append(method).append('\n')
+                .append(encode(path, false)).append('\n')
+                .append(getCanonicalQuery(rawQuery)).append('\n');
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : canonicalHeaders.entrySet()) {
+            request.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            signedHeaders.append(header.getKey());
+        }
+        request.append('\n').append(signedHeaders).append('\n').append(payloadHash);
+
+        final SigningKey key = getSigningKey(amzDate.substring(0, 8));
+        final String stringToSign = ALGORITHM + '\n' + amzDate + '\n' + key.scope + '\n'
+                + sha256Hex(request.toString().getBytes(UTF_8));
+        final String signature = hex(key.sign(stringToSign));
+        final String authorization = ALGORITHM + " Credential=" + accessKey + "/" + key.scope
+                + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+        return new Signature(signature, authorization, amzDate);
+    }
+
+    /**
+     * @return the Content-Length of a payload of the given size, once aws-chunked encoded
+     */
+    public static long getChunkedLength(long decodedLength) {
+        final long fullChunks = decodedLength / CHUNK_SIZE;
+        final int remainder = (int) (decodedLength % CHUNK_SIZE);
+        long length = fullChunks * getChunkOverhead(CHUNK_SIZE) + decodedLength;
+        if (remainder > 0) {
+            length += getChunkOverhead(remainder);
+        }
+        return length + getChunkOverhead(0);
+    }
+
+    private static int getChunkOverhead(int size) {
+        return Integer.toHexString(size).length() + CHUNK_SIGNATURE.length() + SIGNATURE_LENGTH
+                + 2 * CRLF.length();
+    }
+
+    /**
+     * @return a reset SHA-256 digest, for payloads hashed as they are read
+     */
+    @NonNull
+    static MessageDigest newSha256Digest() {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest;
+    }
+
+    @NonNull
+    public static String sha256Hex(@NonNull byte[] data) {
+        return sha256Hex(data, 0, data.length);
+    }
+
+    @NonNull
+    public static String sha256Hex(@NonNull byte[] data, int offset, int length) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        digest.update(data, offset, length);
+        return hex(digest.digest());
+    }
+
+    @NonNull
+    private SigningKey getSigningKey(@NonNull String dateStamp) {
+        SigningKey key = signingKey;
+        if (key == null || !key.dateStamp.equals(dateStamp)) {
+            // Racing threads may derive the same key twice, which is harmless
+            byte[] dateKey = hmac(secret, dateStamp);
+            byte[] regionKey = hmac(dateKey, region);
+            byte[] serviceKey = hmac(regionKey, SERVICE);
+            key = new SigningKey(dateStamp, dateStamp + "/" + region + "/" + SERVICE + "/"
+                    + TERMINATOR, hmac(serviceKey, TERMINATOR));
+            signingKey = key;
+        }
+        return key;
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        return hmac(new SecretKeySpec(key, HMAC), data);
+    }
+
+    private static byte[] hmac(SecretKeySpec key, String data) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(key);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+        return mac.doFinal(data.getBytes(UTF_8));
+    }
+
+    @NonNull
+    private static String getCanonicalQuery(@Nullable String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        List<String> params = new ArrayList<>();
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            String value = eq < 0 ? "" : param.substring(eq + 1);
+            params.add(encode(decode(name), true) + "=" + encode(decode(value), true));
+        }
+        Collections.sort(params);
+        StringBuilder query = new StringBuilder();
+        for (String param : params) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(param);
+        }
+        return query.toString();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * URI encoding as defined by SigV4: every byte but the unreserved characters is
+     * percent-encoded, with uppercase hex digits. Slashes are kept in paths.
+     */
+    @NonNull
+    static String encode(@NonNull String value, boolean encodeSlash) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : value.getBytes(UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~'
+                    || (c == '/' && !encodeSlash)) {
+                builder.append(c);
+            } else {
+                builder.append('%').append(Character.toUpperCase(HEX[c >> 4]))
+                        .append(Character.toUpperCase(HEX[c & 0xf]));
+            }
+        }
+        return builder.toString();
+    }
+
+    @NonNull
+    static String hex(@NonNull byte[] data) {
+        char[] chars = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            chars[2 * i] = HEX[(data[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[data[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    public static class Signature {
+        private final String signature;
+        private final String authorization;
+        private final String amzDate;
+
+        Signature(String signature, String authorization, String amzDate) {
+            this.signature = signature;
+            this.authorization = authorization;
+            this.amzDate = amzDate;
+        }
+
+        /**
+         * @return the hex signature, which seeds the signatures of streamed chunks
+         */
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * @return the value of the Authorization header
+         */
+        public String getAuthorization() {
+            return authorization;
+        }
+
+        public String getAmzDate() {
+            return amzDate;
+        }
+    }
+
+    private static class SigningKey {
+        final String dateStamp;
+        final String scope;
+        final SecretKeySpec key;
+
+        SigningKey(String dateStamp, String scope, byte[] key) {
+            this.dateStamp = dateStamp;
+            this.scope = scope;
+            this.key = new SecretKeySpec(key, HMAC);
+        }
+
+        byte[] sign(String stringToSign) {
+            return hmac(key, stringToSign);
+        }
+    }
+
+    /**
+     * Writes a payload in aws-chunked encoding, signing each chunk with the signature of the
+     * previous one. Write chunks of {@link #CHUNK_SIZE} bytes (the last one can be smaller),
+     * then call {@link #finish(OutputStream)}.
+     */
+    public static class ChunkedPayloadWriter {
+        private final SigningKey key;
+        private final String amzDate;
+        private String previousSignature;
+
+        public ChunkedPayloadWriter(@NonNull SigV4Signer signer, @NonNull Signature seed) {
+            this.key = signer.getSigningKey(seed.getAmzDate().substring(0, 8));
+            this.amzDate = seed.getAmzDate();
+            this.previousSignature = seed.getSignature();
+        }
+
+        public void writeChunk(@NonNull OutputStream out, @NonNull byte[] data, int offset,
+                int length) throws IOException {
+            final String stringToSign = CHUNK_ALGORITHM + '\n' + amzDate + '\n' + key.scope
+                    + '\n' + previousSignature + '\n' + EMPTY_PAYLOAD + '\n'
+                    + sha256Hex(data, offset, length);
+            previousSignature = hex(key.sign(stringToSign));
+            out.write((Integer.toHexString(length) + CHUNK_SIGNATURE + previousSignature + CRLF)
+                    .getBytes(UTF_8));
+            out.write(data, offset, length);
+            out.write(CRLF.getBytes(UTF_8));
+        }
+
+        /**
+         * Write the final, empty, chunk
+         */
+        public void finish(@NonNull OutputStream out) throws IOException {
+            writeChunk(out, new byte[0], 0, 0);
+        }
+    }
+}
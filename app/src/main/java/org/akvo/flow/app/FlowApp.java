@@ -32,7 +32,7 @@ import org.akvo.flow.data.database.UserColumns;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.domain.User;
-import org.akvo.flow.service.ApkUpdateService;
+import org.akvo.flow.service.schedule.SyncScheduler;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.logging.SentryHelper;
 
@@ -55,14 +55,10 @@ public class FlowApp extends Application {
         prefs = new Prefs(getApplicationContext());
         initLogging();
         init();
-        startUpdateService();
+        SyncScheduler.schedule(this);
         app = this;
     }
 
-    private void startUpdateService() {
-        ApkUpdateService.scheduleFirstTask(this);
-    }
-
     private void initLogging() {
         SentryHelper helper = new SentryHelper(this);
         helper.initDebugTree();
@@ -22,8 +22,10 @@ package org.akvo.flow.broadcast;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.net.ConnectivityManager;
 
 import org.akvo.flow.service.DataSyncService;
+import org.akvo.flow.service.schedule.SyncScheduler;
 
 /**
  * this class will listen to any Broadcast messages fired by the system and will
@@ -35,7 +37,17 @@ import org.akvo.flow.service.DataSyncService;
 public class SyncDataReceiver extends BroadcastReceiver {
 
     public void onReceive(Context context, Intent intent) {
-        // Launch Sync Service
-        context.startService(new Intent(context, DataSyncService.class));
+        if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+            // Without sync windows, nothing else retries the pending uploads
+            if (!SyncScheduler.isScheduled(context)) {
+                context.startService(new Intent(context, DataSyncService.class));
+            }
+            return;
+        }
+        // Submissions are exported right away, and uploaded in a sync window, shared with any
+        // other pending work, as soon as an allowed network is available
+        context.startService(new Intent(context, DataSyncService.class)
+                .putExtra(DataSyncService.EXTRA_EXPORT_ONLY, true));
+        SyncScheduler.requestSync(context);
     }
 }
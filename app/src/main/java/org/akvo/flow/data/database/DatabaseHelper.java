@@ -56,18 +56,31 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final int VER_CADDISFLY_QN = 82;
     private static final int VER_PREFERENCES_MIGRATE = 83;
     private static final int VER_LANGUAGES_MIGRATE = 84;
-    private static final int DATABASE_VERSION = VER_LANGUAGES_MIGRATE;
+    private static final int VER_MULTIPART_UPLOAD = 85;
+    private static final int VER_FILE_DIGEST = 86;
+    private static final int VER_TRANSMISSION_RETRY = 87;
+    private static final int VER_UPLOAD_PART_SIZE = 88;
+    private static final int VER_EXPORT_MANIFEST = 89;
+    private static final int VER_SYNC_METRICS = 90;
+    private static final int VER_TRANSMISSION_LEASE = 91;
+    private static final int VER_SYNC_CURSOR = 92;
+    private static final int VER_UPLOAD_FILE_STATE = 93;
+    private static final int DATABASE_VERSION = VER_UPLOAD_FILE_STATE;
 
     private static SQLiteDatabase database;
     private static final Object LOCK_OBJ = new Object();
     private volatile static int instanceCount = 0;
     private WeakReference<Context> contextWeakReference;
     private final LanguageTable languageTable;
+    private final String databasePath;
+    private boolean privateDatabase = false;
 
     public DatabaseHelper(Context context, LanguageTable languageTable) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         this.contextWeakReference = new WeakReference<>(context);
         this.languageTable = languageTable;
+        // Renamed contexts, i.e. in tests, point to a file of their own
+        this.databasePath = context.getDatabasePath(DATABASE_NAME).getPath();
     }
 
     @Override
@@ -144,14 +157,29 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + TransmissionColumns.STATUS + " INTEGER,"
                 + TransmissionColumns.START_DATE + " INTEGER,"
                 + TransmissionColumns.END_DATE + " INTEGER,"
+                + TransmissionColumns.ATTEMPTS + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.NEXT_ATTEMPT + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.LAST_ERROR + " TEXT,"
+                + TransmissionColumns.BYTES + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.FIRST_BYTE + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.DURATION + " INTEGER NOT NULL DEFAULT 0,"
+                + TransmissionColumns.LEASE_OWNER + " TEXT,"
+                + TransmissionColumns.LEASE_EXPIRY + " INTEGER NOT NULL DEFAULT 0,"
                 + "UNIQUE (" + TransmissionColumns.FILENAME + ") ON CONFLICT REPLACE)");
 
         db.execSQL("CREATE TABLE " + Tables.SYNC_TIME + " ("
                 + SyncTimeColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + SyncTimeColumns.SURVEY_GROUP_ID + " INTEGER,"
                 + SyncTimeColumns.TIME + " TEXT,"
+                + SyncTimeColumns.CURSOR + " TEXT,"
+                + SyncTimeColumns.PAGE_SIZE + " INTEGER NOT NULL DEFAULT 0,"
                 + "UNIQUE (" + SyncTimeColumns.SURVEY_GROUP_ID + ") ON CONFLICT REPLACE)");
         languageTable.onCreate(db);
+        createUploadPartTable(db);
+        createFileDigestTable(db);
+        createExportManifestTable(db);
+        createSyncSessionTable(db);
+        createSyncJournalTable(db);
         createIndexes(db);
     }
 
@@ -196,15 +224,139 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS " + Tables.SURVEY_INSTANCE);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.RECORD);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.TRANSMISSION);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.UPLOAD_PART);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.FILE_DIGEST);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.EXPORT_MANIFEST);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.SYNC_SESSION);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.SYNC_JOURNAL);
             onCreate(db);
-        } else if (oldVersion < VER_LANGUAGES_MIGRATE) {
-            //add new languages table
-            languageTable.onCreate(db);
-            migrateLanguages(context, db);
-            db.execSQL("DROP TABLE IF EXISTS " + Tables.PREFERENCES);
+        } else {
+            if (oldVersion < VER_LANGUAGES_MIGRATE) {
+                //add new languages table
+                languageTable.onCreate(db);
+                migrateLanguages(context, db);
+                db.execSQL("DROP TABLE IF EXISTS " + Tables.PREFERENCES);
+            }
+            if (oldVersion < VER_MULTIPART_UPLOAD) {
+                createUploadPartTable(db);
+            }
+            if (oldVersion < VER_FILE_DIGEST) {
+                createFileDigestTable(db);
+            }
+            if (oldVersion < VER_TRANSMISSION_RETRY) {
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.ATTEMPTS + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.NEXT_ATTEMPT + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.LAST_ERROR + " TEXT");
+            }
+            if (oldVersion >= VER_MULTIPART_UPLOAD && oldVersion < VER_UPLOAD_PART_SIZE) {
+                // Uploads started so far used 5 MB parts. Tables created above have the column.
+                db.execSQL("ALTER TABLE " + Tables.UPLOAD_PART + " ADD COLUMN "
+                        + UploadPartColumns.PART_SIZE + " INTEGER NOT NULL DEFAULT 5242880");
+            }
+            if (oldVersion < VER_EXPORT_MANIFEST) {
+                // Zips exported so far are not in the manifest. They are checked by name.
+                createExportManifestTable(db);
+            }
+            if (oldVersion < VER_SYNC_METRICS) {
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.BYTES + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.FIRST_BYTE + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.DURATION + " INTEGER NOT NULL DEFAULT 0");
+                createSyncSessionTable(db);
+            }
+            if (oldVersion < VER_TRANSMISSION_LEASE) {
+                // Transmissions left in progress have an expired lease, and will be reclaimed
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.LEASE_OWNER + " TEXT");
+                db.execSQL("ALTER TABLE " + Tables.TRANSMISSION + " ADD COLUMN "
+                        + TransmissionColumns.LEASE_EXPIRY + " INTEGER NOT NULL DEFAULT 0");
+                createSyncJournalTable(db);
+            }
+            if (oldVersion < VER_SYNC_CURSOR) {
+                db.execSQL("ALTER TABLE " + Tables.SYNC_TIME + " ADD COLUMN "
+                        + SyncTimeColumns.CURSOR + " TEXT");
+                db.execSQL("ALTER TABLE " + Tables.SYNC_TIME + " ADD COLUMN "
+                        + SyncTimeColumns.PAGE_SIZE + " INTEGER NOT NULL DEFAULT 0");
+            }
+            if (oldVersion >= VER_MULTIPART_UPLOAD && oldVersion < VER_UPLOAD_FILE_STATE) {
+                // The file state of uploads started so far is unknown. They will start over.
+                db.execSQL("ALTER TABLE " + Tables.UPLOAD_PART + " ADD COLUMN "
+                        + UploadPartColumns.FILE_SIZE + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Tables.UPLOAD_PART + " ADD COLUMN "
+                        + UploadPartColumns.FILE_MODIFIED + " INTEGER NOT NULL DEFAULT 0");
+            }
         }
     }
 
+    private void createSyncJournalTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.SYNC_JOURNAL + " ("
+                + SyncJournalColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + SyncJournalColumns.FILENAME + " TEXT NOT NULL,"
+                + SyncJournalColumns.STAGE + " INTEGER NOT NULL,"
+                + SyncJournalColumns.SURVEY_INSTANCE_ID + " INTEGER NOT NULL,"
+                + SyncJournalColumns.FORM_ID + " TEXT,"
+                + SyncJournalColumns.SIZE + " INTEGER NOT NULL DEFAULT 0,"
+                + SyncJournalColumns.MD5 + " TEXT,"
+                + SyncJournalColumns.MEDIA + " TEXT,"
+                + SyncJournalColumns.ACTION + " TEXT,"
+                + SyncJournalColumns.OBJECT_NAME + " TEXT,"
+                + SyncJournalColumns.CREATED + " INTEGER NOT NULL,"
+                + "UNIQUE (" + SyncJournalColumns.FILENAME + ") ON CONFLICT REPLACE)");
+    }
+
+    private void createSyncSessionTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.SYNC_SESSION + " ("
+                + SyncSessionColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + SyncSessionColumns.START + " INTEGER NOT NULL,"
+                + SyncSessionColumns.EXPORTED + " INTEGER NOT NULL,"
+                + SyncSessionColumns.FILES + " INTEGER NOT NULL,"
+                + SyncSessionColumns.FAILED + " INTEGER NOT NULL,"
+                + SyncSessionColumns.BYTES + " INTEGER NOT NULL,"
+                + SyncSessionColumns.EXPORT_TIME + " INTEGER NOT NULL,"
+                + SyncSessionColumns.UPLOAD_TIME + " INTEGER NOT NULL,"
+                + SyncSessionColumns.NOTIFY_TIME + " INTEGER NOT NULL)");
+    }
+
+    private void createExportManifestTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.EXPORT_MANIFEST + " ("
+                + ExportManifestColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + ExportManifestColumns.SURVEY_INSTANCE_ID + " INTEGER NOT NULL,"
+                + ExportManifestColumns.FILENAME + " TEXT NOT NULL,"
+                + ExportManifestColumns.SIZE + " INTEGER NOT NULL,"
+                + ExportManifestColumns.MD5 + " TEXT,"
+                + ExportManifestColumns.CREATED + " INTEGER NOT NULL,"
+                + "UNIQUE (" + ExportManifestColumns.FILENAME + ") ON CONFLICT REPLACE)");
+    }
+
+    private void createFileDigestTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.FILE_DIGEST + " ("
+                + FileDigestColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + FileDigestColumns.FILENAME + " TEXT NOT NULL,"
+                + FileDigestColumns.MD5 + " TEXT NOT NULL,"
+                + FileDigestColumns.SIZE + " INTEGER NOT NULL,"
+                + FileDigestColumns.MODIFIED + " INTEGER NOT NULL,"
+                + "UNIQUE (" + FileDigestColumns.FILENAME + ") ON CONFLICT REPLACE)");
+    }
+
+    private void createUploadPartTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.UPLOAD_PART + " ("
+                + UploadPartColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + UploadPartColumns.FILENAME + " TEXT NOT NULL,"
+                + UploadPartColumns.UPLOAD_ID + " TEXT NOT NULL,"
+                + UploadPartColumns.PART_NUMBER + " INTEGER NOT NULL,"
+                + UploadPartColumns.ETAG + " TEXT NOT NULL,"
+                + UploadPartColumns.PART_SIZE + " INTEGER NOT NULL,"
+                + UploadPartColumns.FILE_SIZE + " INTEGER NOT NULL,"
+                + UploadPartColumns.FILE_MODIFIED + " INTEGER NOT NULL,"
+                + "UNIQUE (" + UploadPartColumns.FILENAME + ", " + UploadPartColumns.PART_NUMBER
+                + ") ON CONFLICT REPLACE)");
+    }
+
     private void migrateLanguages(Context context, SQLiteDatabase db) {
         Prefs prefs = new Prefs(context.getApplicationContext());
         long selectedSurveyId = prefs.getLong(Prefs.KEY_SURVEY_GROUP_ID, SurveyGroup.ID_NONE);
@@ -233,6 +385,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public SQLiteDatabase getWritableDatabase() {
         synchronized (LOCK_OBJ) {
 
+            if (database != null && database.isOpen()
+                    && !databasePath.equals(database.getPath())) {
+                // The shared database is a different file. Do not hand it out, nor replace it.
+                privateDatabase = true;
+                return super.getWritableDatabase();
+            }
+            privateDatabase = false;
             if (database == null || !database.isOpen()) {
                 database = super.getWritableDatabase();
                 instanceCount = 0;
@@ -245,6 +404,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void close() {
         synchronized (LOCK_OBJ) {
+            if (privateDatabase) {
+                super.close();
+                privateDatabase = false;
+                return;
+            }
             instanceCount--;
             if (instanceCount <= 0) {
                 // close the database held by the helper (if any)
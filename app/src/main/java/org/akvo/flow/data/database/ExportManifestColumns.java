@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.database;
+
+/**
+ * Manifest of the exported survey instance zips, recorded when the zip is created. Exports
+ * are verified against it right before their upload, rather than scanning the storage on
+ * every sync.
+ */
+public class ExportManifestColumns {
+    public static final String _ID = "_id";
+    public static final String SURVEY_INSTANCE_ID = "survey_instance_id";
+    public static final String FILENAME = "filename";
+    public static final String SIZE = "size";
+    public static final String MD5 = "md5";
+    public static final String CREATED = "created";
+}
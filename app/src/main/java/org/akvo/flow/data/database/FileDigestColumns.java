@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.database;
+
+/**
+ * Content digests of local files, computed once when the file is written. A stored digest
+ * is only valid while the file size and modification date still match.
+ */
+public class FileDigestColumns {
+    public static final String _ID = "_id";
+    public static final String FILENAME = "filename";
+    public static final String MD5 = "md5";
+    public static final String SIZE = "size";
+    public static final String MODIFIED = "modified";
+}
@@ -26,24 +26,36 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.JournalEntry;
+import org.akvo.flow.domain.ProcessingNotification;
+import org.akvo.flow.domain.SyncSession;
 import org.akvo.flow.domain.QuestionResponse;
 import org.akvo.flow.domain.Survey;
 import org.akvo.flow.domain.SurveyGroup;
 import org.akvo.flow.domain.SurveyInstance;
 import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.domain.UploadPart;
 import org.akvo.flow.domain.User;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.PlatformUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -135,23 +147,9 @@ public class SurveyDbAdapter {
      * @param status
      */
     public void updateSurveyStatus(long surveyInstanceId, int status) {
-        String dateColumn;
-        switch (status) {
-            case SurveyInstanceStatus.DOWNLOADED:
-            case SurveyInstanceStatus.SYNCED:
-                dateColumn = SurveyInstanceColumns.SYNC_DATE;
-                break;
-            case SurveyInstanceStatus.EXPORTED:
-                dateColumn = SurveyInstanceColumns.EXPORTED_DATE;
-                break;
-            case SurveyInstanceStatus.SUBMITTED:
-                dateColumn = SurveyInstanceColumns.SUBMITTED_DATE;
-                break;
-            case SAVED:
-                dateColumn = SurveyInstanceColumns.SAVED_DATE;
-                break;
-            default:
-                return;// Nothing to see here, buddy
+        final String dateColumn = getStatusDateColumn(status);
+        if (dateColumn == null) {
+            return;// Nothing to see here, buddy
         }
 
         ContentValues updatedValues = new ContentValues();
@@ -168,6 +166,100 @@ public class SurveyDbAdapter {
         }
     }
 
+    /**
+     * Set the survey instances back to 'submitted', so they are exported again, deleting their
+     * transmissions in the same transaction. The new export queues its files again, and leases
+     * held on the old rows would otherwise get them uploaded twice.
+     */
+    public void resetExports(@NonNull Collection<Long> surveyInstanceIds) {
+        if (surveyInstanceIds.isEmpty()) {
+            return;
+        }
+        database.beginTransaction();
+        try {
+            database.delete(Tables.TRANSMISSION, TransmissionColumns.SURVEY_INSTANCE_ID
+                    + " IN (" + TextUtils.join(",", surveyInstanceIds) + ")", null);
+            updateSurveyStatus(surveyInstanceIds, SurveyInstanceStatus.SUBMITTED);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Find the survey instances that still have files to sync, whichever sync pass holds them
+     *
+     * @param surveyInstanceIds survey instances to check
+     * @return the ones with any transmission not SYNCED yet
+     */
+    @NonNull
+    public Set<Long> getUnsyncedInstances(@NonNull Collection<Long> surveyInstanceIds) {
+        Set<Long> unsynced = new HashSet<>();
+        if (surveyInstanceIds.isEmpty()) {
+            return unsynced;
+        }
+        Cursor cursor = database.rawQuery("SELECT DISTINCT "
+                + TransmissionColumns.SURVEY_INSTANCE_ID + " FROM " + Tables.TRANSMISSION
+                + " WHERE " + TransmissionColumns.SURVEY_INSTANCE_ID + " IN ("
+                + TextUtils.join(",", surveyInstanceIds) + ") AND "
+                + TransmissionColumns.STATUS + " != " + TransmissionStatus.SYNCED, null);
+        try {
+            while (cursor.moveToNext()) {
+                unsynced.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return unsynced;
+    }
+
+    /**
+     * Update the status of several survey instances in a single transaction
+     */
+    public void updateSurveyStatus(Collection<Long> surveyInstanceIds, int status) {
+        final String dateColumn = getStatusDateColumn(status);
+        if (dateColumn == null || surveyInstanceIds.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement statement = database.compileStatement("UPDATE "
+                + Tables.SURVEY_INSTANCE + " SET " + SurveyInstanceColumns.STATUS + " = ?, "
+                + dateColumn + " = ? WHERE " + SurveyInstanceColumns._ID + " = ?");
+        final long date = System.currentTimeMillis();
+        database.beginTransaction();
+        try {
+            for (long surveyInstanceId : surveyInstanceIds) {
+                statement.bindLong(1, status);
+                statement.bindLong(2, date);
+                statement.bindLong(3, surveyInstanceId);
+                statement.execute();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * @return the column holding the date the given status was reached, or null if not tracked
+     */
+    private static String getStatusDateColumn(int status) {
+        switch (status) {
+            case SurveyInstanceStatus.DOWNLOADED:
+            case SurveyInstanceStatus.SYNCED:
+                return SurveyInstanceColumns.SYNC_DATE;
+            case SurveyInstanceStatus.EXPORTED:
+                return SurveyInstanceColumns.EXPORTED_DATE;
+            case SurveyInstanceStatus.SUBMITTED:
+                return SurveyInstanceColumns.SUBMITTED_DATE;
+            case SAVED:
+                return SurveyInstanceColumns.SAVED_DATE;
+            default:
+                return null;
+        }
+    }
+
     /**
      * Increment the duration of a particular respondent.
      * The provided value will be added on top of the already stored one (default to 0).
@@ -564,27 +656,192 @@ public class SurveyDbAdapter {
     }
 
     /**
-     * Updates the matching transmission history records with the status
-     * passed in. If the status == Completed, the completion date is updated. If
-     * the status == In Progress, the start date is updated.
+     * Queue the transmission of every given file, in a single transaction
+     */
+    public void createTransmissions(long surveyInstanceId, String formID,
+            Collection<String> filenames) {
+        database.beginTransaction();
+        try {
+            for (String filename : filenames) {
+                createTransmission(surveyInstanceId, formID, filename);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Mark the file as failed, as reported by the server, creating its transmission if it does
+     * not exist. Transmissions leased by a sync pass are left to it: the lease owner will store
+     * the outcome of its own upload.
      *
-     * @param fileName
-     * @param status
-     * @return the number of rows affected
+     * @param time current time, to tell live leases from expired ones
+     * @return false if the transmission is leased, and has not been updated
      */
-    public int updateTransmissionHistory(String fileName, int status) {
-        // TODO: Update Survey Instance STATUS as well
-        ContentValues vals = new ContentValues();
-        vals.put(TransmissionColumns.STATUS, status);
-        if (TransmissionStatus.SYNCED == status) {
-            vals.put(TransmissionColumns.END_DATE, System.currentTimeMillis() + "");
-        } else if (TransmissionStatus.IN_PROGRESS == status) {
-            vals.put(TransmissionColumns.START_DATE, System.currentTimeMillis() + "");
+    public boolean setTransmissionFailed(String fileName, long time) {
+        ContentValues values = new ContentValues();
+        values.put(TransmissionColumns.STATUS, TransmissionStatus.FAILED);
+        values.putNull(TransmissionColumns.LEASE_OWNER);
+        values.put(TransmissionColumns.LEASE_EXPIRY, 0);
+        SQLiteStatement count = database.compileStatement("SELECT COUNT(*) FROM "
+                + Tables.TRANSMISSION + " WHERE " + TransmissionColumns.FILENAME + " = ?");
+        database.beginTransaction();
+        try {
+            boolean updated = database.update(Tables.TRANSMISSION, values,
+                    TransmissionColumns.FILENAME + " = ? AND ("
+                            + TransmissionColumns.STATUS + " <> ? OR "
+                            + TransmissionColumns.LEASE_EXPIRY + " <= ?)",
+                    new String[] {
+                            fileName,
+                            String.valueOf(TransmissionStatus.IN_PROGRESS),
+                            String.valueOf(time)
+                    }) > 0;
+            if (!updated) {
+                count.bindString(1, fileName);
+                if (count.simpleQueryForLong() == 0) {
+                    // Use a dummy "-1" as survey_instance_id, as the database needs that attribute
+                    createTransmission(-1, null, fileName, TransmissionStatus.FAILED);
+                    updated = true;
+                }
+            }
+            database.setTransactionSuccessful();
+            return updated;
+        } finally {
+            database.endTransaction();
+            count.close();
         }
+    }
 
-        return database.update(Tables.TRANSMISSION, vals,
-                TransmissionColumns.FILENAME + " = ?",
-                new String[] { fileName });
+    /**
+     * Claim the transmissions due for upload at the given time, marking them in progress under
+     * a lease of the given owner. Queued and failed transmissions are claimed once their retry
+     * backoff has expired, and those in progress only once their lease has expired, that is,
+     * if the sync pass uploading them has died. Live leases of concurrent passes are respected.
+     *
+     * @param owner         unique ID of the sync pass
+     * @param leaseDuration time, in millis, the lease lasts unless renewed
+     * @return the claimed transmissions, with their retry state
+     */
+    public List<FileTransmission> acquireTransmissions(String owner, long time,
+            long leaseDuration) {
+        SQLiteStatement statement = database.compileStatement("UPDATE " + Tables.TRANSMISSION
+                + " SET " + TransmissionColumns.STATUS + " = ?, "
+                + TransmissionColumns.START_DATE + " = ?, "
+                + TransmissionColumns.LEASE_OWNER + " = ?, "
+                + TransmissionColumns.LEASE_EXPIRY + " = ? WHERE "
+                + TransmissionColumns.FILENAME + " = ? AND ("
+                + TransmissionColumns.STATUS + " <> ? OR "
+                + TransmissionColumns.LEASE_EXPIRY + " <= ?)");
+        SQLiteStatement changes = compileChangesStatement();
+        List<FileTransmission> claimed = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            for (FileTransmission transmission : getUnsyncedTransmissions(time)) {
+                statement.bindLong(1, TransmissionStatus.IN_PROGRESS);
+                statement.bindLong(2, time);
+                statement.bindString(3, owner);
+                statement.bindLong(4, time + leaseDuration);
+                statement.bindString(5, transmission.getFileName());
+                statement.bindLong(6, TransmissionStatus.IN_PROGRESS);
+                statement.bindLong(7, time);
+                if (executeUpdate(statement, changes) > 0) {
+                    transmission.setStatus(TransmissionStatus.IN_PROGRESS);
+                    claimed.add(transmission);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+            changes.close();
+        }
+        return claimed;
+    }
+
+    /**
+     * @return a statement querying the number of rows changed by the last UPDATE
+     */
+    private SQLiteStatement compileChangesStatement() {
+        return database.compileStatement("SELECT changes()");
+    }
+
+    /**
+     * Execute the UPDATE statement, returning the number of changed rows.
+     * SQLiteStatement.executeUpdateDelete() is not available until API level 11.
+     */
+    private static long executeUpdate(SQLiteStatement update, SQLiteStatement changes) {
+        update.execute();
+        return changes.simpleQueryForLong();
+    }
+
+    /**
+     * Extend the leases of the transmissions the given owner has in progress
+     *
+     * @return the number of renewed leases
+     */
+    public int renewTransmissionLeases(String owner, long expiry) {
+        ContentValues values = new ContentValues();
+        values.put(TransmissionColumns.LEASE_EXPIRY, expiry);
+        return database.update(Tables.TRANSMISSION, values,
+                TransmissionColumns.LEASE_OWNER + " = ? AND " + TransmissionColumns.STATUS
+                        + " = ?",
+                new String[] { owner, String.valueOf(TransmissionStatus.IN_PROGRESS) });
+    }
+
+    /**
+     * Store the outcome of several transmissions in a single transaction: their status,
+     * retry state (attempts, next attempt and last error) and transfer metrics, releasing their
+     * leases. Synced transmissions also get their completion date updated. Only the
+     * transmissions still leased to the owner are updated: those reclaimed by another sync
+     * pass, after the lease expired, belong to that pass now.
+     */
+    public void updateTransmissions(Collection<FileTransmission> transmissions,
+            @NonNull String owner) {
+        if (transmissions.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement statement = database.compileStatement("UPDATE " + Tables.TRANSMISSION
+                + " SET " + TransmissionColumns.STATUS + " = ?, "
+                + TransmissionColumns.END_DATE + " = COALESCE(?, "
+                + TransmissionColumns.END_DATE + "), "
+                + TransmissionColumns.ATTEMPTS + " = ?, "
+                + TransmissionColumns.NEXT_ATTEMPT + " = ?, "
+                + TransmissionColumns.LAST_ERROR + " = ?, "
+                + TransmissionColumns.BYTES + " = ?, "
+                + TransmissionColumns.FIRST_BYTE + " = ?, "
+                + TransmissionColumns.DURATION + " = ?, "
+                + TransmissionColumns.LEASE_OWNER + " = NULL, "
+                + TransmissionColumns.LEASE_EXPIRY + " = 0 WHERE "
+                + TransmissionColumns.FILENAME + " = ? AND "
+                + TransmissionColumns.LEASE_OWNER + " = ?");
+        final long date = System.currentTimeMillis();
+        database.beginTransaction();
+        try {
+            for (FileTransmission transmission : transmissions) {
+                statement.clearBindings();
+                statement.bindLong(1, transmission.getStatus());
+                if (transmission.getStatus() == TransmissionStatus.SYNCED) {
+                    statement.bindLong(2, date);
+                }
+                statement.bindLong(3, transmission.getAttempts());
+                statement.bindLong(4, transmission.getNextAttempt());
+                if (transmission.getLastError() != null) {
+                    statement.bindString(5, transmission.getLastError());
+                }
+                statement.bindLong(6, transmission.getBytes());
+                statement.bindLong(7, transmission.getFirstByteTime());
+                statement.bindLong(8, transmission.getDuration());
+                statement.bindString(9, transmission.getFileName());
+                statement.bindString(10, owner);
+                statement.execute();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
     }
 
     private List<FileTransmission> getFileTransmissions(Cursor cursor) {
@@ -600,6 +857,13 @@ public class SurveyDbAdapter {
                         .getColumnIndexOrThrow(TransmissionColumns.SURVEY_INSTANCE_ID);
                 final int fileCol = cursor.getColumnIndexOrThrow(TransmissionColumns.FILENAME);
                 final int statusCol = cursor.getColumnIndexOrThrow(TransmissionColumns.STATUS);
+                final int attemptsCol = cursor.getColumnIndex(TransmissionColumns.ATTEMPTS);
+                final int nextAttemptCol = cursor
+                        .getColumnIndex(TransmissionColumns.NEXT_ATTEMPT);
+                final int errorCol = cursor.getColumnIndex(TransmissionColumns.LAST_ERROR);
+                final int bytesCol = cursor.getColumnIndex(TransmissionColumns.BYTES);
+                final int firstByteCol = cursor.getColumnIndex(TransmissionColumns.FIRST_BYTE);
+                final int durationCol = cursor.getColumnIndex(TransmissionColumns.DURATION);
 
                 transmissions = new ArrayList<>();
                 do {
@@ -609,6 +873,24 @@ public class SurveyDbAdapter {
                     trans.setRespondentId(cursor.getLong(surveyInstanceCol));
                     trans.setFileName(cursor.getString(fileCol));
                     trans.setStatus(cursor.getInt(statusCol));
+                    if (attemptsCol != -1) {
+                        trans.setAttempts(cursor.getInt(attemptsCol));
+                    }
+                    if (nextAttemptCol != -1) {
+                        trans.setNextAttempt(cursor.getLong(nextAttemptCol));
+                    }
+                    if (errorCol != -1) {
+                        trans.setLastError(cursor.getString(errorCol));
+                    }
+                    if (bytesCol != -1) {
+                        trans.setBytes(cursor.getLong(bytesCol));
+                    }
+                    if (firstByteCol != -1) {
+                        trans.setFirstByteTime(cursor.getLong(firstByteCol));
+                    }
+                    if (durationCol != -1) {
+                        trans.setDuration(cursor.getLong(durationCol));
+                    }
 
                     // Start and End date. Handle null cases
                     if (!cursor.isNull(startCol)) {
@@ -633,7 +915,9 @@ public class SurveyDbAdapter {
                         TransmissionColumns._ID, TransmissionColumns.SURVEY_INSTANCE_ID,
                         TransmissionColumns.SURVEY_ID, TransmissionColumns.STATUS,
                         TransmissionColumns.FILENAME, TransmissionColumns.START_DATE,
-                        TransmissionColumns.END_DATE
+                        TransmissionColumns.END_DATE, TransmissionColumns.ATTEMPTS,
+                        TransmissionColumns.LAST_ERROR, TransmissionColumns.BYTES,
+                        TransmissionColumns.FIRST_BYTE, TransmissionColumns.DURATION
                 },
                 TransmissionColumns.SURVEY_INSTANCE_ID + " = ?",
                 new String[] { String.valueOf(surveyInstanceId) },
@@ -643,26 +927,281 @@ public class SurveyDbAdapter {
     }
 
     /**
-     * Get the list of queued and failed transmissions
+     * Get the list of queued and failed transmissions, including those waiting to be retried
      */
     public List<FileTransmission> getUnsyncedTransmissions() {
+        return getUnsyncedTransmissions(Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the list of queued and failed transmissions that are due for upload at the given
+     * time, that is, whose retry backoff (if any) has expired, along with the transmissions in
+     * progress whose lease has expired. Their retry state is included.
+     */
+    public List<FileTransmission> getUnsyncedTransmissions(long time) {
         Cursor cursor = database.query(Tables.TRANSMISSION,
                 new String[] {
                         TransmissionColumns._ID, TransmissionColumns.SURVEY_INSTANCE_ID,
                         TransmissionColumns.SURVEY_ID, TransmissionColumns.STATUS,
                         TransmissionColumns.FILENAME, TransmissionColumns.START_DATE,
-                        TransmissionColumns.END_DATE
+                        TransmissionColumns.END_DATE, TransmissionColumns.ATTEMPTS,
+                        TransmissionColumns.NEXT_ATTEMPT, TransmissionColumns.LAST_ERROR
                 },
-                TransmissionColumns.STATUS + " IN (?, ?, ?)",
+                "(" + TransmissionColumns.STATUS + " IN (?, ?) AND "
+                        + TransmissionColumns.NEXT_ATTEMPT + " <= ?) OR ("
+                        + TransmissionColumns.STATUS + " = ? AND "
+                        + TransmissionColumns.LEASE_EXPIRY + " <= ?)",
                 new String[] {
                         String.valueOf(TransmissionStatus.FAILED),
-                        String.valueOf(TransmissionStatus.IN_PROGRESS),// Stalled IN_PROGRESS files
-                        String.valueOf(TransmissionStatus.QUEUED)
+                        String.valueOf(TransmissionStatus.QUEUED),
+                        String.valueOf(time),
+                        String.valueOf(TransmissionStatus.IN_PROGRESS),// Abandoned by dead passes
+                        String.valueOf(time)
                 }, null, null, null);
 
         return getFileTransmissions(cursor);
     }
 
+    /**
+     * Get the confirmed parts of the multipart upload of the given file, if any.
+     */
+    public List<UploadPart> getUploadParts(String fileName) {
+        List<UploadPart> parts = new ArrayList<>();
+        Cursor cursor = database.query(Tables.UPLOAD_PART,
+                new String[] {
+                        UploadPartColumns.UPLOAD_ID, UploadPartColumns.PART_NUMBER,
+                        UploadPartColumns.ETAG, UploadPartColumns.PART_SIZE,
+                        UploadPartColumns.FILE_SIZE, UploadPartColumns.FILE_MODIFIED
+                },
+                UploadPartColumns.FILENAME + " = ?",
+                new String[] { fileName },
+                null, null, UploadPartColumns.PART_NUMBER);
+
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    parts.add(new UploadPart(cursor.getString(0), cursor.getInt(1),
+                            cursor.getString(2), cursor.getInt(3), cursor.getLong(4),
+                            cursor.getLong(5)));
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        return parts;
+    }
+
+    public void saveUploadPart(String fileName, String uploadId, int partNumber, String etag,
+            int partSize, long fileSize, long fileModified) {
+        ContentValues values = new ContentValues();
+        values.put(UploadPartColumns.FILENAME, fileName);
+        values.put(UploadPartColumns.UPLOAD_ID, uploadId);
+        values.put(UploadPartColumns.PART_NUMBER, partNumber);
+        values.put(UploadPartColumns.ETAG, etag);
+        values.put(UploadPartColumns.PART_SIZE, partSize);
+        values.put(UploadPartColumns.FILE_SIZE, fileSize);
+        values.put(UploadPartColumns.FILE_MODIFIED, fileModified);
+        database.insert(Tables.UPLOAD_PART, null, values);
+    }
+
+    public void deleteUploadParts(String fileName) {
+        database.delete(Tables.UPLOAD_PART, UploadPartColumns.FILENAME + " = ?",
+                new String[] { fileName });
+    }
+
+    /**
+     * Get the stored MD5 digest of a file, only if the given size and modification date
+     * match the ones recorded along with the digest.
+     *
+     * @return hex encoded MD5, or null if not found or outdated
+     */
+    public String getFileDigest(String fileName, long size, long modified) {
+        Cursor cursor = database.query(Tables.FILE_DIGEST,
+                new String[] { FileDigestColumns.MD5 },
+                FileDigestColumns.FILENAME + " = ? AND " + FileDigestColumns.SIZE + " = ? AND "
+                        + FileDigestColumns.MODIFIED + " = ?",
+                new String[] { fileName, String.valueOf(size), String.valueOf(modified) },
+                null, null, null);
+
+        String md5 = null;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                md5 = cursor.getString(0);
+            }
+            cursor.close();
+        }
+        return md5;
+    }
+
+    public void saveFileDigest(String fileName, String md5, long size, long modified) {
+        ContentValues values = new ContentValues();
+        values.put(FileDigestColumns.FILENAME, fileName);
+        values.put(FileDigestColumns.MD5, md5);
+        values.put(FileDigestColumns.SIZE, size);
+        values.put(FileDigestColumns.MODIFIED, modified);
+        database.insert(Tables.FILE_DIGEST, null, values);
+    }
+
+    public void saveSyncSession(SyncSession session) {
+        ContentValues values = new ContentValues();
+        values.put(SyncSessionColumns.START, session.getStart());
+        values.put(SyncSessionColumns.EXPORTED, session.getExported());
+        values.put(SyncSessionColumns.FILES, session.getFiles());
+        values.put(SyncSessionColumns.FAILED, session.getFailed());
+        values.put(SyncSessionColumns.BYTES, session.getBytes());
+        values.put(SyncSessionColumns.EXPORT_TIME, session.getExportTime());
+        values.put(SyncSessionColumns.UPLOAD_TIME, session.getUploadTime());
+        values.put(SyncSessionColumns.NOTIFY_TIME, session.getNotifyTime());
+        session.setId(database.insert(Tables.SYNC_SESSION, null, values));
+    }
+
+    /**
+     * Get the most recent sync sessions, newest first
+     */
+    public List<SyncSession> getSyncSessions(int limit) {
+        List<SyncSession> sessions = new ArrayList<>();
+        Cursor cursor = database.query(Tables.SYNC_SESSION, null, null, null, null, null,
+                SyncSessionColumns.START + " DESC", String.valueOf(limit));
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                SyncSession session = new SyncSession();
+                session.setId(cursor.getLong(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns._ID)));
+                session.setStart(cursor.getLong(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.START)));
+                session.setExported(cursor.getInt(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.EXPORTED)));
+                session.setFiles(cursor.getInt(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.FILES)));
+                session.setFailed(cursor.getInt(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.FAILED)));
+                session.setBytes(cursor.getLong(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.BYTES)));
+                session.setExportTime(cursor.getLong(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.EXPORT_TIME)));
+                session.setUploadTime(cursor.getLong(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.UPLOAD_TIME)));
+                session.setNotifyTime(cursor.getLong(
+                        cursor.getColumnIndexOrThrow(SyncSessionColumns.NOTIFY_TIME)));
+                sessions.add(session);
+            }
+            cursor.close();
+        }
+        return sessions;
+    }
+
+    /**
+     * Record an exported survey instance zip in the export manifest
+     */
+    public void saveExportedFile(long surveyInstanceId, String fileName, long size, String md5,
+            long created) {
+        ContentValues values = new ContentValues();
+        values.put(ExportManifestColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
+        values.put(ExportManifestColumns.FILENAME, fileName);
+        values.put(ExportManifestColumns.SIZE, size);
+        values.put(ExportManifestColumns.MD5, md5);
+        values.put(ExportManifestColumns.CREATED, created);
+        database.insert(Tables.EXPORT_MANIFEST, null, values);
+    }
+
+    /**
+     * Get the size recorded in the export manifest for the given zip
+     *
+     * @return the size of the exported file, or -1 if it is not in the manifest
+     */
+    public long getExportedFileSize(String fileName) {
+        Cursor cursor = database.query(Tables.EXPORT_MANIFEST,
+                new String[] { ExportManifestColumns.SIZE },
+                ExportManifestColumns.FILENAME + " = ?",
+                new String[] { fileName },
+                null, null, null);
+
+        long size = -1;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                size = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return size;
+    }
+
+    public void deleteExportedFile(String fileName) {
+        database.delete(Tables.EXPORT_MANIFEST, ExportManifestColumns.FILENAME + " = ?",
+                new String[] { fileName });
+    }
+
+    public void saveJournalEntry(JournalEntry entry) {
+        ContentValues values = new ContentValues();
+        values.put(SyncJournalColumns.FILENAME, entry.getFilename());
+        values.put(SyncJournalColumns.STAGE, entry.getStage());
+        values.put(SyncJournalColumns.SURVEY_INSTANCE_ID, entry.getSurveyInstanceId());
+        values.put(SyncJournalColumns.FORM_ID, entry.getFormId());
+        values.put(SyncJournalColumns.SIZE, entry.getSize());
+        values.put(SyncJournalColumns.MD5, entry.getMd5());
+        values.put(SyncJournalColumns.MEDIA, TextUtils.join("\n", entry.getMedia()));
+        ProcessingNotification notification = entry.getNotification();
+        values.put(SyncJournalColumns.ACTION, notification.getAction());
+        values.put(SyncJournalColumns.OBJECT_NAME, notification.getFileName());
+        values.put(SyncJournalColumns.CREATED, System.currentTimeMillis());
+        database.insert(Tables.SYNC_JOURNAL, null, values);
+    }
+
+    /**
+     * @return the journal entries of the given stage, by file name
+     */
+    public Map<String, JournalEntry> getJournalEntries(int stage) {
+        Map<String, JournalEntry> entries = new HashMap<>();
+        Cursor cursor = database.query(Tables.SYNC_JOURNAL,
+                new String[] {
+                        SyncJournalColumns.FILENAME, SyncJournalColumns.SURVEY_INSTANCE_ID,
+                        SyncJournalColumns.FORM_ID, SyncJournalColumns.SIZE,
+                        SyncJournalColumns.MD5, SyncJournalColumns.MEDIA,
+                        SyncJournalColumns.ACTION, SyncJournalColumns.OBJECT_NAME
+                },
+                SyncJournalColumns.STAGE + " = ?",
+                new String[] { String.valueOf(stage) },
+                null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    String media = cursor.getString(5);
+                    JournalEntry entry = new JournalEntry(cursor.getString(0), stage,
+                            cursor.getLong(1), cursor.getString(2), cursor.getLong(3),
+                            cursor.getString(4), TextUtils.isEmpty(media) ? null
+                                    : Arrays.asList(media.split("\n")),
+                            cursor.getString(6), cursor.getString(7));
+                    entries.put(entry.getFilename(), entry);
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        return entries;
+    }
+
+    public void deleteJournalEntries(Collection<String> filenames) {
+        if (filenames.isEmpty()) {
+            return;
+        }
+        SQLiteStatement statement = database.compileStatement("DELETE FROM "
+                + Tables.SYNC_JOURNAL + " WHERE " + SyncJournalColumns.FILENAME + " = ?");
+        database.beginTransaction();
+        try {
+            for (String filename : filenames) {
+                statement.bindString(1, filename);
+                statement.execute();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+    }
+
+    public void deleteFileDigest(String fileName) {
+        database.delete(Tables.FILE_DIGEST, FileDigestColumns.FILENAME + " = ?",
+                new String[] { fileName });
+    }
+
     /**
      * executes a single insert/update/delete DML or any DDL statement without
      * any bind arguments.
@@ -713,6 +1252,11 @@ public class SurveyDbAdapter {
         executeSql("DELETE FROM " + Tables.SURVEY_INSTANCE);
         executeSql("DELETE FROM " + Tables.RECORD);
         executeSql("DELETE FROM " + Tables.TRANSMISSION);
+        executeSql("DELETE FROM " + Tables.UPLOAD_PART);
+        executeSql("DELETE FROM " + Tables.FILE_DIGEST);
+        executeSql("DELETE FROM " + Tables.EXPORT_MANIFEST);
+        executeSql("DELETE FROM " + Tables.SYNC_SESSION);
+        executeSql("DELETE FROM " + Tables.SYNC_JOURNAL);
     }
 
     /**
@@ -1147,104 +1691,212 @@ public class SurveyDbAdapter {
     // =========== SurveyedLocales synchronization =========== //
     // ======================================================= //
 
-    private void syncResponses(List<QuestionResponse> responses, long surveyInstanceId) {
-        for (QuestionResponse response : responses) {
-            Cursor cursor = database.query(Tables.RESPONSE,
-                    new String[] { ResponseColumns.SURVEY_INSTANCE_ID, ResponseColumns.QUESTION_ID
-                    },
-                    ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
-                            + ResponseColumns.QUESTION_ID + " = ?",
-                    new String[] { String.valueOf(surveyInstanceId), response.getQuestionId() },
-                    null, null, null);
-
-            boolean exists = cursor.getCount() > 0;
-            cursor.close();
+    /**
+     * Store a whole page of data points in a single transaction. Survey instances are
+     * upserted by UUID, and their responses by question. The statements are compiled once for
+     * the page, and reused for every row. Responses of new survey instances are inserted
+     * straight away, as there is nothing to update.
+     */
+    public void syncSurveyedLocales(@NonNull List<SurveyedLocale> surveyedLocales) {
+        if (surveyedLocales.isEmpty()) {
+            return;
+        }
+        SyncStatements statements = new SyncStatements();
+        Map<Long, Long> syncTimes = new HashMap<>();
+        database.beginTransaction();
+        try {
+            final long now = System.currentTimeMillis();
+            for (SurveyedLocale surveyedLocale : surveyedLocales) {
+                final String id = surveyedLocale.getId();
+                SQLiteStatement insertRecord = statements.insertRecord;
+                insertRecord.bindString(1, id);
+                insertRecord.bindLong(2, surveyedLocale.getSurveyGroupId());
+                bindString(insertRecord, 3, surveyedLocale.getName());
+                bindDouble(insertRecord, 4, surveyedLocale.getLatitude());
+                bindDouble(insertRecord, 5, surveyedLocale.getLongitude());
+                insertRecord.executeInsert();
+
+                for (SurveyInstance surveyInstance : surveyedLocale.getSurveyInstances()) {
+                    syncSurveyInstance(statements, surveyInstance, id, now);
+                }
 
-            ContentValues values = new ContentValues();
-            values.put(ResponseColumns.ANSWER, response.getValue());
-            values.put(ResponseColumns.TYPE, response.getType());
-            values.put(ResponseColumns.QUESTION_ID, response.getQuestionId());
-            values.put(ResponseColumns.INCLUDE, response.getIncludeFlag());
-            values.put(ResponseColumns.SURVEY_INSTANCE_ID, surveyInstanceId);
+                // Update the record last modification date, if necessary
+                SQLiteStatement updateModified = statements.updateRecordModified;
+                updateModified.bindLong(1, surveyedLocale.getLastModified());
+                updateModified.bindString(2, id);
+                updateModified.bindLong(3, surveyedLocale.getLastModified());
+                updateModified.execute();
 
-            if (exists) {
-                database.update(Tables.RESPONSE, values,
-                        ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
-                                + ResponseColumns.QUESTION_ID + " = ?",
-                        new String[] { String.valueOf(surveyInstanceId), response.getQuestionId()
-                        });
-            } else {
-                database.insert(Tables.RESPONSE, null, values);
+                syncTimes.put(surveyedLocale.getSurveyGroupId(), surveyedLocale.getLastModified());
+            }
+            for (Map.Entry<Long, Long> syncTime : syncTimes.entrySet()) {
+                setSyncTime(syncTime.getKey(), String.valueOf(syncTime.getValue()));
             }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statements.close();
         }
     }
 
-    private void syncSurveyInstances(List<SurveyInstance> surveyInstances,
-            String surveyedLocaleId) {
-        for (SurveyInstance surveyInstance : surveyInstances) {
-            Cursor cursor = database.query(Tables.SURVEY_INSTANCE, new String[] {
-                            SurveyInstanceColumns._ID, SurveyInstanceColumns.UUID
-                    },
-                    SurveyInstanceColumns.UUID + " = ?",
-                    new String[] { surveyInstance.getUuid() },
-                    null, null, null);
-
-            long id = DOES_NOT_EXIST;
-            if (cursor.moveToFirst()) {
-                id = cursor.getLong(0);
+    private void syncSurveyInstance(@NonNull SyncStatements statements,
+            @NonNull SurveyInstance surveyInstance, String surveyedLocaleId, long syncDate) {
+        statements.findInstance.bindString(1, surveyInstance.getUuid());
+        long id = statements.findInstance.simpleQueryForLong();
+        final boolean exists = id != DOES_NOT_EXIST;
+
+        SQLiteStatement upsertInstance = exists ? statements.updateInstance
+                : statements.insertInstance;
+        bindString(upsertInstance, 1, surveyInstance.getSurveyId());
+        upsertInstance.bindLong(2, surveyInstance.getDate());
+        bindString(upsertInstance, 3, surveyedLocaleId);
+        upsertInstance.bindLong(4, SurveyInstanceStatus.DOWNLOADED);
+        upsertInstance.bindLong(5, syncDate);
+        bindString(upsertInstance, 6, surveyInstance.getSubmitter());
+        upsertInstance.bindString(7, surveyInstance.getUuid());
+        try {
+            if (exists) {
+                upsertInstance.execute();
+            } else {
+                id = upsertInstance.executeInsert();
             }
-            cursor.close();
+        } catch (SQLiteConstraintException e) {
+            // As SQLiteDatabase.insert() does, skip the invalid row instead of the whole page
+            Timber.e(e, "Could not store survey instance " + surveyInstance.getUuid());
+            return;
+        }
 
-            ContentValues values = new ContentValues();
-            values.put(SurveyInstanceColumns.SURVEY_ID, surveyInstance.getSurveyId());
-            values.put(SurveyInstanceColumns.SUBMITTED_DATE, surveyInstance.getDate());
-            values.put(SurveyInstanceColumns.RECORD_ID, surveyedLocaleId);
-            values.put(SurveyInstanceColumns.STATUS, SurveyInstanceStatus.DOWNLOADED);
-            values.put(SurveyInstanceColumns.SYNC_DATE, System.currentTimeMillis());
-            values.put(SurveyInstanceColumns.SUBMITTER, surveyInstance.getSubmitter());
-
-            if (id != DOES_NOT_EXIST) {
-                database.update(Tables.SURVEY_INSTANCE, values, SurveyInstanceColumns.UUID
-                        + " = ?", new String[] { surveyInstance.getUuid() });
-            } else {
-                values.put(SurveyInstanceColumns.UUID, surveyInstance.getUuid());
-                id = database.insert(Tables.SURVEY_INSTANCE, null, values);
+        for (QuestionResponse response : surveyInstance.getResponses()) {
+            try {
+                if (exists) {
+                    SQLiteStatement updateResponse = statements.updateResponse;
+                    bindResponse(updateResponse, response, id);
+                    if (executeUpdate(updateResponse, statements.changes) > 0) {
+                        continue;
+                    }
+                }
+                SQLiteStatement insertResponse = statements.insertResponse;
+                bindResponse(insertResponse, response, id);
+                insertResponse.executeInsert();
+            } catch (SQLiteConstraintException e) {
+                Timber.e(e, "Could not store response to question " + response.getQuestionId());
             }
+        }
 
-            // Now the responses...
-            syncResponses(surveyInstance.getResponses(), id);
+        // The filename is a unique column in the transmission table, and as we do not have
+        // a file to hold this data, we set the value to the instance UUID
+        final String date = String.valueOf(syncDate);
+        SQLiteStatement insertTransmission = statements.insertTransmission;
+        insertTransmission.bindLong(1, id);
+        bindString(insertTransmission, 2, surveyInstance.getSurveyId());
+        insertTransmission.bindString(3, surveyInstance.getUuid());
+        insertTransmission.bindLong(4, TransmissionStatus.SYNCED);
+        insertTransmission.bindString(5, date);
+        insertTransmission.bindString(6, date);
+        insertTransmission.executeInsert();
+    }
 
-            // The filename is a unique column in the transmission table, and as we do not have
-            // a file to hold this data, we set the value to the instance UUID
-            createTransmission(id, surveyInstance.getSurveyId(), surveyInstance.getUuid(),
-                    TransmissionStatus.SYNCED);
+    /**
+     * Bind the response values, in the order shared by the response statements
+     */
+    private static void bindResponse(@NonNull SQLiteStatement statement,
+            @NonNull QuestionResponse response, long surveyInstanceId) {
+        bindString(statement, 1, response.getValue());
+        bindString(statement, 2, response.getType());
+        statement.bindLong(3, response.getIncludeFlag() ? 1 : 0);
+        statement.bindLong(4, surveyInstanceId);
+        statement.bindString(5, response.getQuestionId());
+    }
+
+    private static void bindString(@NonNull SQLiteStatement statement, int index,
+            @Nullable String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
         }
     }
 
-    public void syncSurveyedLocale(SurveyedLocale surveyedLocale) {
-        final String id = surveyedLocale.getId();
-        try {
-            database.beginTransaction();
-
-            ContentValues values = new ContentValues();
-            values.put(RecordColumns.RECORD_ID, id);
-            values.put(RecordColumns.SURVEY_GROUP_ID, surveyedLocale.getSurveyGroupId());
-            values.put(RecordColumns.NAME, surveyedLocale.getName());
-            values.put(RecordColumns.LATITUDE, surveyedLocale.getLatitude());
-            values.put(RecordColumns.LONGITUDE, surveyedLocale.getLongitude());
-            database.insert(Tables.RECORD, null, values);
-
-            syncSurveyInstances(surveyedLocale.getSurveyInstances(), id);
-
-            // Update the record last modification date, if necessary
-            updateRecordModifiedDate(id, surveyedLocale.getLastModified());
-
-            String syncTime = String.valueOf(surveyedLocale.getLastModified());
-            setSyncTime(surveyedLocale.getSurveyGroupId(), syncTime);
+    private static void bindDouble(@NonNull SQLiteStatement statement, int index,
+            @Nullable Double value) {
+        if (value != null) {
+            statement.bindDouble(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
 
-            database.setTransactionSuccessful();
-        } finally {
-            database.endTransaction();
+    /**
+     * Compiled statements of the bulk data point sync, reused for every row of a page
+     */
+    private class SyncStatements {
+
+        final SQLiteStatement insertRecord = database.compileStatement("INSERT INTO "
+                + Tables.RECORD + " (" + RecordColumns.RECORD_ID + ", "
+                + RecordColumns.SURVEY_GROUP_ID + ", " + RecordColumns.NAME + ", "
+                + RecordColumns.LATITUDE + ", " + RecordColumns.LONGITUDE
+                + ") VALUES (?, ?, ?, ?, ?)");
+
+        final SQLiteStatement updateRecordModified = database.compileStatement("UPDATE "
+                + Tables.RECORD + " SET " + RecordColumns.LAST_MODIFIED + " = ? WHERE "
+                + RecordColumns.RECORD_ID + " = ? AND " + RecordColumns.LAST_MODIFIED + " < ?");
+
+        final SQLiteStatement findInstance = database.compileStatement("SELECT IFNULL(("
+                + "SELECT " + SurveyInstanceColumns._ID + " FROM " + Tables.SURVEY_INSTANCE
+                + " WHERE " + SurveyInstanceColumns.UUID + " = ?), " + DOES_NOT_EXIST + ")");
+
+        final SQLiteStatement updateInstance = database.compileStatement("UPDATE "
+                + Tables.SURVEY_INSTANCE + " SET " + SurveyInstanceColumns.SURVEY_ID + " = ?, "
+                + SurveyInstanceColumns.SUBMITTED_DATE + " = ?, "
+                + SurveyInstanceColumns.RECORD_ID + " = ?, "
+                + SurveyInstanceColumns.STATUS + " = ?, "
+                + SurveyInstanceColumns.SYNC_DATE + " = ?, "
+                + SurveyInstanceColumns.SUBMITTER + " = ? WHERE "
+                + SurveyInstanceColumns.UUID + " = ?");
+
+        final SQLiteStatement insertInstance = database.compileStatement("INSERT INTO "
+                + Tables.SURVEY_INSTANCE + " (" + SurveyInstanceColumns.SURVEY_ID + ", "
+                + SurveyInstanceColumns.SUBMITTED_DATE + ", "
+                + SurveyInstanceColumns.RECORD_ID + ", "
+                + SurveyInstanceColumns.STATUS + ", "
+                + SurveyInstanceColumns.SYNC_DATE + ", "
+                + SurveyInstanceColumns.SUBMITTER + ", "
+                + SurveyInstanceColumns.UUID + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+
+        final SQLiteStatement updateResponse = database.compileStatement("UPDATE "
+                + Tables.RESPONSE + " SET " + ResponseColumns.ANSWER + " = ?, "
+                + ResponseColumns.TYPE + " = ?, "
+                + ResponseColumns.INCLUDE + " = ? WHERE "
+                + ResponseColumns.SURVEY_INSTANCE_ID + " = ? AND "
+                + ResponseColumns.QUESTION_ID + " = ?");
+
+        final SQLiteStatement insertResponse = database.compileStatement("INSERT INTO "
+                + Tables.RESPONSE + " (" + ResponseColumns.ANSWER + ", "
+                + ResponseColumns.TYPE + ", "
+                + ResponseColumns.INCLUDE + ", "
+                + ResponseColumns.SURVEY_INSTANCE_ID + ", "
+                + ResponseColumns.QUESTION_ID + ") VALUES (?, ?, ?, ?, ?)");
+
+        final SQLiteStatement insertTransmission = database.compileStatement("INSERT INTO "
+                + Tables.TRANSMISSION + " (" + TransmissionColumns.SURVEY_INSTANCE_ID + ", "
+                + TransmissionColumns.SURVEY_ID + ", "
+                + TransmissionColumns.FILENAME + ", "
+                + TransmissionColumns.STATUS + ", "
+                + TransmissionColumns.START_DATE + ", "
+                + TransmissionColumns.END_DATE + ") VALUES (?, ?, ?, ?, ?, ?)");
+
+        final SQLiteStatement changes = compileChangesStatement();
+
+        void close() {
+            insertRecord.close();
+            updateRecordModified.close();
+            findInstance.close();
+            updateInstance.close();
+            insertInstance.close();
+            updateResponse.close();
+            insertResponse.close();
+            insertTransmission.close();
+            changes.close();
         }
     }
 
@@ -1277,9 +1929,76 @@ public class SurveyDbAdapter {
      */
     private void setSyncTime(long surveyGroupId, String time) {
         ContentValues values = new ContentValues();
-        values.put(SyncTimeColumns.SURVEY_GROUP_ID, surveyGroupId);
         values.put(SyncTimeColumns.TIME, time);
-        database.insert(Tables.SYNC_TIME, null, values);
+        upsertSyncTime(surveyGroupId, values);
+    }
+
+    /**
+     * Get the paging token of the next page of data points, for a sync that has not finished
+     *
+     * @param surveyGroupId id of the SurveyGroup
+     * @return the cursor, or null if the next sync starts from the sync time
+     */
+    @Nullable
+    public String getSyncCursor(long surveyGroupId) {
+        Cursor cursor = database.query(Tables.SYNC_TIME,
+                new String[] { SyncTimeColumns.CURSOR },
+                SyncTimeColumns.SURVEY_GROUP_ID + "=?",
+                new String[] { String.valueOf(surveyGroupId) },
+                null, null, null);
+
+        String syncCursor = null;
+        if (cursor.moveToFirst()) {
+            syncCursor = cursor.getString(0);
+        }
+        cursor.close();
+        return syncCursor;
+    }
+
+    /**
+     * @param surveyGroupId id of the SurveyGroup
+     * @return the number of data points to request per page, or 0 if unknown
+     */
+    public int getSyncPageSize(long surveyGroupId) {
+        Cursor cursor = database.query(Tables.SYNC_TIME,
+                new String[] { SyncTimeColumns.PAGE_SIZE },
+                SyncTimeColumns.SURVEY_GROUP_ID + "=?",
+                new String[] { String.valueOf(surveyGroupId) },
+                null, null, null);
+
+        int pageSize = 0;
+        if (cursor.moveToFirst()) {
+            pageSize = cursor.getInt(0);
+        }
+        cursor.close();
+        return pageSize;
+    }
+
+    /**
+     * Save the paging state of the data point sync, once a page has been stored
+     *
+     * @param surveyGroupId id of the SurveyGroup
+     * @param cursor        paging token of the next page, null once the sync is done
+     * @param pageSize      number of data points to request per page
+     */
+    public void setSyncCursor(long surveyGroupId, @Nullable String cursor, int pageSize) {
+        ContentValues values = new ContentValues();
+        values.put(SyncTimeColumns.CURSOR, cursor);
+        values.put(SyncTimeColumns.PAGE_SIZE, pageSize);
+        upsertSyncTime(surveyGroupId, values);
+    }
+
+    /**
+     * Update the given columns of the sync time, keeping the others
+     */
+    private void upsertSyncTime(long surveyGroupId, @NonNull ContentValues values) {
+        int updated = database.update(Tables.SYNC_TIME, values,
+                SyncTimeColumns.SURVEY_GROUP_ID + "=?",
+                new String[] { String.valueOf(surveyGroupId) });
+        if (updated == 0) {
+            values.put(SyncTimeColumns.SURVEY_GROUP_ID, surveyGroupId);
+            database.insert(Tables.SYNC_TIME, null, values);
+        }
     }
 
     /**
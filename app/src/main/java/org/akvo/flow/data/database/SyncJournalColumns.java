@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.database;
+
+/**
+ * Write-ahead journal of the sync steps whose outcome is not committed at once, so a sync
+ * interrupted by the death of the process resumes where it stopped:
+ * exported zips not yet queued for upload, and uploaded files not yet announced to the server.
+ * See {@link org.akvo.flow.domain.JournalEntry} for the content of each stage.
+ */
+public class SyncJournalColumns {
+    public static final String _ID = "_id";
+    public static final String FILENAME = "filename";
+    public static final String STAGE = "stage";
+    public static final String SURVEY_INSTANCE_ID = "survey_instance_id";
+    public static final String FORM_ID = "form_id";
+    public static final String SIZE = "size";// exported zips only
+    public static final String MD5 = "md5";// exported zips only
+    public static final String MEDIA = "media";// exported zips only. Line separated paths
+    public static final String ACTION = "action";// uploaded files only
+    public static final String OBJECT_NAME = "object_name";// uploaded files only
+    public static final String CREATED = "created";
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.database;
+
+/**
+ * Aggregated figures of a sync session, that is, a run of the data sync service: exported
+ * instances, uploaded files and bytes, and the time split between export, upload and
+ * notification of the uploads. Times are stored in milliseconds.
+ */
+public class SyncSessionColumns {
+    public static final String _ID = "_id";
+    public static final String START = "start";
+    public static final String EXPORTED = "exported";
+    public static final String FILES = "files";
+    public static final String FAILED = "failed";
+    public static final String BYTES = "bytes";
+    public static final String EXPORT_TIME = "export_time";
+    public static final String UPLOAD_TIME = "upload_time";
+    public static final String NOTIFY_TIME = "notify_time";
+}
@@ -24,4 +24,6 @@ public class SyncTimeColumns {
     public static final String _ID = "_id";
     public static final String SURVEY_GROUP_ID = "survey_group_id";
     public static final String TIME = "time";
+    public static final String CURSOR = "cursor";// Paging token of the next page, if any
+    public static final String PAGE_SIZE = "page_size";
 }
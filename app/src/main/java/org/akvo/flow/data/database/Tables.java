@@ -31,5 +31,10 @@ public class Tables {
     public static final String SURVEY_GROUP = "survey_group";// Introduced in Point Updates
     public static final String RECORD = "record";// Introduced in Point Updates
     public static final String SYNC_TIME = "sync_time";// Introduced in Point Updates
+    public static final String UPLOAD_PART = "upload_part";
+    public static final String FILE_DIGEST = "file_digest";
+    public static final String EXPORT_MANIFEST = "export_manifest";
+    public static final String SYNC_SESSION = "sync_session";
+    public static final String SYNC_JOURNAL = "sync_journal";
 
 }
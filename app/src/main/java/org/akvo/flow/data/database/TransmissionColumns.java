@@ -28,4 +28,12 @@ public class TransmissionColumns {
     public static final String STATUS = "status";// separate table/constants?
     public static final String START_DATE = "start_date";// do we really need this column?
     public static final String END_DATE = "end_date";
+    public static final String ATTEMPTS = "attempts";// failed attempts in a row, kept once synced
+    public static final String NEXT_ATTEMPT = "next_attempt";// earliest retry time, in millis
+    public static final String LAST_ERROR = "last_error";
+    public static final String BYTES = "bytes";// bytes sent in the last attempt
+    public static final String FIRST_BYTE = "first_byte";// millis to the first response
+    public static final String DURATION = "duration";// millis of the last attempt
+    public static final String LEASE_OWNER = "lease_owner";// sync pass uploading the file
+    public static final String LEASE_EXPIRY = "lease_expiry";// millis. Reclaimable once past
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.akvo.flow.data.database;
+
+/**
+ * Parts of in-progress S3 multipart uploads. Each confirmed part is stored along with
+ * the upload id, so an interrupted upload can be resumed from the last confirmed part.
+ * The size and modification date of the file tell whether it changed since the upload started.
+ */
+public class UploadPartColumns {
+    public static final String _ID = "_id";
+    public static final String FILENAME = "filename";
+    public static final String UPLOAD_ID = "upload_id";
+    public static final String PART_NUMBER = "part_number";
+    public static final String ETAG = "etag";
+    public static final String PART_SIZE = "part_size";
+    public static final String FILE_SIZE = "file_size";
+    public static final String FILE_MODIFIED = "file_modified";
+}
@@ -43,6 +43,8 @@ public class Prefs {
     public static final String KEY_DEVICE_IDENTIFIER = "device.identifier";
     public static final String KEY_MAX_IMG_SIZE = "media.img.maxsize";
     public static final String KEY_SPACE_AVAILABLE = "cardMBAvaliable";
+    public static final String KEY_UPLOAD_WORKERS = "data.upload.workers";
+    public static final String KEY_UPLOAD_PREFLIGHT = "data.upload.preflight";
 
     private static final String PREFS_NAME = "flow_prefs";
     private static final int PREFS_MODE = Context.MODE_PRIVATE;
@@ -52,6 +54,8 @@ public class Prefs {
     public static final boolean DEFAULT_VALUE_CELL_UPLOAD = false;
     public static final boolean DEFAULT_VALUE_SCREEN_ON = true;
     public static final long DEF_VALUE_SPACE_AVAILABLE = 101L;
+    public static final int DEFAULT_VALUE_UPLOAD_WORKERS = 3;
+    public static final boolean DEFAULT_VALUE_UPLOAD_PREFLIGHT = true;
 
     private final Context context;
 
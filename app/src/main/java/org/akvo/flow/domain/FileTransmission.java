@@ -34,6 +34,12 @@ public class FileTransmission {
     private Date startDate;
     private Date endDate;
     private int status;
+    private int attempts;
+    private long nextAttempt;
+    private String lastError;
+    private long bytes;
+    private long firstByteTime;
+    private long duration;
 
     public int getStatus() {
         return status;
@@ -90,4 +96,67 @@ public class FileTransmission {
     public void setFormId(String formId) {
         this.formId = formId;
     }
+
+    /**
+     * Number of consecutive failed upload attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Earliest time, in millis, a failed transmission can be retried
+     */
+    public long getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(long nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    /**
+     * Bytes sent in the last upload attempt
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Time, in millis, until the first response of the last upload attempt
+     */
+    public long getFirstByteTime() {
+        return firstByteTime;
+    }
+
+    public void setFirstByteTime(long firstByteTime) {
+        this.firstByteTime = firstByteTime;
+    }
+
+    /**
+     * Duration, in millis, of the last upload attempt
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.akvo.flow.domain;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entry of the sync journal, recording a step whose outcome has not been committed yet:
+ * <ul>
+ * <li>{@link #STAGE_EXPORTED}: the zip of a survey instance has been written, but its
+ * transmissions are not queued yet. Holds the zip size and digest, and its media files.</li>
+ * <li>{@link #STAGE_UPLOADED}: a file has been uploaded, but the server has not been notified
+ * yet. Holds the notification to send.</li>
+ * </ul>
+ */
+public class JournalEntry {
+
+    public static final int STAGE_EXPORTED = 1;
+    public static final int STAGE_UPLOADED = 2;
+
+    private final String filename;
+    private final int stage;
+    private final long surveyInstanceId;
+    private final String formId;
+    private final long size;
+    private final String md5;
+    private final List<String> media;
+    private final String action;
+    private final String objectName;
+
+    public JournalEntry(@NonNull String filename, int stage, long surveyInstanceId,
+            @Nullable String formId, long size, @Nullable String md5,
+            @Nullable List<String> media, @Nullable String action,
+            @Nullable String objectName) {
+        this.filename = filename;
+        this.stage = stage;
+        this.surveyInstanceId = surveyInstanceId;
+        this.formId = formId;
+        this.size = size;
+        this.md5 = md5;
+        this.media = media != null ? media : Collections.<String>emptyList();
+        this.action = action;
+        this.objectName = objectName;
+    }
+
+    public static JournalEntry exported(@NonNull String zip, long surveyInstanceId,
+            @Nullable String formId, long size, @Nullable String md5,
+            @NonNull List<String> media) {
+        return new JournalEntry(zip, STAGE_EXPORTED, surveyInstanceId, formId, size, md5, media,
+                null, null);
+    }
+
+    public static JournalEntry uploaded(@NonNull FileTransmission transmission,
+            @NonNull ProcessingNotification notification) {
+        return new JournalEntry(transmission.getFileName(), STAGE_UPLOADED,
+                transmission.getRespondentId(), notification.getFormId(), 0, null, null,
+                notification.getAction(), notification.getFileName());
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public int getStage() {
+        return stage;
+    }
+
+    public long getSurveyInstanceId() {
+        return surveyInstanceId;
+    }
+
+    public String getFormId() {
+        return formId;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    @NonNull
+    public List<String> getMedia() {
+        return media;
+    }
+
+    /**
+     * @return the pending notification of an uploaded file
+     */
+    @NonNull
+    public ProcessingNotification getNotification() {
+        return new ProcessingNotification(formId, action, objectName);
+    }
+}
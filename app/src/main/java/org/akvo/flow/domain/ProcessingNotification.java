@@ -0,0 +1,47 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.domain;
+
+/**
+ * Notification sent to the server once a file has been uploaded, so it gets processed
+ */
+public class ProcessingNotification {
+    private final String formId;
+    private final String action;
+    private final String fileName;
+
+    public ProcessingNotification(String formId, String action, String fileName) {
+        this.formId = formId;
+        this.action = action;
+        this.fileName = fileName;
+    }
+
+    public String getFormId() {
+        return formId;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.domain;
+
+/**
+ * Figures of a single run of the data sync service, aggregated from its exports and
+ * transmissions. Rates are computed over the upload time only.
+ */
+public class SyncSession {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private long id;
+    private long start;
+    private int exported;
+    private int files;
+    private int failed;
+    private long bytes;
+    private long exportTime;
+    private long uploadTime;
+    private long notifyTime;
+
+    public SyncSession() {
+    }
+
+    public SyncSession(long start) {
+        this.start = start;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Start time of the session, in millis
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    /**
+     * Number of survey instances exported
+     */
+    public int getExported() {
+        return exported;
+    }
+
+    public void setExported(int exported) {
+        this.exported = exported;
+    }
+
+    /**
+     * Number of files whose upload was attempted
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    public void setFiles(int files) {
+        this.files = files;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public long getExportTime() {
+        return exportTime;
+    }
+
+    public void setExportTime(long exportTime) {
+        this.exportTime = exportTime;
+    }
+
+    public long getUploadTime() {
+        return uploadTime;
+    }
+
+    public void setUploadTime(long uploadTime) {
+        this.uploadTime = uploadTime;
+    }
+
+    public long getNotifyTime() {
+        return notifyTime;
+    }
+
+    public void setNotifyTime(long notifyTime) {
+        this.notifyTime = notifyTime;
+    }
+
+    /**
+     * @return true if the session did any work worth recording
+     */
+    public boolean isEmpty() {
+        return exported == 0 && files == 0;
+    }
+
+    public double getFilesPerSecond() {
+        return uploadTime > 0 ? files * 1000.0 / uploadTime : 0;
+    }
+
+    public double getMegabytesPerSecond() {
+        return uploadTime > 0 ? bytes / MEGABYTE * 1000.0 / uploadTime : 0;
+    }
+}
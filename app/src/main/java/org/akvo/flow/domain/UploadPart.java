@@ -0,0 +1,75 @@
+/*
+ *  Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.domain;
+
+/**
+ * Confirmed part of an S3 multipart upload
+ */
+public class UploadPart {
+    private final String uploadId;
+    private final int partNumber;
+    private final String etag;
+    private final int partSize;
+    private final long fileSize;
+    private final long fileModified;
+
+    public UploadPart(String uploadId, int partNumber, String etag, int partSize, long fileSize,
+            long fileModified) {
+        this.uploadId = uploadId;
+        this.partNumber = partNumber;
+        this.etag = etag;
+        this.partSize = partSize;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public int getPartNumber() {
+        return partNumber;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Size of every part of the upload but the last one
+     */
+    public int getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Length of the file when the upload was started
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Modification date of the file when the upload was started
+     */
+    public long getFileModified() {
+        return fileModified;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.serialization.response;
+
+import android.support.annotation.NonNull;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.akvo.flow.domain.response.FormInstance;
+import org.akvo.flow.domain.response.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming JSON serializer for form instances. Responses are written one at a time as they
+ * are read, so the memory needed does not depend on the size of the form. The output matches
+ * the serialization of a {@link FormInstance} with an ObjectMapper.
+ * Closing the writer completes the document, but leaves the target stream open, so it can
+ * write into a zip entry.
+ */
+public class FormInstanceWriter implements Closeable {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final JsonGenerator generator;
+    private boolean responsesStarted = false;
+
+    public FormInstanceWriter(@NonNull OutputStream out) throws IOException {
+        generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    /**
+     * Write the form instance attributes. Its responses, if any, are ignored.
+     */
+    public void writeHeader(@NonNull FormInstance formInstance) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("uuid", formInstance.getUUID());
+        generator.writeStringField("dataPointId", formInstance.getDataPointId());
+        generator.writeStringField("deviceId", formInstance.getDeviceId());
+        generator.writeStringField("username", formInstance.getUsername());
+        generator.writeStringField("email", formInstance.getEmail());
+        generator.writeStringField("formId", formInstance.getFormId());
+        generator.writeNumberField("submissionDate", formInstance.getSubmissionDate());
+        generator.writeNumberField("duration", formInstance.getDuration());
+    }
+
+    /**
+     * Start the responses array, so it is written even if no response follows. Otherwise,
+     * responses are null unless any is written.
+     */
+    public void startResponses() throws IOException {
+        if (!responsesStarted) {
+            generator.writeArrayFieldStart("responses");
+            responsesStarted = true;
+        }
+    }
+
+    public void writeResponse(@NonNull Response response) throws IOException {
+        startResponses();
+        generator.writeStartObject();
+        generator.writeStringField("questionId", response.getQuestionId());
+        generator.writeStringField("answerType", response.getAnswerType());
+        generator.writeStringField("value", response.getValue());
+        if (response.getIteration() != null) {
+            generator.writeNumberField("iteration", response.getIteration());
+        } else {
+            generator.writeNullField("iteration");
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Complete the document and flush it into the target stream, which is not closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (responsesStarted) {
+            generator.writeEndArray();
+        } else {
+            generator.writeNullField("responses");
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.serialization.response;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.util.ConstantUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for the surveyedlocale sync response. The JSON is read straight from the
+ * input stream, and every data point is handed to the {@link Callback} as soon as it has been
+ * read, so only one data point is held in memory at a time, whatever the size of the page.
+ * Data points missing any of their required attributes make the whole response invalid, and
+ * answers without a value are skipped. Null answers are skipped too, rather than stored as the
+ * "null" text. Unknown attributes are ignored.
+ * <p/>
+ * Servers paging by token send the cursor of the next page along with the data points, which is
+ * available through {@link #getPaging()} once the response has been read.
+ */
+public class SurveyedLocaleStreamParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private Paging paging = Paging.NONE;
+
+    /**
+     * Read the response, passing every data point to the callback, in order
+     *
+     * @return the number of data points read
+     * @throws JsonParseException if the response is not valid
+     * @throws IOException        if the stream could not be read
+     */
+    public int parse(@NonNull InputStream in, @NonNull Callback callback) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(in);
+        try {
+            int count = 0;
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            boolean found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (Attrs.CURSOR.equals(field)) {
+                    paging = new Paging(true, getString(parser, token));
+                    continue;
+                }
+                if (!Attrs.SURVEYED_LOCALE_DATA.equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                expect(parser, token, JsonToken.START_ARRAY);
+                found = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    callback.onSurveyedLocale(parseSurveyedLocale(parser));
+                    count++;
+                }
+            }
+            if (!found) {
+                throw new JsonParseException("No " + Attrs.SURVEYED_LOCALE_DATA
+                        + " found", parser.getCurrentLocation());
+            }
+            return count;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * @return the paging of the last response read
+     */
+    @NonNull
+    public Paging getPaging() {
+        return paging;
+    }
+
+    @NonNull
+    private SurveyedLocale parseSurveyedLocale(@NonNull JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+        String id = null, name = null;
+        Long lastModified = null, surveyGroupId = null;
+        Double latitude = null, longitude = null;
+        List<SurveyInstance> surveyInstances = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case Attrs.ID:
+                    id = getString(parser, token);
+                    break;
+                case Attrs.NAME:
+                    name = getString(parser, token);
+                    break;
+                case Attrs.LAST_MODIFIED:
+                    lastModified = getLong(parser, token);
+                    break;
+                case Attrs.SURVEY_GROUP_ID:
+                    surveyGroupId = getLong(parser, token);
+                    break;
+                case Attrs.LATITUDE:
+                    latitude = getDouble(parser, token);
+                    break;
+                case Attrs.LONGITUDE:
+                    longitude = getDouble(parser, token);
+                    break;
+                case Attrs.SURVEY_INSTANCES:
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    surveyInstances = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        surveyInstances.add(parseSurveyInstance(parser));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        require(parser, id, Attrs.ID);
+        require(parser, lastModified, Attrs.LAST_MODIFIED);
+        require(parser, surveyGroupId, Attrs.SURVEY_GROUP_ID);
+        require(parser, surveyInstances, Attrs.SURVEY_INSTANCES);
+
+        SurveyedLocale surveyedLocale = new SurveyedLocale(id, name, lastModified, surveyGroupId,
+                latitude, longitude);
+        surveyedLocale.setSurveyInstances(surveyInstances);
+        return surveyedLocale;
+    }
+
+    @NonNull
+    private SurveyInstance parseSurveyInstance(@NonNull JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+        String uuid = null, surveyId = null, submitter = "";
+        Long date = null;
+        List<QuestionResponse> responses = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case Attrs.UUID:
+                    uuid = getString(parser, token);
+                    break;
+                case Attrs.SURVEY_ID:
+                    surveyId = getString(parser, token);
+                    break;
+                case Attrs.DATE:
+                    date = getLong(parser, token);
+                    break;
+                case Attrs.SUBMITTER:
+                    String value = getString(parser, token);
+                    submitter = value != null ? value : "";
+                    break;
+                case Attrs.QUESTION_RESPONSE_LIST:
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    responses = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        QuestionResponse response = parseQuestionResponse(parser);
+                        if (response != null) {
+                            responses.add(response);
+                        }
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        require(parser, uuid, Attrs.UUID);
+        require(parser, surveyId, Attrs.SURVEY_ID);
+        require(parser, date, Attrs.DATE);
+        require(parser, responses, Attrs.QUESTION_RESPONSE_LIST);
+        return new SurveyInstance(uuid, surveyId, submitter, date, responses);
+    }
+
+    /**
+     * @return the response, or null if it has no question or value
+     */
+    @Nullable
+    private QuestionResponse parseQuestionResponse(@NonNull JsonParser parser)
+            throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        String value = null, questionId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case Attrs.ANSWER:
+                    value = getString(parser, token);
+                    break;
+                case Attrs.QUESTION_ID:
+                    questionId = getString(parser, token);
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        if (value == null || questionId == null) {
+            return null;
+        }
+        return new QuestionResponse(value, ConstantUtil.VALUE_RESPONSE_TYPE, questionId);
+    }
+
+    /**
+     * @return the scalar value as text, or null if the value is null. Structures are skipped.
+     */
+    @Nullable
+    private static String getString(@NonNull JsonParser parser, JsonToken token)
+            throws IOException {
+        if (token.isScalarValue()) {
+            return token == JsonToken.VALUE_NULL ? null : parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    @Nullable
+    private static Long getLong(@NonNull JsonParser parser, JsonToken token) throws IOException {
+        String value = getString(parser, token);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return token.isNumeric() ? parser.getLongValue() : Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Invalid number: " + value, parser.getCurrentLocation(),
+                    e);
+        }
+    }
+
+    @Nullable
+    private static Double getDouble(@NonNull JsonParser parser, JsonToken token)
+            throws IOException {
+        String value = getString(parser, token);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return token.isNumeric() ? parser.getDoubleValue() : Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Invalid number: " + value, parser.getCurrentLocation(),
+                    e);
+        }
+    }
+
+    private static void expect(@NonNull JsonParser parser, JsonToken token, JsonToken expected)
+            throws JsonParseException {
+        if (token != expected) {
+            throw new JsonParseException("Expected " + expected + " but found " + token,
+                    parser.getCurrentLocation());
+        }
+    }
+
+    private static void require(@NonNull JsonParser parser, Object value, String field)
+            throws JsonParseException {
+        if (value == null) {
+            throw new JsonParseException("Missing " + field, parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Paging token of a response. Servers paging by token always send the cursor attribute,
+     * which is null on the last page. Older ones page by modification time only.
+     */
+    public static class Paging {
+
+        public static final Paging NONE = new Paging(false, null);
+
+        private final boolean paged;
+        private final String cursor;
+
+        public Paging(boolean paged, @Nullable String cursor) {
+            this.paged = paged;
+            this.cursor = cursor != null && cursor.length() > 0 ? cursor : null;
+        }
+
+        /**
+         * @return whether the server pages by token
+         */
+        public boolean isPaged() {
+            return paged;
+        }
+
+        /**
+         * @return the token of the next page, or null if this is the last one
+         */
+        @Nullable
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    public interface Callback {
+
+        /**
+         * Called for every data point, as soon as it has been read. The data point is not
+         * referenced by the parser afterwards.
+         */
+        void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale) throws IOException;
+    }
+
+    interface Attrs {
+        // Main response
+        String SURVEYED_LOCALE_DATA = "surveyedLocaleData";
+        String CURSOR = "cursor";
+
+        // SurveyedLocale
+        String ID = "id";
+        String SURVEY_GROUP_ID = "surveyGroupId";
+        String NAME = "displayName";
+        String LATITUDE = "lat";
+        String LONGITUDE = "lon";
+        String SURVEY_INSTANCES = "surveyInstances";
+        String LAST_MODIFIED = "lastUpdateDateTime";
+
+        // SurveyInstance
+        String UUID = "uuid";
+        String DATE = "collectionDate";
+        String SURVEY_ID = "surveyId";
+        String QUESTION_RESPONSE_LIST = "qasList";
+        String SUBMITTER = "submitter";
+
+        // QuestionResponse
+        String QUESTION_ID = "q";
+        String ANSWER = "a";
+    }
+}
@@ -28,10 +28,9 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
 import android.util.Base64;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import org.akvo.flow.R;
 import org.akvo.flow.api.FlowApi;
+import org.akvo.flow.api.MultipartUploadStore;
 import org.akvo.flow.api.S3Api;
 import org.akvo.flow.data.database.ResponseColumns;
 import org.akvo.flow.data.database.SurveyDbAdapter;
@@ -41,32 +40,59 @@ import org.akvo.flow.data.database.TransmissionStatus;
 import org.akvo.flow.data.database.UserColumns;
 import org.akvo.flow.data.preference.Prefs;
 import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.JournalEntry;
+import org.akvo.flow.domain.SyncSession;
+import org.akvo.flow.domain.ProcessingNotification;
 import org.akvo.flow.domain.Survey;
+import org.akvo.flow.domain.UploadPart;
 import org.akvo.flow.domain.response.FormInstance;
 import org.akvo.flow.domain.response.Response;
 import org.akvo.flow.exception.HttpException;
+import org.akvo.flow.serialization.response.FormInstanceWriter;
+import org.akvo.flow.service.export.ExportWorkerPool;
+import org.akvo.flow.service.upload.BatchArchive;
+import org.akvo.flow.service.upload.LeaseKeeper;
+import org.akvo.flow.service.upload.MediaDeduplicator;
+import org.akvo.flow.service.upload.RetryBackoff;
+import org.akvo.flow.service.upload.UploadPreflight;
+import org.akvo.flow.service.upload.UploadPriority;
+import org.akvo.flow.service.upload.UploadResult;
+import org.akvo.flow.service.upload.UploadWorkerPool;
 import org.akvo.flow.util.ConnectivityStateManager;
 import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.FileDigestHelper;
 import org.akvo.flow.util.FileUtil;
 import org.akvo.flow.util.FileUtil.FileType;
+import org.akvo.flow.util.HttpClient;
+import org.akvo.flow.util.HttpMetrics;
+import org.akvo.flow.util.NetworkQuality;
 import org.akvo.flow.util.NotificationHelper;
 import org.akvo.flow.util.PropertyUtil;
 import org.akvo.flow.util.StringUtil;
+import org.akvo.flow.util.TransferStats;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.security.DigestOutputStream;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.Adler32;
 import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
@@ -93,6 +119,11 @@ import timber.log.Timber;
  */
 public class DataSyncService extends IntentService {
 
+    /**
+     * Only export the submitted survey instances, leaving the upload to the next sync window
+     */
+    public static final String EXTRA_EXPORT_ONLY = "export_only";
+
     private static final String TAG = "DataSyncService";
     private static final String DELIMITER = "\t";
     private static final String SPACE = "\u0020"; // safe from source whitespace reformatting
@@ -118,10 +149,25 @@ public class DataSyncService extends IntentService {
      */
     private static final int FILE_UPLOAD_RETRIES = 2;
 
+    /**
+     * Error recorded when S3 rejects an upload, i.e. on checksum mismatch
+     */
+    private static final String ERROR_UPLOAD_REJECTED = "UploadRejected";
+    private static final String ERROR_NOTIFICATION = "Notification";
+    private static final String ERROR_UNSUPPORTED_FILE = "UnsupportedFile";
+
+    /**
+     * Flag of the device notification response, set by servers able to unpack batch archives
+     */
+    private static final String CAPABILITY_BATCH_ARCHIVES = "batchArchives";
+
     private PropertyUtil mProps;
     private SurveyDbAdapter mDatabase;
     private Prefs preferences;
     private ConnectivityStateManager connectivityStateManager;
+    private final MultipartUploadStore mUploadPartStore = new DbMultipartUploadStore();
+    private final RetryBackoff mRetryBackoff = new RetryBackoff();
+    private boolean mBatchArchivesSupported = false;
 
     public DataSyncService() {
         super(TAG);
@@ -135,11 +181,22 @@ public class DataSyncService extends IntentService {
             mDatabase.open();
             preferences = new Prefs(getApplicationContext());
             connectivityStateManager = new ConnectivityStateManager(getApplicationContext());
-            exportSurveys();// Create zip files, if necessary
+            SyncSession session = new SyncSession(System.currentTimeMillis());
+            session.setExported(exportSurveys());// Create zip files, if necessary
+            session.setExportTime(System.currentTimeMillis() - session.getStart());
 
-            if (connectivityStateManager.isConnectionAvailable(preferences
+            final boolean exportOnly = intent != null
+                    && intent.getBooleanExtra(EXTRA_EXPORT_ONLY, false);
+            if (!exportOnly && connectivityStateManager.isConnectionAvailable(preferences
                     .getBoolean(Prefs.KEY_CELL_UPLOAD, Prefs.DEFAULT_VALUE_CELL_UPLOAD))) {
-                syncFiles();// Sync everything
+                HttpMetrics metrics = HttpClient.getInstance().getMetrics();
+                HttpMetrics start = metrics.snapshot();
+                syncFiles(session);// Sync everything
+                Timber.d("Sync HTTP requests: %s", metrics.since(start));
+                Timber.d("Network quality: %s", HttpClient.getInstance().getNetworkQuality());
+            }
+            if (!session.isEmpty()) {
+                mDatabase.saveSyncSession(session);
             }
         } catch (Exception e) {
             Timber.e(e, e.getMessage());
@@ -154,33 +211,125 @@ public class DataSyncService extends IntentService {
     // ============================ EXPORT ============================= //
     // ================================================================= //
 
-    private void exportSurveys() {
-        // First off, ensure surveys marked as 'exported' are indeed found in the external storage.
-        // Missing surveys will be set to 'submitted', so the next step re-creates these files too.
-        checkExportedFiles();
-
-        for (long id : getUnexportedSurveys()) {
-            try {
-                exportSurvey(id);
-             //if the zip creation fails for one survey, let it still attempt to create the others
-            } catch (Exception e) {
-                Timber.e(e, "Error creating zip file for %d", id);
+    /**
+     * Zip every submitted survey instance. The zip files are created concurrently on a bounded
+     * CPU pool, one instance per task, and the resulting transmissions and status changes are
+     * then committed in order.
+     *
+     * @return the number of exported survey instances
+     */
+    private int exportSurveys() {
+        long[] ids = getUnexportedSurveys();
+        if (ids.length == 0) {
+            return 0;
+        }
+        Set<Long> recovered = recoverExports(ids);
+        if (!recovered.isEmpty()) {
+            List<Long> remaining = new ArrayList<>();
+            for (long id : ids) {
+                if (!recovered.contains(id)) {
+                    remaining.add(id);
+                }
+            }
+            ids = new long[remaining.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = remaining.get(i);
+            }
+        }
+        if (ids.length == 0) {
+            notifyDataSync();
+            return recovered.size();
+        }
+        ExportWorkerPool workerPool = new ExportWorkerPool();
+        Timber.d("Exporting %d survey instances with %d workers", ids.length,
+                workerPool.getWorkers());
+        List<ZipFileData> exports = workerPool.export(ids,
+                new ExportWorkerPool.SurveyInstanceExporter<ZipFileData>() {
+                    @Override
+                    public ZipFileData export(long surveyInstanceId) {
+                        return formZip(surveyInstanceId);
+                    }
+                });
+
+        List<Long> exported = new ArrayList<>(recovered);
+        for (int i = 0; i < ids.length; i++) {
+            ZipFileData zipFileData = exports.get(i);
+            if (zipFileData != null) {
+                commitExport(ids[i], zipFileData, true);
+                exported.add(ids[i]);
             }
         }
+        mDatabase.updateSurveyStatus(exported, SurveyInstanceStatus.EXPORTED);
+        notifyDataSync();
+        return exported.size();
     }
 
-    private void exportSurvey(long id) {
-        ZipFileData zipFileData = formZip(id);
-
-        if (zipFileData != null) {
-            // Create new entries in the transmission queue
-            mDatabase.createTransmission(id, zipFileData.formId, zipFileData.filename);
-            updateSurveyStatus(id, SurveyInstanceStatus.EXPORTED);
+    /**
+     * Record the exported zip, and queue its transmissions. The journal entry of the export is
+     * no longer needed afterwards.
+     *
+     * @param journal whether the export must be journaled first, so a crash halfway through the
+     *                commit does not throw the zip away. Recovered exports are already journaled.
+     */
+    private void commitExport(long surveyInstanceId, @NonNull ZipFileData zipFileData,
+            boolean journal) {
+        File zip = new File(zipFileData.filename);
+        if (journal) {
+            mDatabase.saveJournalEntry(JournalEntry.exported(zipFileData.filename,
+                    surveyInstanceId, zipFileData.formId, zip.length(),
+                    FileUtil.hexMd5(zipFileData.md5), zipFileData.imagePaths));
+        }
+        new FileDigestHelper(this).saveMd5(zip, zipFileData.md5);
+        mDatabase.saveExportedFile(surveyInstanceId, zipFileData.filename, zip.length(),
+                FileUtil.hexMd5(zipFileData.md5), zip.lastModified());
+        // Create new entries in the transmission queue
+        List<String> files = new ArrayList<>();
+        files.add(zipFileData.filename);
+        files.addAll(zipFileData.imagePaths);
+        mDatabase.createTransmissions(surveyInstanceId, zipFileData.formId, files);
+        mDatabase.deleteJournalEntries(Collections.singletonList(zipFileData.filename));
+    }
 
-            for (String image : zipFileData.imagePaths) {
-                mDatabase.createTransmission(id, zipFileData.formId, image);
+    /**
+     * Commit the zip files a previous pass wrote, but could not commit before it was killed.
+     * Only the zips of instances still waiting for export, and with the journaled size, are
+     * recovered. Any other entry is stale, and discarded.
+     *
+     * @param ids IDs of the submitted survey instances
+     * @return the IDs of the survey instances whose export has been recovered
+     */
+    @NonNull
+    private Set<Long> recoverExports(@NonNull long[] ids) {
+        Set<Long> recovered = new HashSet<>();
+        Map<String, JournalEntry> journal = mDatabase
+                .getJournalEntries(JournalEntry.STAGE_EXPORTED);
+        if (journal.isEmpty()) {
+            return recovered;
+        }
+        Set<Long> submitted = new HashSet<>();
+        for (long id : ids) {
+            submitted.add(id);
+        }
+        List<String> stale = new ArrayList<>();
+        for (JournalEntry entry : journal.values()) {
+            File zip = new File(entry.getFilename());
+            long id = entry.getSurveyInstanceId();
+            if (!submitted.contains(id) || recovered.contains(id) || entry.getMd5() == null
+                    || zip.length() != entry.getSize()) {
+                stale.add(entry.getFilename());
+                continue;
             }
+            ZipFileData zipFileData = new ZipFileData();
+            zipFileData.filename = entry.getFilename();
+            zipFileData.formId = entry.getFormId();
+            zipFileData.md5 = FileUtil.hexToBytes(entry.getMd5());
+            zipFileData.imagePaths.addAll(entry.getMedia());
+            commitExport(id, zipFileData, false);
+            recovered.add(id);
         }
+        mDatabase.deleteJournalEntries(stale);
+        Timber.d("Recovered %d interrupted exports", recovered.size());
+        return recovered;
     }
 
     @NonNull
@@ -188,24 +337,44 @@ public class DataSyncService extends IntentService {
         return new File(FileUtil.getFilesDir(FileType.DATA), uuid + ConstantUtil.ARCHIVE_SUFFIX);
     }
 
-    private void checkExportedFiles() {
-        Cursor cursor = mDatabase.getSurveyInstancesByStatus(SurveyInstanceStatus.EXPORTED);
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                do {
-                    long id = cursor
-                            .getLong(cursor.getColumnIndexOrThrow(SurveyInstanceColumns._ID));
-                    String uuid = cursor
-                            .getString(cursor.getColumnIndexOrThrow(SurveyInstanceColumns.UUID));
-                    if (!getSurveyInstanceFile(uuid).exists()) {
-                        Timber.d("Exported file for survey %s not found. It's status " +
-                                "will be set to 'submitted', and will be reprocessed", uuid);
-                        updateSurveyStatus(id, SurveyInstanceStatus.SUBMITTED);
-                    }
-                } while (cursor.moveToNext());
+    /**
+     * Verify the exported zips about to be uploaded against the export manifest. This is done
+     * lazily, only for the pending uploads, so the cost of a sync does not grow with the
+     * export history. Zips exported before the manifest existed are only checked by name.
+     * Survey instances whose zip is missing or truncated are set back to 'submitted', so they
+     * are exported again, and none of their files are uploaded in this pass. Their
+     * transmissions are deleted, as the new export queues them again.
+     *
+     * @return the IDs of the survey instances to export again
+     */
+    @NonNull
+    private Set<Long> verifyExports(@NonNull List<FileTransmission> transmissions) {
+        Set<Long> invalid = new HashSet<>();
+        for (FileTransmission transmission : transmissions) {
+            String filename = transmission.getFileName();
+            if (filename == null || !filename.endsWith(ConstantUtil.ARCHIVE_SUFFIX)) {
+                continue;
+            }
+            File file = new File(filename);
+            long size = mDatabase.getExportedFileSize(filename);
+            if (size < 0 ? !file.exists() : file.length() != size) {
+                Timber.d("Exported file %s not found or incomplete. Its survey instance will " +
+                        "be set to 'submitted', and will be reprocessed", file.getName());
+                mDatabase.deleteExportedFile(filename);
+                invalid.add(transmission.getRespondentId());
             }
-            cursor.close();
         }
+
+        if (!invalid.isEmpty()) {
+            Iterator<FileTransmission> iterator = transmissions.iterator();
+            while (iterator.hasNext()) {
+                if (invalid.contains(iterator.next().getRespondentId())) {
+                    iterator.remove();
+                }
+            }
+            mDatabase.resetExports(invalid);
+        }
+        return invalid;
     }
 
     @NonNull
@@ -225,17 +394,20 @@ public class DataSyncService extends IntentService {
         return surveyInstanceIds;
     }
 
+    /**
+     * Export the survey instance into a zip file. The JSON data is streamed from the responses
+     * cursor straight into the zip entry, computing the SHA1 digest for the signature in the
+     * same pass, so the memory needed does not depend on the size of the form.
+     * Called concurrently from the export workers: it must not write to the database.
+     */
     private ZipFileData formZip(long surveyInstanceId) {
+        Cursor data = mDatabase.getResponsesData(surveyInstanceId);
+        ZipOutputStream zos = null;
         try {
             ZipFileData zipFileData = new ZipFileData();
-            // Process form instance data and collect image filenames
-            FormInstance formInstance = processFormInstance(surveyInstanceId,
-                    zipFileData.imagePaths);
-
-            // Serialize form instance as JSON
-            zipFileData.data = new ObjectMapper().writeValueAsString(formInstance);
-            zipFileData.uuid = formInstance.getUUID();
-            zipFileData.formId = formInstance.getFormId();
+            FormInstance header = readFormInstanceHeader(data);
+            zipFileData.uuid = header.getUUID();
+            zipFileData.formId = header.getFormId();
             if (TextUtils.isEmpty(zipFileData.formId)) {
                 NullPointerException exception = new NullPointerException(" formId is null");
                 Timber.e(exception);
@@ -258,31 +430,51 @@ public class DataSyncService extends IntentService {
             zipFileData.filename = fileName;
             Timber.i("Creating zip file: " + fileName);
             FileOutputStream fout = new FileOutputStream(zipFile);
-            CheckedOutputStream checkedOutStream = new CheckedOutputStream(fout, new Adler32());
-            ZipOutputStream zos = new ZipOutputStream(checkedOutStream);
+            // Compute the MD5 of the archive while writing it, so the upload can reuse it
+            DigestOutputStream digestOutStream = new DigestOutputStream(fout,
+                    FileDigestHelper.newMd5Digest());
+            CheckedOutputStream checkedOutStream = new CheckedOutputStream(digestOutStream,
+                    new Adler32());
+            zos = new ZipOutputStream(checkedOutStream);
 
-            writeTextToZip(zos, zipFileData.data, SURVEY_DATA_FILE_JSON);
             String signingKeyString = mProps.getProperty(SIGNING_KEY_PROP);
-            if (!StringUtil.isNullOrEmpty(signingKeyString)) {
-                MessageDigest sha1Digest = MessageDigest.getInstance("SHA1");
-                byte[] digest = sha1Digest.digest(zipFileData.data.getBytes(UTF_8_CHARSET));
+            final boolean sign = !StringUtil.isNullOrEmpty(signingKeyString);
+            MessageDigest sha1Digest = sign ? MessageDigest.getInstance("SHA1") : null;
+
+            Timber.i("Writing zip entry");
+            zos.putNextEntry(new ZipEntry(SURVEY_DATA_FILE_JSON));
+            FormInstanceWriter writer = new FormInstanceWriter(sign ?
+                    new DigestOutputStream(zos, sha1Digest) : zos);
+            writer.writeHeader(header);
+            writeResponses(data, writer, zipFileData.imagePaths);
+            writer.close();
+            zos.closeEntry();
+            Timber.i("Entry Complete");
+
+            if (sign) {
                 SecretKeySpec signingKey = new SecretKeySpec(
                         signingKeyString.getBytes(UTF_8_CHARSET),
                         SIGNING_ALGORITHM);
                 Mac mac = Mac.getInstance(SIGNING_ALGORITHM);
                 mac.init(signingKey);
-                byte[] hmac = mac.doFinal(digest);
+                byte[] hmac = mac.doFinal(sha1Digest.digest());
                 String encodedHmac = Base64.encodeToString(hmac, Base64.DEFAULT);
                 writeTextToZip(zos, encodedHmac, SIG_FILE_NAME);
             }
 
             final String checksum = "" + checkedOutStream.getChecksum().getValue();
             zos.close();
+            zipFileData.md5 = digestOutStream.getMessageDigest().digest();
             Timber.i("Closed zip output stream for file: " + fileName + ". Checksum: " + checksum);
             return zipFileData;
         } catch (@NonNull IOException | NoSuchAlgorithmException | InvalidKeyException e) {
             Timber.e(e, e.getMessage());
             return null;
+        } finally {
+            FileUtil.close(zos);
+            if (data != null) {
+                data.close();
+            }
         }
     }
 
@@ -301,98 +493,112 @@ public class DataSyncService extends IntentService {
     }
 
     /**
-     * Iterate over the survey data returned from the database and populate the
-     * ZipFileData information, setting the UUID, Survey ID, image paths, and String data.
+     * Read the form instance attributes from the first answered row of the responses cursor.
+     * If there is none, the attributes are left empty.
      */
     @NonNull
-    private FormInstance processFormInstance(long surveyInstanceId,
-            @NonNull List<String> imagePaths) {
+    private FormInstance readFormInstanceHeader(@Nullable Cursor data) {
         FormInstance formInstance = new FormInstance();
-        List<Response> responses = new ArrayList<>();
-        Cursor data = mDatabase.getResponsesData(surveyInstanceId);
+        if (data == null || !data.moveToFirst()) {
+            return formInstance;
+        }
+        int answer_col = data.getColumnIndexOrThrow(ResponseColumns.ANSWER);
+        while (sanitizeAnswer(data.getString(answer_col)) == null) {
+            if (!data.moveToNext()) {
+                return formInstance;
+            }
+        }
 
-        if (data != null && data.moveToFirst()) {
-            String deviceIdentifier = preferences
-                    .getString(Prefs.KEY_DEVICE_IDENTIFIER, Prefs.DEFAULT_VALUE_DEVICE_IDENTIFIER);
-            deviceIdentifier = cleanVal(deviceIdentifier);
-            // evaluate indices once, outside the loop
-            int survey_fk_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.SURVEY_ID);
-            int question_fk_col = data.getColumnIndexOrThrow(ResponseColumns.QUESTION_ID);
-            int answer_type_col = data.getColumnIndexOrThrow(ResponseColumns.TYPE);
-            int answer_col = data.getColumnIndexOrThrow(ResponseColumns.ANSWER);
-            int filename_col = data.getColumnIndexOrThrow(ResponseColumns.FILENAME);
-            int disp_name_col = data.getColumnIndexOrThrow(UserColumns.NAME);
-            int email_col = data.getColumnIndexOrThrow(UserColumns.EMAIL);
-            int submitted_date_col = data
-                    .getColumnIndexOrThrow(SurveyInstanceColumns.SUBMITTED_DATE);
-            int uuid_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.UUID);
-            int duration_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.DURATION);
-            int localeId_col = data.getColumnIndexOrThrow(SurveyInstanceColumns.RECORD_ID);
-            // Note: No need to query the surveyInstanceId, we already have that value
-
-            do {
-                // Sanitize answer value. No newlines or tabs!
-                String value = data.getString(answer_col);
-                if (value != null) {
-                    value = value.replace("\n", SPACE);
-                    value = value.replace(DELIMITER, SPACE);
-                    value = value.trim();
-                }
-                // never send empty answers
-                if (value == null || value.length() == 0) {
-                    continue;
-                }
-                final long submitted_date = data.getLong(submitted_date_col);
-                final long surveyal_time = (data.getLong(duration_col)) / 1000;
-
-                if (formInstance.getUUID() == null) {
-                    formInstance.setUUID(data.getString(uuid_col));
-                    formInstance.setFormId(data.getString(survey_fk_col));
-                    formInstance.setDataPointId(data.getString(localeId_col));
-                    formInstance.setDeviceId(deviceIdentifier);
-                    formInstance.setSubmissionDate(submitted_date);
-                    formInstance.setDuration(surveyal_time);
-                    formInstance.setUsername(cleanVal(data.getString(disp_name_col)));
-                    formInstance.setEmail(cleanVal(data.getString(email_col)));
-                }
+        String deviceIdentifier = preferences
+                .getString(Prefs.KEY_DEVICE_IDENTIFIER, Prefs.DEFAULT_VALUE_DEVICE_IDENTIFIER);
+        formInstance.setUUID(
+                data.getString(data.getColumnIndexOrThrow(SurveyInstanceColumns.UUID)));
+        formInstance.setFormId(
+                data.getString(data.getColumnIndexOrThrow(SurveyInstanceColumns.SURVEY_ID)));
+        formInstance.setDataPointId(data.getString(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.RECORD_ID)));
+        formInstance.setDeviceId(cleanVal(deviceIdentifier));
+        formInstance.setSubmissionDate(data.getLong(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.SUBMITTED_DATE)));
+        formInstance.setDuration(data.getLong(
+                data.getColumnIndexOrThrow(SurveyInstanceColumns.DURATION)) / 1000);
+        formInstance.setUsername(
+                cleanVal(data.getString(data.getColumnIndexOrThrow(UserColumns.NAME))));
+        formInstance.setEmail(
+                cleanVal(data.getString(data.getColumnIndexOrThrow(UserColumns.EMAIL))));
+        return formInstance;
+    }
 
-                // If the response has any file attached, enqueue it to the image list
-                String filename = data.getString(filename_col);
-                if (!TextUtils.isEmpty(filename)) {
-                    imagePaths.add(filename);
-                }
+    /**
+     * Iterate over the survey data returned from the database, writing every answered
+     * response, and collecting the image paths. Rows are processed one at a time, reusing
+     * the same Response object.
+     */
+    private void writeResponses(@Nullable Cursor data, @NonNull FormInstanceWriter writer,
+            @NonNull List<String> imagePaths) throws IOException {
+        if (data == null || !data.moveToFirst()) {
+            return;
+        }
+        // Forms with rows send their answers, even if none is left
+        writer.startResponses();
+        // evaluate indices once, outside the loop
+        int question_fk_col = data.getColumnIndexOrThrow(ResponseColumns.QUESTION_ID);
+        int answer_type_col = data.getColumnIndexOrThrow(ResponseColumns.TYPE);
+        int answer_col = data.getColumnIndexOrThrow(ResponseColumns.ANSWER);
+        int filename_col = data.getColumnIndexOrThrow(ResponseColumns.FILENAME);
+
+        Response response = new Response();
+        do {
+            String value = sanitizeAnswer(data.getString(answer_col));
+            // never send empty answers
+            if (value == null) {
+                continue;
+            }
 
-                // Ensure backwards compatibility. Old image responses may contain filenames
-                String type = data.getString(answer_type_col);
-                if (ConstantUtil.IMAGE_RESPONSE_TYPE.equals(type)
-                        || ConstantUtil.VIDEO_RESPONSE_TYPE.equals(type)) {
-                    if (!TextUtils.isEmpty(value) && new File(value).exists()) {
-                        imagePaths.add(value);
-                    }
-                }
+            // If the response has any file attached, enqueue it to the image list
+            String filename = data.getString(filename_col);
+            if (!TextUtils.isEmpty(filename)) {
+                imagePaths.add(filename);
+            }
 
-                int iteration = 0;
-                String qid = data.getString(question_fk_col);
-                String[] tokens = qid.split("\\|", -1);
-                if (tokens.length == 2) {
-                    // This is a compound ID from a repeatable question
-                    qid = tokens[0];
-                    iteration = Integer.parseInt(tokens[1]);
+            // Ensure backwards compatibility. Old image responses may contain filenames
+            String type = data.getString(answer_type_col);
+            if (ConstantUtil.IMAGE_RESPONSE_TYPE.equals(type)
+                    || ConstantUtil.VIDEO_RESPONSE_TYPE.equals(type)) {
+                if (!TextUtils.isEmpty(value) && new File(value).exists()) {
+                    imagePaths.add(value);
                 }
+            }
 
-                Response response = new Response();
-                response.setQuestionId(qid);
-                response.setAnswerType(type);
-                response.setValue(value);
-                response.setIteration(iteration);
-                responses.add(response);
-            } while (data.moveToNext());
+            int iteration = 0;
+            String qid = data.getString(question_fk_col);
+            String[] tokens = qid.split("\\|", -1);
+            if (tokens.length == 2) {
+                // This is a compound ID from a repeatable question
+                qid = tokens[0];
+                iteration = Integer.parseInt(tokens[1]);
+            }
 
-            formInstance.setResponses(responses);
-            data.close();
-        }
+            response.setQuestionId(qid);
+            response.setAnswerType(type);
+            response.setValue(value);
+            response.setIteration(iteration);
+            writer.writeResponse(response);
+        } while (data.moveToNext());
+    }
 
-        return formInstance;
+    /**
+     * Sanitize answer value. No newlines or tabs!
+     *
+     * @return the sanitized value, or null if the answer is empty
+     */
+    @Nullable
+    private String sanitizeAnswer(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.replace("\n", SPACE).replace(DELIMITER, SPACE).trim();
+        return value.length() > 0 ? value : null;
     }
 
     // replace troublesome chars in user-provided values
@@ -422,53 +628,381 @@ public class DataSyncService extends IntentService {
      * - Queued transmissions
      * - Failed transmissions
      * Each transmission will be retried up to three times. If the transmission does
-     * not succeed in those attempts, it will be marked as failed, and retried in the next sync.
+     * not succeed in those attempts, it will be marked as failed, and retried in a later sync,
+     * once its exponential backoff has expired. Transmissions still backing off are skipped.
      * Files are uploaded to S3 and the response's ETag is compared against a locally computed
      * MD5 checksum. Only if these fields match the transmission will be considered successful.
+     * Files are uploaded in {@link UploadPriority} order, form data first.
+     * Uploads run concurrently on a bounded worker pool, each worker recording the outcome of
+     * its own transmission. Uploaded files are then announced to the server in a single batch
+     * notification. The bookkeeping is written in a few transactions: all transmissions are
+     * claimed upfront, their outcomes are stored at once when the pass is done, and so are the
+     * survey instance statuses.
+     * Transmissions are claimed under a lease, kept alive while the pass runs. Those left
+     * IN PROGRESS by a pass that died are reclaimed once their lease expires. Uploads are
+     * journaled until their notification is sent, so a reclaimed transmission that had already
+     * been uploaded is only notified.
+     * If the server supports batch archives, the form data of several instances of a form is
+     * packed in a single {@link BatchArchive}, uploaded and announced once for all of them.
+     * Transfer metrics are recorded per transmission, and aggregated in the given session.
      */
-    private void syncFiles() {
+    private void syncFiles(@NonNull SyncSession session) {
         // Check notifications for this device. This will update the status of the transmissions
         // if necessary, or mark form as deleted.
         checkDeviceNotifications();
 
-        List<FileTransmission> transmissions = mDatabase.getUnsyncedTransmissions();
-
+        // Temporarily set the status to 'IN PROGRESS'. Transmission status should
+        // *always* be updated with the outcome of the upload operation.
+        LeaseKeeper leaseKeeper = new LeaseKeeper(UUID.randomUUID().toString(),
+                new LeaseKeeper.Renewer() {
+                    @Override
+                    public int renew(@NonNull String owner, long expiry) {
+                        return mDatabase.renewTransmissionLeases(owner, expiry);
+                    }
+                });
+        List<FileTransmission> transmissions = mDatabase.acquireTransmissions(
+                leaseKeeper.getOwner(), System.currentTimeMillis(),
+                leaseKeeper.getLeaseDuration());
+
+        // Instances of invalid exports are exported again, replacing their transmissions
+        if (!verifyExports(transmissions).isEmpty()) {
+            notifyDataSync();
+        }
         if (transmissions.isEmpty()) {
             return;
         }
+        leaseKeeper.start();
+        try {
+            uploadFiles(transmissions, leaseKeeper.getOwner(), session);
+        } finally {
+            leaseKeeper.stop();
+        }
+    }
 
-        Set<Long> syncedSurveys = new HashSet<>();// Successful transmissions
-        Set<Long> unsyncedSurveys = new HashSet<>();// Unsuccessful transmissions
+    private void uploadFiles(@NonNull List<FileTransmission> transmissions,
+            @NonNull String owner, @NonNull SyncSession session) {
+        // Form data first, so large media files do not delay the submissions
+        new UploadPriority().sort(transmissions);
+
+        // Fewer concurrent uploads on slow links, where they would only compete for bandwidth
+        NetworkQuality networkQuality = HttpClient.getInstance().getNetworkQuality();
+        UploadWorkerPool workerPool = new UploadWorkerPool(networkQuality.getUploadWorkers(
+                preferences.getInt(Prefs.KEY_UPLOAD_WORKERS, Prefs.DEFAULT_VALUE_UPLOAD_WORKERS)));
+        Timber.d("Uploading %d files with %d workers. Network quality: %s", transmissions.size(),
+                workerPool.getWorkers(), networkQuality);
+
+        final long uploadStart = System.currentTimeMillis();
+
+        // Uploaded files, along with the transmissions each of them includes
+        final Map<String, List<FileTransmission>> uploaded = new ConcurrentHashMap<>();
+        final List<ProcessingNotification> notifications = Collections
+                .synchronizedList(new ArrayList<ProcessingNotification>());
+
+        List<FileTransmission> pending = new ArrayList<>(transmissions);
+        List<FileTransmission> resumed = resumeUploads(pending, uploaded, notifications);
+        List<BatchArchive> batches = Collections.emptyList();
+        if (mBatchArchivesSupported) {
+            batches = BatchArchive.pack(pending, FileUtil.getFilesDir(FileType.TMP));
+        }
+        // Batches hold form data only, so they go first
+        Map<Long, Boolean> batchedInstances = new HashMap<>();
+        for (BatchArchive batch : batches) {
+            Timber.d("Uploading batch archive %s", batch);
+            HttpClient.getInstance().beginTransfer();
+            ProcessingNotification notification = uploadBatch(batch);
+            TransferStats stats = HttpClient.getInstance().endTransfer();
+            if (notification != null) {
+                journalUploads(batch.getTransmissions(), notification);
+                uploaded.put(notification.getFileName(), batch.getTransmissions());
+                notifications.add(notification);
+            }
+            // Members share the transfer. Their bytes add up to the archive size.
+            final int members = batch.getTransmissions().size();
+            for (FileTransmission transmission : batch.getTransmissions()) {
+                batchedInstances.put(transmission.getRespondentId(), notification != null);
+                transmission.setBytes(stats.getBytes() / members);
+                transmission.setFirstByteTime(stats.getFirstByteTime());
+                transmission.setDuration(stats.getDuration());
+            }
+        }
 
-        final int totalFiles = transmissions.size();
+        // Media with the same content is uploaded once. Its duplicates are resolved afterwards.
+        final FileDigestHelper digestHelper = new FileDigestHelper(this);
+        final Map<FileTransmission, List<FileTransmission>> duplicates = new MediaDeduplicator(
+                new MediaDeduplicator.DigestSource() {
+                    @Override
+                    public String getDigest(@NonNull File file) {
+                        return digestHelper.getHexMd5(file);
+                    }
+                }).deduplicate(pending);
+        final Map<FileTransmission, Boolean> resolvedDuplicates = new ConcurrentHashMap<>();
+
+        // Files already in S3 are not uploaded again. Checks run ahead of the uploads.
+        final UploadPreflight preflight = preferences.getBoolean(Prefs.KEY_UPLOAD_PREFLIGHT,
+                Prefs.DEFAULT_VALUE_UPLOAD_PREFLIGHT) ? startPreflight(pending, digestHelper)
+                : null;
+
+        UploadResult result = workerPool.upload(pending,
+                new UploadWorkerPool.FileUploader() {
+                    @Override
+                    public boolean upload(@NonNull FileTransmission transmission) {
+                        HttpClient.getInstance().beginTransfer();
+                        ProcessingNotification notification = uploadFile(transmission,
+                                preflight);
+                        recordTransfer(transmission);
+                        List<FileTransmission> references = duplicates.get(transmission);
+                        if (notification == null) {
+                            if (references != null) {
+                                for (FileTransmission reference : references) {
+                                    onFileFailed(reference, transmission.getLastError());
+                                    resolvedDuplicates.put(reference, false);
+                                }
+                            }
+                            return false;
+                        }
 
-        for (int i = 0; i < totalFiles; i++) {
-            FileTransmission transmission = transmissions.get(i);
-            final long surveyInstanceId = transmission.getRespondentId();
-            if (syncFile(transmission.getFileName(), transmission.getFormId()
-            )) {
-                syncedSurveys.add(surveyInstanceId);
-            } else {
-                unsyncedSurveys.add(surveyInstanceId);
+                        // Files named alike are announced once, for all their transmissions
+                        Map<String, List<FileTransmission>> files = new HashMap<>();
+                        Map<String, ProcessingNotification> fileNotifications = new HashMap<>();
+                        files.put(notification.getFileName(),
+                                new ArrayList<>(Collections.singletonList(transmission)));
+                        fileNotifications.put(notification.getFileName(), notification);
+                        if (references != null) {
+                            for (FileTransmission reference : references) {
+                                HttpClient.getInstance().beginTransfer();
+                                ProcessingNotification referenceNotification =
+                                        uploadReference(reference, notification);
+                                recordTransfer(reference);
+                                resolvedDuplicates.put(reference, referenceNotification != null);
+                                if (referenceNotification == null) {
+                                    continue;
+                                }
+                                String name = referenceNotification.getFileName();
+                                if (!files.containsKey(name)) {
+                                    files.put(name, new ArrayList<FileTransmission>());
+                                    fileNotifications.put(name, referenceNotification);
+                                }
+                                files.get(name).add(reference);
+                            }
+                        }
+                        for (Map.Entry<String, List<FileTransmission>> file : files.entrySet()) {
+                            journalUploads(file.getValue(), fileNotifications.get(file.getKey()));
+                        }
+                        uploaded.putAll(files);
+                        notifications.addAll(fileNotifications.values());
+                        return true;
+                    }
+                });
+        if (preflight != null) {
+            preflight.shutdown();
+        }
+        for (FileTransmission transmission : resumed) {
+            result.add(transmission.getRespondentId(), true);
+        }
+        for (Map.Entry<Long, Boolean> instance : batchedInstances.entrySet()) {
+            result.add(instance.getKey(), instance.getValue());
+        }
+        for (List<FileTransmission> references : duplicates.values()) {
+            for (FileTransmission reference : references) {
+                // References of blobs the pass did not get to are not synced either
+                Boolean synced = resolvedDuplicates.get(reference);
+                result.add(reference.getRespondentId(), synced != null && synced);
+            }
+        }
+
+        final long notifyStart = System.currentTimeMillis();
+        session.setUploadTime(notifyStart - uploadStart);
+
+        // Announce all the uploaded files to the server at once
+        if (!notifications.isEmpty()) {
+            Map<String, Integer> notificationResults = new FlowApi(getApplicationContext())
+                    .sendProcessingNotifications(notifications);
+            for (ProcessingNotification notification : notifications) {
+                Integer code = notificationResults.get(notification.getFileName());
+                for (FileTransmission transmission : uploaded.get(notification.getFileName())) {
+                    if (!onFileNotified(transmission, code != null ? code : -1)) {
+                        result.addFailure(transmission.getRespondentId());
+                    }
+                }
+            }
+        }
+        session.setNotifyTime(System.currentTimeMillis() - notifyStart);
+        for (BatchArchive batch : batches) {
+            // Archives are packed again next time, so unfinished uploads cannot be resumed
+            batch.delete();
+            abortUpload(ConstantUtil.S3_DATA_DIR, batch.getFile());
+        }
+
+        // Store the outcome of every finished transmission. Interrupted ones stay IN PROGRESS.
+        List<FileTransmission> finished = new ArrayList<>();
+        int failed = 0;
+        long bytes = 0;
+        for (FileTransmission transmission : transmissions) {
+            if (transmission.getStatus() != TransmissionStatus.IN_PROGRESS) {
+                finished.add(transmission);
+            }
+            if (transmission.getStatus() == TransmissionStatus.FAILED) {
+                failed++;
+            }
+            bytes += transmission.getBytes();
+        }
+        session.setFiles(transmissions.size());
+        session.setFailed(failed);
+        session.setBytes(bytes);
+        mDatabase.updateTransmissions(finished, owner);
+        completeJournal(finished);
+
+        // Only survey instances with all their files uploaded are marked as SYNCED, and the
+        // unsynced ones are ensured to be just EXPORTED. Files this pass did not take, such as
+        // those waiting for a retry or leased by another pass, count as well.
+        Set<Long> syncedInstances = result.getInstances();
+        Set<Long> unsyncedInstances = mDatabase.getUnsyncedInstances(syncedInstances);
+        syncedInstances.removeAll(unsyncedInstances);
+        mDatabase.updateSurveyStatus(syncedInstances, SurveyInstanceStatus.SYNCED);
+        mDatabase.updateSurveyStatus(unsyncedInstances, SurveyInstanceStatus.EXPORTED);
+        Timber.d("Stored the outcome of %d transmissions and %d survey instances",
+                finished.size(), syncedInstances.size() + unsyncedInstances.size());
+        notifyDataSync();
+    }
+
+    /**
+     * Store the figures of the transfer the calling thread has just finished in the given
+     * transmission
+     */
+    private void recordTransfer(@NonNull FileTransmission transmission) {
+        TransferStats stats = HttpClient.getInstance().endTransfer();
+        transmission.setBytes(stats.getBytes());
+        transmission.setFirstByteTime(stats.getFirstByteTime());
+        transmission.setDuration(stats.getDuration());
+    }
+
+    /**
+     * Take the transmissions a previous pass uploaded, but could not notify, out of the pending
+     * list. Their files are already in S3, so they only need to be announced.
+     *
+     * @return the resumed transmissions
+     */
+    @NonNull
+    private List<FileTransmission> resumeUploads(@NonNull List<FileTransmission> pending,
+            @NonNull Map<String, List<FileTransmission>> uploaded,
+            @NonNull List<ProcessingNotification> notifications) {
+        List<FileTransmission> resumed = new ArrayList<>();
+        Map<String, JournalEntry> journal = mDatabase
+                .getJournalEntries(JournalEntry.STAGE_UPLOADED);
+        if (journal.isEmpty()) {
+            return resumed;
+        }
+        Iterator<FileTransmission> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            FileTransmission transmission = iterator.next();
+            JournalEntry entry = journal.get(transmission.getFileName());
+            if (entry == null) {
+                continue;
+            }
+            ProcessingNotification notification = entry.getNotification();
+            String name = notification.getFileName();
+            if (!uploaded.containsKey(name)) {
+                uploaded.put(name, new ArrayList<FileTransmission>());
+                notifications.add(notification);
             }
+            uploaded.get(name).add(transmission);
+            resumed.add(transmission);
+            iterator.remove();
         }
+        Timber.d("Resuming %d uploaded files", resumed.size());
+        return resumed;
+    }
 
-        // Retain successful survey instances, to mark them as SYNCED
-        syncedSurveys.removeAll(unsyncedSurveys);
+    /**
+     * Record that the files of the given transmissions are in S3, until the server is notified
+     */
+    private void journalUploads(@NonNull List<FileTransmission> transmissions,
+            @NonNull ProcessingNotification notification) {
+        for (FileTransmission transmission : transmissions) {
+            mDatabase.saveJournalEntry(JournalEntry.uploaded(transmission, notification));
+        }
+    }
 
-        for (long surveyInstanceId : syncedSurveys) {
-            updateSurveyStatus(surveyInstanceId, SurveyInstanceStatus.SYNCED);
+    /**
+     * Discard the journal entries of the finished transmissions, but those whose notification
+     * failed: their files are in S3, and only the notification needs to be retried.
+     */
+    private void completeJournal(@NonNull List<FileTransmission> finished) {
+        List<String> filenames = new ArrayList<>();
+        for (FileTransmission transmission : finished) {
+            String error = transmission.getLastError();
+            if (transmission.getStatus() != TransmissionStatus.FAILED || error == null
+                    || !error.startsWith(ERROR_NOTIFICATION)) {
+                filenames.add(transmission.getFileName());
+            }
+        }
+        mDatabase.deleteJournalEntries(filenames);
+    }
+
+    /**
+     * Queue the pre-flight check of every pending file that has a known S3 location
+     */
+    @NonNull
+    private UploadPreflight startPreflight(@NonNull List<FileTransmission> transmissions,
+            @NonNull final FileDigestHelper digestHelper) {
+        final S3Api s3Api = new S3Api(this);
+        UploadPreflight preflight = new UploadPreflight(new UploadPreflight.Source() {
+            @Override
+            public String getLocalDigest(@NonNull File file) {
+                return digestHelper.getHexMd5(file);
+            }
+
+            @Override
+            public String getRemoteDigest(@NonNull String objectKey) throws IOException {
+                return s3Api.getEtag(objectKey);
+            }
+        });
+        for (FileTransmission transmission : transmissions) {
+            String filename = transmission.getFileName();
+            String dir = getObjectDir(filename);
+            if (dir != null) {
+                preflight.check(transmission, dir + getDestName(filename));
+            }
         }
+        return preflight;
+    }
 
-        // Ensure the unsynced ones are just EXPORTED
-        for (long surveyInstanceId : unsyncedSurveys) {
-            updateSurveyStatus(surveyInstanceId, SurveyInstanceStatus.EXPORTED);
+    /**
+     * @return the S3 directory the file is uploaded to, or null if the file is not supported
+     */
+    @Nullable
+    private static String getObjectDir(String filename) {
+        if (TextUtils.isEmpty(filename) || filename.lastIndexOf(".") < 0) {
+            return null;
+        }
+        switch (filename.substring(filename.lastIndexOf("."))) {
+            case ConstantUtil.JPG_SUFFIX:
+            case ConstantUtil.PNG_SUFFIX:
+            case ConstantUtil.VIDEO_SUFFIX:
+                return ConstantUtil.S3_IMAGE_DIR;
+            case ConstantUtil.ARCHIVE_SUFFIX:
+                return ConstantUtil.S3_DATA_DIR;
+            default:
+                return null;
         }
     }
 
-    private boolean syncFile(@NonNull String filename, @NonNull String formId) {
+    /**
+     * Upload the file to S3. The transmission stays IN PROGRESS until the server has been
+     * notified of the upload. Failures are recorded in the transmission, to be stored along
+     * with the rest of outcomes of the sync.
+     *
+     * @param preflight pre-flight checks of the pass, if enabled. Files already in S3 are
+     *                  only notified.
+     * @return the notification to send to the server, or null if the upload failed
+     */
+    @Nullable
+    private ProcessingNotification uploadFile(@NonNull FileTransmission transmission,
+            @Nullable UploadPreflight preflight) {
+        final String filename = transmission.getFileName();
         if (TextUtils.isEmpty(filename) || filename.lastIndexOf(".") < 0) {
-            return false;
+            onFileFailed(transmission, ERROR_UNSUPPORTED_FILE);
+            return null;
         }
 
         String contentType, dir, action;
@@ -489,66 +1023,176 @@ public class DataSyncService extends IntentService {
                 isPublic = false;
                 break;
             default:
-                return false;
+                onFileFailed(transmission, ERROR_UNSUPPORTED_FILE);
+                return null;
         }
 
-        // Temporarily set the status to 'IN PROGRESS'. Transmission status should
-        // *always* be updated with the outcome of the upload operation.
-        mDatabase.updateTransmissionHistory(filename, TransmissionStatus.IN_PROGRESS);
+        if (preflight != null && preflight.isUploaded(transmission)) {
+            Timber.d("%s is already in S3. Skipping upload", filename);
+            return new ProcessingNotification(transmission.getFormId(), action,
+                    getDestName(filename));
+        }
+
+        String error;
+        try {
+            if (sendFile(filename, dir, contentType, isPublic, FILE_UPLOAD_RETRIES)) {
+                return new ProcessingNotification(transmission.getFormId(), action,
+                        getDestName(filename));
+            }
+            error = ERROR_UPLOAD_REJECTED;
+        } catch (IOException e) {
+            Timber.e(e, "Could not send file: " + filename + ". " + e.getMessage());
+            error = e.getClass().getSimpleName();
+        }
+
+        onFileFailed(transmission, error);
+        return null;
+    }
+
+    /**
+     * Resolve a transmission whose content has already been uploaded by another one. Files
+     * with the same name share the S3 object already. Otherwise, S3 copies the uploaded
+     * object to the new name, and only if that fails is the file uploaded again.
+     *
+     * @param blob notification of the uploaded file with the same content
+     * @return the notification to send to the server, or null if the file could not be synced
+     */
+    @Nullable
+    private ProcessingNotification uploadReference(@NonNull FileTransmission reference,
+            @NonNull ProcessingNotification blob) {
+        final String filename = reference.getFileName();
+        final String destName = getDestName(filename);
+        if (destName.equals(blob.getFileName())) {
+            Timber.d("%s is already uploaded", destName);
+            return new ProcessingNotification(reference.getFormId(), ACTION_IMAGE, destName);
+        }
 
-        int status = TransmissionStatus.FAILED;
-        boolean synced = false;
+        String ext = filename.substring(filename.lastIndexOf("."));
+        try {
+            if (new S3Api(this).copy(ConstantUtil.S3_IMAGE_DIR + blob.getFileName(),
+                    ConstantUtil.S3_IMAGE_DIR + destName, contentType(ext), true)) {
+                return new ProcessingNotification(reference.getFormId(), ACTION_IMAGE, destName);
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Could not copy " + blob.getFileName() + " to " + destName);
+        }
+        return uploadFile(reference, null);
+    }
 
-        if (sendFile(filename, dir, contentType, isPublic, FILE_UPLOAD_RETRIES)) {
-            FlowApi api = new FlowApi(getApplicationContext());
-            switch (api.sendProcessingNotification(formId, action,
-                    getDestName(filename))) {
-                case HttpURLConnection.HTTP_OK:
-                    status = TransmissionStatus.SYNCED;// Mark everything completed
-                    synced = true;
-                    break;
-                case HttpURLConnection.HTTP_NOT_FOUND:
-                    // This form has been deleted in the dashboard, thus we cannot sync it
-                    displayErrorNotification(formId);
-                    status = TransmissionStatus.FORM_DELETED;
-                    break;
-                default:// Any error code
-                    break;
+    /**
+     * Upload a batch archive to S3. Failures are recorded in every transmission it includes.
+     *
+     * @return the notification to send to the server, or null if the upload failed
+     */
+    @Nullable
+    private ProcessingNotification uploadBatch(@NonNull BatchArchive batch) {
+        final File file = batch.getFile();
+        String error;
+        try {
+            if (sendFile(file.getAbsolutePath(), ConstantUtil.S3_DATA_DIR,
+                    contentType(ConstantUtil.ARCHIVE_SUFFIX), false, FILE_UPLOAD_RETRIES)) {
+                return new ProcessingNotification(batch.getFormId(), ACTION_SUBMIT,
+                        file.getName());
             }
+            error = ERROR_UPLOAD_REJECTED;
+        } catch (IOException e) {
+            Timber.e(e, "Could not send batch archive: " + file.getName() + ". " + e.getMessage());
+            error = e.getClass().getSimpleName();
         }
 
-        mDatabase.updateTransmissionHistory(filename, status);
-        return synced;
+        for (FileTransmission transmission : batch.getTransmissions()) {
+            onFileFailed(transmission, error);
+        }
+        return null;
+    }
+
+    /**
+     * Mark the transmission as failed, and schedule its next attempt
+     */
+    private void onFileFailed(@NonNull FileTransmission transmission, String error) {
+        final int attempts = transmission.getAttempts() + 1;
+        final long nextAttempt = mRetryBackoff
+                .getNextAttemptTime(attempts, System.currentTimeMillis());
+        Timber.d("%s failed %d times (%s). Next attempt in %d s", transmission.getFileName(),
+                attempts, error, (nextAttempt - System.currentTimeMillis()) / 1000);
+        transmission.setStatus(TransmissionStatus.FAILED);
+        transmission.setAttempts(attempts);
+        transmission.setNextAttempt(nextAttempt);
+        transmission.setLastError(error);
+    }
+
+    /**
+     * Update the transmission status with the outcome of the server notification
+     *
+     * @return true if the file has been successfully synced
+     */
+    private boolean onFileNotified(@NonNull FileTransmission transmission, int notificationCode) {
+        switch (notificationCode) {
+            case HttpURLConnection.HTTP_OK:
+                // Mark everything completed, clearing the retry state. The count of failed
+                // attempts is kept for the record.
+                transmission.setStatus(TransmissionStatus.SYNCED);
+                transmission.setNextAttempt(0);
+                transmission.setLastError(null);
+                return true;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                // This form has been deleted in the dashboard, thus we cannot sync it
+                displayErrorNotification(transmission.getFormId());
+                transmission.setStatus(TransmissionStatus.FORM_DELETED);
+                return false;
+            default:// Any error code
+                onFileFailed(transmission, ERROR_NOTIFICATION + " " + notificationCode);
+                return false;
+        }
     }
 
+    /**
+     * @return true if the file was uploaded, false if S3 rejected it
+     * @throws IOException if the last attempt could not reach S3, or the file does not exist
+     */
     private boolean sendFile(@NonNull String fileAbsolutePath, String dir, String contentType,
-            boolean isPublic, int retries) {
+            boolean isPublic, int retries) throws IOException {
         final File file = new File(fileAbsolutePath);
         if (!file.exists()) {
-            return false;
+            abortUpload(dir, file);
+            throw new FileNotFoundException(fileAbsolutePath);
         }
 
-        boolean ok = false;
-        try {
-            String fileName = fileAbsolutePath;
-            if (fileName.contains(File.separator)) {
-                fileName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
-            }
+        String fileName = fileAbsolutePath;
+        if (fileName.contains(File.separator)) {
+            fileName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
+        }
 
-            final String objectKey = dir + fileName;
+        final String objectKey = dir + fileName;
+        boolean ok;
+        try {
             S3Api s3Api = new S3Api(this);
-            ok = s3Api.put(objectKey, file, contentType, isPublic);
-            if (!ok && retries > 0) {
-                // If we have not expired all the retry attempts, try again.
-                ok = sendFile(fileAbsolutePath, dir, contentType, isPublic, --retries);
-            }
+            ok = s3Api.put(objectKey, file, contentType, isPublic, mUploadPartStore);
         } catch (IOException e) {
+            if (retries <= 0) {
+                throw e;
+            }
             Timber.e(e, "Could not send file: " + fileAbsolutePath + ". " + e.getMessage());
+            ok = false;
+        }
+        if (!ok && retries > 0) {
+            // If we have not expired all the retry attempts, try again.
+            ok = sendFile(fileAbsolutePath, dir, contentType, isPublic, --retries);
         }
-
         return ok;
     }
 
+    /**
+     * Abort the multipart upload left in progress for a file that will not be sent anymore
+     */
+    private void abortUpload(String dir, @NonNull File file) {
+        try {
+            new S3Api(this).abortMultipart(dir + file.getName(), file, mUploadPartStore);
+        } catch (IOException e) {
+            Timber.e(e, "Could not abort upload of " + file.getName());
+        }
+    }
+
     /**
      * Request missing files (images) in the datastore.
      * The server will provide us with a list of missing images,
@@ -560,11 +1204,15 @@ public class DataSyncService extends IntentService {
      */
     private void checkDeviceNotifications() {
         FlowApi flowApi = new FlowApi(getApplicationContext());
+        mBatchArchivesSupported = false;
         try {
             String[] surveyIds = mDatabase.getSurveyIds();
             JSONObject jResponse = flowApi.getDeviceNotification(surveyIds);
 
             if (jResponse != null) {
+                // Batch archives are only sent to servers advertising they can unpack them
+                mBatchArchivesSupported = jResponse.optBoolean(CAPABILITY_BATCH_ARCHIVES, false);
+
                 List<String> files = parseFiles(jResponse.optJSONArray("missingFiles"));
                 files.addAll(parseFiles(jResponse.optJSONArray("missingUnknown")));
 
@@ -619,10 +1267,8 @@ public class DataSyncService extends IntentService {
     }
 
     private void setFileTransmissionFailed(String filename) {
-        int rows = mDatabase.updateTransmissionHistory(filename, TransmissionStatus.FAILED);
-        if (rows == 0) {
-            // Use a dummy "-1" as survey_instance_id, as the database needs that attribute
-            mDatabase.createTransmission(-1, null, filename, TransmissionStatus.FAILED);
+        if (!mDatabase.setTransmissionFailed(filename, System.currentTimeMillis())) {
+            Timber.d("%s is being uploaded. Its outcome is left to the upload", filename);
         }
     }
 
@@ -637,11 +1283,10 @@ public class DataSyncService extends IntentService {
         return filename;
     }
 
-    private void updateSurveyStatus(long surveyInstanceId, int status) {
-        // First off, update the status
-        mDatabase.updateSurveyStatus(surveyInstanceId, status);
-
-        // Dispatch a Broadcast notification to notify of survey instances status change
+    /**
+     * Dispatch a Broadcast notification to notify of survey instances status change
+     */
+    private void notifyDataSync() {
         Intent intentBroadcast = new Intent(ConstantUtil.ACTION_DATA_SYNC);
         LocalBroadcastManager.getInstance(this).sendBroadcast(intentBroadcast);
     }
@@ -689,6 +1334,31 @@ public class DataSyncService extends IntentService {
         }
     }
 
+    /**
+     * Keeps track of multipart uploads in the local database, so large files can be resumed
+     * from the last confirmed part in a later sync.
+     */
+    private class DbMultipartUploadStore implements MultipartUploadStore {
+
+        @NonNull
+        @Override
+        public List<UploadPart> getUploadParts(@NonNull String filename) {
+            return mDatabase.getUploadParts(filename);
+        }
+
+        @Override
+        public void saveUploadPart(@NonNull String filename, @NonNull UploadPart part) {
+            mDatabase.saveUploadPart(filename, part.getUploadId(), part.getPartNumber(),
+                    part.getEtag(), part.getPartSize(), part.getFileSize(),
+                    part.getFileModified());
+        }
+
+        @Override
+        public void deleteUploadParts(@NonNull String filename) {
+            mDatabase.deleteUploadParts(filename);
+        }
+    }
+
     /**
      * Helper class to wrap zip file's meta-data
      */
@@ -706,8 +1376,11 @@ public class DataSyncService extends IntentService {
         @Nullable
         String filename = null;
 
+        /**
+         * MD5 digest of the zip file, computed while writing it
+         */
         @Nullable
-        String data = null;
+        byte[] md5 = null;
 
         final List<String> imagePaths = new ArrayList<>();
     }
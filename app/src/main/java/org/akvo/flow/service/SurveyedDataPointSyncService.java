@@ -23,24 +23,23 @@ import android.app.IntentService;
 import android.content.Intent;
 import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
-import android.support.v4.util.Pair;
 
 import org.akvo.flow.R;
 import org.akvo.flow.api.FlowApi;
 import org.akvo.flow.data.database.SurveyDbAdapter;
 import org.akvo.flow.domain.SurveyGroup;
-import org.akvo.flow.domain.SurveyInstance;
 import org.akvo.flow.domain.SurveyedLocale;
 import org.akvo.flow.exception.HttpException;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser;
+import org.akvo.flow.service.datapoint.DataPointPipeline;
 import org.akvo.flow.util.ConstantUtil;
 import org.akvo.flow.util.NotificationHelper;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import timber.log.Timber;
 
@@ -50,6 +49,12 @@ public class SurveyedDataPointSyncService extends IntentService {
 
     public static final String SURVEY_GROUP = "survey_group";
 
+    /**
+     * Set by scheduled runs, which the user did not ask for. They sync silently: no toasts nor
+     * notifications, errors are only logged and retried on the next window.
+     */
+    public static final String EXTRA_BACKGROUND = "background";
+
     private final Handler mHandler = new Handler();
 
     public SurveyedDataPointSyncService() {
@@ -61,37 +66,22 @@ public class SurveyedDataPointSyncService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         final long surveyGroupId = intent.getLongExtra(SURVEY_GROUP, SurveyGroup.ID_NONE);
-        int syncedRecords = 0;
+        final boolean background = intent.getBooleanExtra(EXTRA_BACKGROUND, false);
         FlowApi api = new FlowApi(getApplicationContext());
         SurveyDbAdapter database = new SurveyDbAdapter(getApplicationContext()).open();
-        boolean correctSync = true;
-        NotificationHelper
-                .displayNotificationWithProgress(this, getString(R.string.syncing_records),
-                        getString(R.string.pleasewait), true, true,
-                        ConstantUtil.NOTIFICATION_RECORD_SYNC);
+        if (!background) {
+            NotificationHelper
+                    .displayNotificationWithProgress(this, getString(R.string.syncing_records),
+                            getString(R.string.pleasewait), true, true,
+                            ConstantUtil.NOTIFICATION_RECORD_SYNC);
+        }
         try {
-            Set<String> batch, lastBatch = new HashSet<>();
-            while (true) {
-                Pair<Set<String>, Boolean> syncResult = sync(database, api, surveyGroupId);
-                batch = syncResult.first;
-                if (!syncResult.second) {
-                    //at least one of the data points seems corrupted
-                    correctSync = syncResult.second;
-                }
-                batch.removeAll(lastBatch);// Remove duplicates.
-                if (batch.isEmpty()) {
-                    break;
-                }
-                syncedRecords += batch.size();
-                sendBroadcastNotification();// Keep the UI fresh!
-                NotificationHelper
-                        .displayNotificationWithProgress(this, getString(R.string.syncing_records),
-                                String.format(getString(R.string.synced_records),
-                                        syncedRecords), true, true,
-                                ConstantUtil.NOTIFICATION_RECORD_SYNC);
-                lastBatch = batch;
-            }
-            if (correctSync) {
+            DataPointPipeline.Result result = sync(database, api, surveyGroupId, background);
+            int syncedRecords = result.getRecords();
+            if (background) {
+                Timber.d("Background sync of %d records. Correct: %b", syncedRecords,
+                        result.isCorrect());
+            } else if (result.isCorrect()) {
                 NotificationHelper
                         .displayNotificationWithProgress(this, getString(R.string.syncing_records),
                                 String.format(getString(R.string.synced_records),
@@ -115,18 +105,22 @@ public class SurveyedDataPointSyncService extends IntentService {
                     Timber.e(e, e.getMessage());
                     break;
             }
-            displayToast(message);
-            NotificationHelper
-                    .displayErrorNotificationWithProgress(this, getString(R.string.sync_error),
-                            message, false,
-                            false, ConstantUtil.NOTIFICATION_RECORD_SYNC);
+            if (!background) {
+                displayToast(message);
+                NotificationHelper
+                        .displayErrorNotificationWithProgress(this, getString(R.string.sync_error),
+                                message, false,
+                                false, ConstantUtil.NOTIFICATION_RECORD_SYNC);
+            }
         } catch (IOException e) {
             Timber.e(e, e.getMessage());
-            displayToast(getString(R.string.network_error));
-            NotificationHelper
-                    .displayErrorNotificationWithProgress(this, getString(R.string.sync_error),
-                            getString(R.string.network_error), false, false,
-                            ConstantUtil.NOTIFICATION_RECORD_SYNC);
+            if (!background) {
+                displayToast(getString(R.string.network_error));
+                NotificationHelper
+                        .displayErrorNotificationWithProgress(this, getString(R.string.sync_error),
+                                getString(R.string.network_error), false, false,
+                                ConstantUtil.NOTIFICATION_RECORD_SYNC);
+            }
         } finally {
             database.close();
         }
@@ -135,31 +129,50 @@ public class SurveyedDataPointSyncService extends IntentService {
     }
 
     /**
-     * Sync a Record batch, and return the Set of Record IDs within the response
+     * Sync every Record of the survey group modified since the last sync, or resume the last
+     * sync from its cursor. Pages are fetched while the previous ones are being stored.
      */
     @NonNull
-    private Pair<Set<String>, Boolean> sync(@NonNull SurveyDbAdapter database, @NonNull FlowApi api,
-            long surveyGroupId)
+    private DataPointPipeline.Result sync(@NonNull final SurveyDbAdapter database,
+            @NonNull final FlowApi api, final long surveyGroupId, final boolean background)
             throws IOException {
-        final String syncTime = database.getSyncTime(surveyGroupId);
-        Set<String> records = new HashSet<>();
-        Timber.d("sync() - SurveyGroup: " + surveyGroupId + ". SyncTime: " + syncTime);
-        List<SurveyedLocale> locales = api
-                .getSurveyedLocales(surveyGroupId, syncTime);
-        boolean correctData = true;
-        if (locales != null) {
-            for (SurveyedLocale locale : locales) {
-                List<SurveyInstance> surveyInstances = locale.getSurveyInstances();
-                if (surveyInstances == null || surveyInstances.isEmpty()) {
-                    correctData = false;
-                }
-                database.syncSurveyedLocale(locale);
-                records.add(locale.getId());
-            }
-        }
-        //Delete empty or corrupted data received from server
-        database.deleteEmptyRecords();
-        return new Pair<>(records, correctData);
+        String syncTime = database.getSyncTime(surveyGroupId);
+        String cursor = database.getSyncCursor(surveyGroupId);
+        int pageSize = database.getSyncPageSize(surveyGroupId);
+        Timber.d("sync() - SurveyGroup: " + surveyGroupId + ". SyncTime: " + syncTime
+                + ". Cursor: " + cursor + ". Page size: " + pageSize);
+        return new DataPointPipeline().run(syncTime, cursor, pageSize,
+                new DataPointPipeline.Source() {
+                    @NonNull
+                    @Override
+                    public SurveyedLocaleStreamParser.Paging fetch(@Nullable String syncTime,
+                            @Nullable String cursor, int pageSize,
+                            @NonNull SurveyedLocaleStreamParser.Callback callback)
+                            throws IOException {
+                        return api.getSurveyedLocales(surveyGroupId, syncTime, cursor, pageSize,
+                                callback);
+                    }
+                }, new DataPointPipeline.Sink() {
+                    @Override
+                    public void store(@NonNull List<SurveyedLocale> batch) {
+                        database.syncSurveyedLocales(batch);
+                    }
+
+                    @Override
+                    public void onPageStored(int records, @Nullable String cursor, int pageSize) {
+                        database.setSyncCursor(surveyGroupId, cursor, pageSize);
+                        //Delete empty or corrupted data received from server
+                        database.deleteEmptyRecords();
+                        sendBroadcastNotification();// Keep the UI fresh!
+                        if (!background) {
+                            NotificationHelper.displayNotificationWithProgress(
+                                    SurveyedDataPointSyncService.this,
+                                    getString(R.string.syncing_records),
+                                    String.format(getString(R.string.synced_records), records),
+                                    true, true, ConstantUtil.NOTIFICATION_RECORD_SYNC);
+                        }
+                    }
+                });
     }
 
     private void displayToast(final String text) {
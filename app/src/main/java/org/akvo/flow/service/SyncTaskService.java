@@ -0,0 +1,189 @@
+/*
+* Copyright (C) 2010-2017 Stichting Akvo (Akvo Foundation)
+*
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.akvo.flow.service;
+
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.support.v4.util.Pair;
+
+import com.google.android.gms.gcm.GcmNetworkManager;
+import com.google.android.gms.gcm.GcmTaskService;
+import com.google.android.gms.gcm.TaskParams;
+
+import org.akvo.flow.data.database.SurveyDbAdapter;
+import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.domain.SurveyGroup;
+import org.akvo.flow.domain.apkupdate.ApkUpdateStore;
+import org.akvo.flow.domain.apkupdate.GsonMapper;
+import org.akvo.flow.domain.apkupdate.ViewApkData;
+import org.akvo.flow.service.schedule.SyncJob;
+import org.akvo.flow.service.schedule.SyncScheduler;
+import org.akvo.flow.service.schedule.SyncWindowPlanner;
+import org.akvo.flow.util.ConnectivityStateManager;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Runs the sync windows scheduled by {@link SyncScheduler}. Every window runs all the
+ * {@link SyncJob}s that are due, back to back, while the radio is already up: uploads, form
+ * assignment checks, data point syncs and app version checks.
+ * Long running jobs are handed over to their own services, the version check runs inline.
+ */
+public class SyncTaskService extends GcmTaskService {
+
+    private static final String KEY_WINDOW_DAY = "sync.windows.day";
+    private static final String KEY_WINDOW_COUNT = "sync.windows.count";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final SyncWindowPlanner planner = new SyncWindowPlanner(
+            SyncScheduler.WINDOW_PERIOD_SECONDS * 1000);
+
+    /**
+     * Called when app is updated to a new version, reinstalled etc.
+     * Repeating tasks have to be rescheduled
+     */
+    @Override
+    public void onInitializeTasks() {
+        super.onInitializeTasks();
+        SyncScheduler.schedule(this);
+    }
+
+    @Override
+    public int onRunTask(TaskParams taskParams) {
+        Prefs prefs = new Prefs(getApplicationContext());
+        boolean cellAllowed = prefs.getBoolean(Prefs.KEY_CELL_UPLOAD,
+                Prefs.DEFAULT_VALUE_CELL_UPLOAD);
+        if (!new ConnectivityStateManager(getApplicationContext())
+                .isConnectionAvailable(cellAllowed)) {
+            Timber.d("No available authorised connection. Skipping sync window");
+            return GcmNetworkManager.RESULT_SUCCESS;
+        }
+
+        final long now = System.currentTimeMillis();
+        Map<SyncJob, Long> lastRuns = new EnumMap<>(SyncJob.class);
+        for (SyncJob job : SyncJob.values()) {
+            lastRuns.put(job, prefs.getLong(job.getPrefKey(), 0));
+        }
+        List<SyncJob> jobs = planner.getDueJobs(now, lastRuns, isCharging());
+        Timber.d("Sync window %s (%d today). Jobs: %s", taskParams.getTag(),
+                countWindow(prefs, now), jobs);
+
+        int result = GcmNetworkManager.RESULT_SUCCESS;
+        for (SyncJob job : jobs) {
+            if (run(job)) {
+                prefs.setLong(job.getPrefKey(), now);
+            } else {
+                result = GcmNetworkManager.RESULT_FAILURE;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count the windows run with a connection, i.e. the radio wake-ups, in the current (UTC) day
+     *
+     * @return the number of windows run today, including this one
+     */
+    private int countWindow(Prefs prefs, long now) {
+        long day = now / DAY_MILLIS;
+        int count = prefs.getLong(KEY_WINDOW_DAY, -1) == day
+                ? prefs.getInt(KEY_WINDOW_COUNT, 0) : 0;
+        prefs.setLong(KEY_WINDOW_DAY, day);
+        prefs.setInt(KEY_WINDOW_COUNT, ++count);
+        return count;
+    }
+
+    /**
+     * @return true if the job has been run or started, false if it failed
+     */
+    private boolean run(SyncJob job) {
+        switch (job) {
+            case UPLOAD:
+                startService(new Intent(this, DataSyncService.class));
+                return true;
+            case FORM_ASSIGNMENTS:
+                startService(new Intent(this, SurveyDownloadService.class));
+                return true;
+            case DATA_POINTS:
+                syncDataPoints();
+                return true;
+            case APK_CHECK:
+                return checkApkUpdate();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Data points are only synced for the survey currently selected, if monitored
+     */
+    private void syncDataPoints() {
+        long surveyGroupId = new Prefs(getApplicationContext())
+                .getLong(Prefs.KEY_SURVEY_GROUP_ID, SurveyGroup.ID_NONE);
+        if (surveyGroupId == SurveyGroup.ID_NONE) {
+            return;
+        }
+        SurveyDbAdapter database = new SurveyDbAdapter(this).open();
+        SurveyGroup surveyGroup;
+        try {
+            surveyGroup = database.getSurveyGroup(surveyGroupId);
+        } finally {
+            database.close();
+        }
+        if (surveyGroup != null && surveyGroup.isMonitored()) {
+            Intent intent = new Intent(this, SurveyedDataPointSyncService.class);
+            intent.putExtra(SurveyedDataPointSyncService.SURVEY_GROUP, surveyGroupId);
+            intent.putExtra(SurveyedDataPointSyncService.EXTRA_BACKGROUND, true);
+            startService(intent);
+        }
+    }
+
+    /**
+     * Check if new FLOW versions are available to install. If a new version is available,
+     * it is stored, and {@link org.akvo.flow.activity.AppUpdateActivity} will request the user
+     * to download it.
+     */
+    private boolean checkApkUpdate() {
+        try {
+            Pair<Boolean, ViewApkData> booleanApkDataPair = new ApkUpdateHelper(
+                    getApplicationContext()).shouldUpdate();
+            if (booleanApkDataPair.first) {
+                //save to shared preferences
+                ApkUpdateStore store = new ApkUpdateStore(new GsonMapper(),
+                        new Prefs(getApplicationContext()));
+                store.updateApkData(booleanApkDataPair.second);
+            }
+            return true;
+        } catch (Exception e) {
+            Timber.e(e, "Error with apk version service");
+            return false;
+        }
+    }
+
+    private boolean isCharging() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.datapoint;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser.Paging;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import timber.log.Timber;
+
+/**
+ * Pipelined data point sync. Pages are fetched and parsed on a background thread, while the
+ * calling thread stores them, so page N+1 is downloaded while page N is being written.
+ * <ul>
+ * <li>Fetch and parse: the response is parsed as it is downloaded, and the data points are
+ * handed over in batches. The next page is requested with the cursor sent along with the
+ * previous one, so every page is fetched exactly once, and it does not wait for the previous
+ * page to be stored. Servers that do not page by cursor are read from the modification time of
+ * the last data point parsed instead, and pages overlap on the data points sharing it.</li>
+ * <li>Persist: batches are stored in order, each one along with its sync time, and the cursor
+ * once its whole page is stored, so the stored state is always a valid checkpoint. If the run
+ * is interrupted, the next one resumes from the last page stored.</li>
+ * </ul>
+ * The stages are joined by a bounded queue. When the persist stage falls behind, the fetch
+ * stage blocks, and so does the download. The sync ends with the last page, that is, the first
+ * one coming with no cursor, or with no new data points. The page size is adapted to the
+ * throughput by a {@link PageSizer}. If the fetch stage fails, the batches read so far are
+ * stored before the error is thrown. A pipeline runs a single sync.
+ */
+public class DataPointPipeline {
+
+    /**
+     * Number of data points per batch
+     */
+    public static final int BATCH_SIZE = 100;
+
+    /**
+     * Number of batches the fetch stage may run ahead of the persist stage
+     */
+    public static final int CAPACITY = 4;
+
+    private final int batchSize;
+    private final BlockingQueue<Item> queue;
+
+    private volatile boolean cancelled = false;
+
+    public DataPointPipeline() {
+        this(BATCH_SIZE, CAPACITY);
+    }
+
+    public DataPointPipeline(int batchSize, int capacity) {
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Sync every data point modified since the given time. Blocks until the sync is done.
+     *
+     * @param syncTime stored sync time, if any
+     * @param cursor   stored cursor of an unfinished sync, if any
+     * @param pageSize stored page size, or 0 if unknown
+     * @return the outcome of the sync
+     * @throws IOException if a page could not be fetched or parsed, once the data points read
+     *                     before the error are stored
+     */
+    @NonNull
+    public Result run(@Nullable final String syncTime, @Nullable final String cursor,
+            int pageSize, @NonNull final Source source, @NonNull Sink sink) throws IOException {
+        final Result result = new Result();
+        final PageSizer pageSizer = new PageSizer(pageSize);
+        Thread fetcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetchPages(syncTime, cursor, pageSizer, source, result);
+            }
+        }, "data-point-fetch");
+        fetcher.start();
+        try {
+            while (true) {
+                Item item = queue.take();
+                if (item.batch != null) {
+                    sink.store(item.batch);
+                } else if (item.pageEnd) {
+                    result.records += item.pageRecords;
+                    sink.onPageStored(result.records, item.cursor, item.pageSize);
+                } else {
+                    if (item.error != null) {
+                        throw item.error;
+                    }
+                    return result;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Data point sync interrupted");
+        } finally {
+            cancelled = true;
+            fetcher.interrupt();
+        }
+    }
+
+    private void fetchPages(@Nullable String syncTime, @Nullable String cursor,
+            @NonNull PageSizer pageSizer, @NonNull Source source, @NonNull Result result) {
+        IOException error = null;
+        try {
+            Set<String> lastPage = new HashSet<>();
+            while (!cancelled) {
+                PageReader page = new PageReader();
+                final long t0 = System.currentTimeMillis();
+                Paging paging = source.fetch(syncTime, cursor, pageSizer.getPageSize(), page);
+                page.flush();
+                pageSizer.onPage(page.records.size(), System.currentTimeMillis() - t0);
+
+                if (!page.correct) {
+                    // At least one of the data points seems corrupted
+                    result.correct = false;
+                }
+                final boolean last;
+                int records;
+                if (paging.isPaged()) {
+                    cursor = paging.getCursor();
+                    records = page.records.size();
+                    last = cursor == null || records == 0;
+                } else {
+                    // Paged by time: the last data points of the previous page come again
+                    cursor = null;
+                    Set<String> newRecords = new HashSet<>(page.records);
+                    newRecords.removeAll(lastPage);
+                    records = newRecords.size();
+                    last = records == 0;
+                }
+                if (records > 0 || paging.isPaged()) {
+                    put(Item.pageEnd(records, cursor, pageSizer.getPageSize()));
+                }
+                if (last) {
+                    break;
+                }
+                lastPage = page.records;
+                syncTime = String.valueOf(page.lastModified);
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        }
+        if (!cancelled) {
+            try {
+                put(Item.end(error));
+            } catch (InterruptedIOException e) {
+                Timber.d("Data point sync cancelled");
+            }
+        }
+    }
+
+    private void put(@NonNull Item item) throws InterruptedIOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Data point sync cancelled");
+        }
+    }
+
+    /**
+     * Collects the data points of a page into batches, handing every full batch over to the
+     * persist stage
+     */
+    private class PageReader implements SurveyedLocaleStreamParser.Callback {
+
+        final Set<String> records = new HashSet<>();
+        List<SurveyedLocale> batch = new ArrayList<>(batchSize);
+        long lastModified;
+        boolean correct = true;
+
+        @Override
+        public void onSurveyedLocale(@NonNull SurveyedLocale surveyedLocale) throws IOException {
+            List<SurveyInstance> surveyInstances = surveyedLocale.getSurveyInstances();
+            if (surveyInstances == null || surveyInstances.isEmpty()) {
+                correct = false;
+            }
+            records.add(surveyedLocale.getId());
+            lastModified = surveyedLocale.getLastModified();
+            batch.add(surveyedLocale);
+            if (batch.size() == batchSize) {
+                flush();
+            }
+        }
+
+        void flush() throws InterruptedIOException {
+            if (!batch.isEmpty()) {
+                put(Item.batch(batch));
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private static class Item {
+
+        final List<SurveyedLocale> batch;
+        final boolean pageEnd;
+        final int pageRecords;
+        final String cursor;
+        final int pageSize;
+        final IOException error;
+
+        private Item(List<SurveyedLocale> batch, boolean pageEnd, int pageRecords, String cursor,
+                int pageSize, IOException error) {
+            this.batch = batch;
+            this.pageEnd = pageEnd;
+            this.pageRecords = pageRecords;
+            this.cursor = cursor;
+            this.pageSize = pageSize;
+            this.error = error;
+        }
+
+        static Item batch(@NonNull List<SurveyedLocale> batch) {
+            return new Item(batch, false, 0, null, 0, null);
+        }
+
+        static Item pageEnd(int records, @Nullable String cursor, int pageSize) {
+            return new Item(null, true, records, cursor, pageSize, null);
+        }
+
+        static Item end(@Nullable IOException error) {
+            return new Item(null, false, 0, null, 0, error);
+        }
+    }
+
+    public static class Result {
+
+        private volatile int records = 0;
+        private volatile boolean correct = true;
+
+        /**
+         * @return the number of data points synced, not counting duplicates between pages
+         */
+        public int getRecords() {
+            return records;
+        }
+
+        /**
+         * @return false if any data point came with no survey instances
+         */
+        public boolean isCorrect() {
+            return correct;
+        }
+    }
+
+    /**
+     * Fetch and parse stage
+     */
+    public interface Source {
+
+        /**
+         * Read a page of data points, handing them to the callback in order
+         *
+         * @param syncTime modification time to read from, used when there is no cursor
+         * @param cursor   cursor of the page, if any
+         * @param pageSize number of data points to request
+         * @return the paging of the response, with the cursor of the next page
+         */
+        @NonNull
+        Paging fetch(@Nullable String syncTime, @Nullable String cursor, int pageSize,
+                @NonNull SurveyedLocaleStreamParser.Callback callback) throws IOException;
+    }
+
+    /**
+     * Persist stage, called on the thread running the pipeline
+     */
+    public interface Sink {
+
+        /**
+         * Store the batch, along with the sync time of its last data point
+         */
+        void store(@NonNull List<SurveyedLocale> batch);
+
+        /**
+         * Called once all the batches of a page are stored, to checkpoint the paging state
+         *
+         * @param records  total number of data points synced so far
+         * @param cursor   cursor of the next page, null once the last page is stored, or if the
+         *                 server does not page by cursor
+         * @param pageSize page size to request next
+         */
+        void onPageStored(int records, @Nullable String cursor, int pageSize);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.datapoint;
+
+/**
+ * Adapts the number of data points requested per page to the measured throughput, aiming at
+ * pages that take {@link #TARGET_PAGE_TIME_MS} to fetch and parse. Slow connections get
+ * smaller pages, so that progress is stored often, and fast ones bigger pages, so that the
+ * request overhead is spread over more data points. Every step moves halfway towards the
+ * estimate, and at most doubles the page size.
+ */
+public class PageSizer {
+
+    public static final int MIN_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    static final long TARGET_PAGE_TIME_MS = 5000;
+
+    private int pageSize;
+
+    /**
+     * @param pageSize page size of the previous sync, or 0 if unknown
+     */
+    public PageSizer(int pageSize) {
+        this.pageSize = pageSize > 0 ? clamp(pageSize) : DEFAULT_PAGE_SIZE;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Update the page size with the throughput of a page
+     *
+     * @param records    number of data points in the page
+     * @param durationMs time taken to fetch and parse it
+     */
+    public void onPage(int records, long durationMs) {
+        if (records < pageSize) {
+            // Short pages are dominated by the latency, and say little about the throughput
+            return;
+        }
+        long estimate = records * TARGET_PAGE_TIME_MS / Math.max(durationMs, 1);
+        long size = Math.min((pageSize + estimate) / 2, pageSize * 2L);
+        pageSize = clamp(size);
+    }
+
+    private static int clamp(long size) {
+        return (int) Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, size));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.export;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.util.BoundedWorkerPool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Bounded pool of CPU workers exporting survey instances, one instance per task. Exports are
+ * CPU bound (JSON serialization, hashing, signing and deflating), so the pool is sized after
+ * the available cores. Results are collected in the order of the given ids, whatever the order
+ * in which the tasks complete, so the caller can commit them sequentially afterwards.
+ */
+public class ExportWorkerPool {
+
+    public static final int MIN_WORKERS = 1;
+    public static final int MAX_WORKERS = 4;
+
+    private final BoundedWorkerPool pool;
+
+    public ExportWorkerPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ExportWorkerPool(int workers) {
+        this.pool = new BoundedWorkerPool(workers, MIN_WORKERS, MAX_WORKERS);
+    }
+
+    public int getWorkers() {
+        return pool.getWorkers();
+    }
+
+    /**
+     * Export every survey instance. If interrupted, pending instances will be exported in the
+     * next sync.
+     *
+     * @return the exporter results, in the same order as the ids. Failed exports are null.
+     */
+    @NonNull
+    public <T> List<T> export(@NonNull long[] surveyInstanceIds,
+            @NonNull final SurveyInstanceExporter<T> exporter) {
+        List<Long> ids = new ArrayList<>(surveyInstanceIds.length);
+        for (long id : surveyInstanceIds) {
+            ids.add(id);
+        }
+        return pool.run(ids, new BoundedWorkerPool.Task<Long, T>() {
+            @Override
+            public T run(@NonNull Long surveyInstanceId) throws Exception {
+                return exporter.export(surveyInstanceId);
+            }
+
+            @Override
+            public void onError(@NonNull Long surveyInstanceId, @NonNull Throwable error) {
+                //if the export fails for one survey, let it still attempt to export the others
+                Timber.e(error, "Error creating zip file for %d", surveyInstanceId);
+            }
+        });
+    }
+
+    /**
+     * Exports a single survey instance. Implementations are invoked concurrently.
+     */
+    public interface SurveyInstanceExporter<T> {
+
+        /**
+         * @return the export result, or null if the survey instance could not be exported
+         */
+        @Nullable
+        T export(long surveyInstanceId) throws Exception;
+    }
+}
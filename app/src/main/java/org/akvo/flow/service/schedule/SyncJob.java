@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.schedule;
+
+import java.util.Locale;
+
+/**
+ * Periodic background work. Jobs are not scheduled on their own, but run together within the
+ * sync windows of {@link SyncScheduler}, so the radio is woken up once for all of them.
+ */
+public enum SyncJob {
+
+    /**
+     * Export and upload of submitted form instances. Runs in every window.
+     */
+    UPLOAD(0, false),
+
+    /**
+     * Check for new or updated form assignments
+     */
+    FORM_ASSIGNMENTS(6 * SyncJob.HOUR, false),
+
+    /**
+     * Download of the data points of the current survey, if monitored. Potentially large,
+     * hence deferred until the device is charging.
+     */
+    DATA_POINTS(12 * SyncJob.HOUR, true),
+
+    /**
+     * Check for new versions of the app
+     */
+    APK_CHECK(24 * SyncJob.HOUR, false);
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final long interval;
+    private final boolean requiresCharging;
+
+    SyncJob(long interval, boolean requiresCharging) {
+        this.interval = interval;
+        this.requiresCharging = requiresCharging;
+    }
+
+    /**
+     * @return the minimum time, in millis, between two runs of the job
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    public boolean requiresCharging() {
+        return requiresCharging;
+    }
+
+    /**
+     * @return the preference key holding the time of the last run
+     */
+    public String getPrefKey() {
+        return "sync.last." + name().toLowerCase(Locale.US);
+    }
+}
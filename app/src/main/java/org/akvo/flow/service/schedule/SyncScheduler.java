@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.schedule;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.google.android.gms.gcm.GcmNetworkManager;
+import com.google.android.gms.gcm.OneoffTask;
+import com.google.android.gms.gcm.PeriodicTask;
+import com.google.android.gms.gcm.Task;
+
+import org.akvo.flow.data.preference.Prefs;
+import org.akvo.flow.service.ApkUpdateService;
+import org.akvo.flow.service.DataSyncService;
+import org.akvo.flow.service.SyncTaskService;
+
+import timber.log.Timber;
+
+/**
+ * Schedules the sync windows in which all periodic background work ({@link SyncJob}) runs.
+ * A single periodic task replaces the separate triggers of each job, letting the system batch
+ * it with the work of other apps. Windows require a network the user allows syncing over.
+ */
+public class SyncScheduler {
+
+    public static final String TAG_PERIODIC = "SYNC_WINDOW";
+    public static final String TAG_REQUEST = "SYNC_REQUEST";
+
+    public static final long WINDOW_PERIOD_SECONDS = 2 * 60 * 60;// 2 hours
+    private static final long WINDOW_FLEX_SECONDS = 30 * 60;// 30 minutes
+
+    /**
+     * Requests within this time are coalesced into the same window
+     */
+    private static final long REQUEST_WINDOW_SECONDS = 30;
+
+    private static final String KEY_WINDOWS_SCHEDULED = "sync.windows.scheduled";
+
+    /**
+     * Schedule the periodic sync window, replacing any previous one. Must be called again
+     * whenever the network constraints (i.e. mobile data preference) change.
+     * The APK check task of previous versions, now part of the windows, is cancelled.
+     */
+    public static void schedule(Context context) {
+        ApkUpdateService.cancelLegacyTask(context);
+        boolean scheduled = false;
+        try {
+            PeriodicTask periodic = new PeriodicTask.Builder()
+                    .setService(SyncTaskService.class)
+                    .setTag(TAG_PERIODIC)
+                    .setPeriod(WINDOW_PERIOD_SECONDS)
+                    //specify how much earlier the task can be executed (in seconds)
+                    .setFlex(WINDOW_FLEX_SECONDS)
+                    .setPersisted(true)
+                    .setUpdateCurrent(true)
+                    .setRequiredNetwork(getRequiredNetwork(context))
+                    //charging is only required by some jobs, checked within the window
+                    .setRequiresCharging(false).build();
+            GcmNetworkManager.getInstance(context).schedule(periodic);
+            scheduled = true;
+        } catch (Exception e) {
+            Timber.e(e, "Could not schedule sync window");
+        }
+        new Prefs(context).setBoolean(KEY_WINDOWS_SCHEDULED, scheduled);
+    }
+
+    /**
+     * @return false if the sync windows could not be scheduled, i.e. without Google Play
+     * Services. Pending uploads then have to be retried on connectivity changes.
+     */
+    public static boolean isScheduled(Context context) {
+        return new Prefs(context).getBoolean(KEY_WINDOWS_SCHEDULED, false);
+    }
+
+    /**
+     * Request an extra sync window as soon as an allowed network is available, i.e. after
+     * a form submission. Requests made before the window starts share it.
+     * Without Google Play Services, the upload is started right away.
+     */
+    public static void requestSync(Context context) {
+        try {
+            OneoffTask request = new OneoffTask.Builder()
+                    .setService(SyncTaskService.class)
+                    .setTag(TAG_REQUEST)
+                    .setExecutionWindow(0, REQUEST_WINDOW_SECONDS)
+                    .setPersisted(true)
+                    .setUpdateCurrent(true)
+                    .setRequiredNetwork(getRequiredNetwork(context))
+                    .setRequiresCharging(false).build();
+            GcmNetworkManager.getInstance(context).schedule(request);
+        } catch (Exception e) {
+            Timber.e(e, "Could not request sync window. Starting upload now");
+            context.startService(new Intent(context, DataSyncService.class));
+        }
+    }
+
+    private static int getRequiredNetwork(Context context) {
+        boolean cellAllowed = new Prefs(context).getBoolean(Prefs.KEY_CELL_UPLOAD,
+                Prefs.DEFAULT_VALUE_CELL_UPLOAD);
+        return cellAllowed ? Task.NETWORK_STATE_CONNECTED : Task.NETWORK_STATE_UNMETERED;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.schedule;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which jobs run in a sync window. Jobs becoming due before the next window would
+ * start are pulled into the current one, so they share its radio wake-up instead of waiting
+ * for (or triggering) another one.
+ */
+public class SyncWindowPlanner {
+
+    /**
+     * Jobs requiring charging still run on battery once overdue by this factor of their
+     * interval, so they are not postponed forever on devices which are rarely charged.
+     */
+    static final int CHARGING_OVERDUE_FACTOR = 2;
+
+    private final long lookAhead;
+
+    /**
+     * @param lookAhead time, in millis, until the next window. Jobs due within it run now.
+     */
+    public SyncWindowPlanner(long lookAhead) {
+        this.lookAhead = lookAhead;
+    }
+
+    /**
+     * @param now      current time
+     * @param lastRuns time of the last run of each job. Missing jobs have never run.
+     * @param charging whether the device is charging
+     * @return the jobs to run in this window, in execution order
+     */
+    @NonNull
+    public List<SyncJob> getDueJobs(long now, @NonNull Map<SyncJob, Long> lastRuns,
+            boolean charging) {
+        List<SyncJob> jobs = new ArrayList<>();
+        for (SyncJob job : SyncJob.values()) {
+            Long lastRun = lastRuns.get(job);
+            if (lastRun == null || lastRun > now) {
+                // Never run, or the clock has been changed
+                lastRun = 0L;
+            }
+            final long elapsed = now - lastRun;
+            if (elapsed + lookAhead < job.getInterval()) {
+                continue;
+            }
+            if (job.requiresCharging() && !charging
+                    && elapsed < CHARGING_OVERDUE_FACTOR * job.getInterval()) {
+                continue;
+            }
+            jobs.add(job);
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.util.ConstantUtil;
+import org.akvo.flow.util.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Archive packing the form data of several survey instances of the same form, so they are
+ * uploaded and announced to the server at once. Every instance zip is copied as is into its
+ * own folder, named after the instance UUID (i.e. {@code <uuid>/data.json} and
+ * {@code <uuid>/.sig}), and an {@code index.json} entry lists the UUIDs inside.
+ * Batches are built at sync time out of the regular single instance zips, which are kept, so
+ * each instance still has its own transmission, and servers not supporting batches can still
+ * be sent single instance zips.
+ */
+public class BatchArchive {
+
+    public static final String INDEX_ENTRY = "index.json";
+    public static final String PREFIX = "batch-";
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int MIN_INSTANCES = 2;
+    public static final int MAX_INSTANCES = 50;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final String formId;
+    private final List<FileTransmission> transmissions;
+
+    BatchArchive(File file, String formId, List<FileTransmission> transmissions) {
+        this.file = file;
+        this.formId = formId;
+        this.transmissions = transmissions;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getFormId() {
+        return formId;
+    }
+
+    /**
+     * @return the transmissions of the single instance zips packed in this batch
+     */
+    public List<FileTransmission> getTransmissions() {
+        return transmissions;
+    }
+
+    /**
+     * Pack the pending form data transmissions in batch archives, grouped by form. Packed
+     * transmissions are removed from the given list; anything not packed (media files, lone
+     * instances, or zips that could not be read) is left in it.
+     *
+     * @param dir directory where the batch archives are created
+     */
+    @NonNull
+    public static List<BatchArchive> pack(@NonNull List<FileTransmission> transmissions,
+            @NonNull File dir) {
+        Map<String, List<FileTransmission>> forms = new LinkedHashMap<>();
+        for (FileTransmission transmission : transmissions) {
+            String filename = transmission.getFileName();
+            if (transmission.getFormId() == null || filename == null
+                    || !filename.endsWith(ConstantUtil.ARCHIVE_SUFFIX)
+                    || !new File(filename).exists()) {
+                continue;
+            }
+            List<FileTransmission> formTransmissions = forms.get(transmission.getFormId());
+            if (formTransmissions == null) {
+                formTransmissions = new ArrayList<>();
+                forms.put(transmission.getFormId(), formTransmissions);
+            }
+            formTransmissions.add(transmission);
+        }
+
+        List<BatchArchive> batches = new ArrayList<>();
+        for (Map.Entry<String, List<FileTransmission>> form : forms.entrySet()) {
+            List<FileTransmission> formTransmissions = form.getValue();
+            for (int i = 0; i < formTransmissions.size(); i += MAX_INSTANCES) {
+                List<FileTransmission> members = new ArrayList<>(formTransmissions
+                        .subList(i, Math.min(i + MAX_INSTANCES, formTransmissions.size())));
+                if (members.size() < MIN_INSTANCES) {
+                    continue;
+                }
+                File file = new File(dir, PREFIX + UUID.randomUUID() + ConstantUtil.ARCHIVE_SUFFIX);
+                try {
+                    write(file, members);
+                    batches.add(new BatchArchive(file, form.getKey(), members));
+                } catch (IOException e) {
+                    Timber.e(e, "Could not create batch archive for form %s", form.getKey());
+                    file.delete();
+                }
+            }
+        }
+
+        for (BatchArchive batch : batches) {
+            removeAll(transmissions, batch.getTransmissions());
+        }
+        return batches;
+    }
+
+    private static void removeAll(List<FileTransmission> transmissions,
+            List<FileTransmission> packed) {
+        // FileTransmission does not implement equals(). Remove by identity.
+        Iterator<FileTransmission> iterator = transmissions.iterator();
+        while (iterator.hasNext()) {
+            FileTransmission transmission = iterator.next();
+            for (FileTransmission p : packed) {
+                if (p == transmission) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    static void write(@NonNull File target, @NonNull List<FileTransmission> members)
+            throws IOException {
+        List<String> uuids = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipOutputStream zos = null;
+        try {
+            zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+            for (FileTransmission member : members) {
+                File source = new File(member.getFileName());
+                String uuid = getUuid(source);
+                copyEntries(source, uuid + "/", zos, buffer);
+                uuids.add(uuid);
+            }
+
+            zos.putNextEntry(new ZipEntry(INDEX_ENTRY));
+            JsonGenerator generator = new JsonFactory()
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .createGenerator(zos, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            generator.writeNumberField("version", FORMAT_VERSION);
+            generator.writeStringField("formId", members.get(0).getFormId());
+            generator.writeArrayFieldStart("instances");
+            for (String uuid : uuids) {
+                generator.writeString(uuid);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+            zos.closeEntry();
+        } finally {
+            FileUtil.close(zos);
+        }
+    }
+
+    private static void copyEntries(File source, String prefix, ZipOutputStream zos,
+            byte[] buffer) throws IOException {
+        ZipInputStream zis = null;
+        try {
+            zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(source)));
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                zos.putNextEntry(new ZipEntry(prefix + entry.getName()));
+                int read;
+                while ((read = zis.read(buffer)) != -1) {
+                    zos.write(buffer, 0, read);
+                }
+                zos.closeEntry();
+            }
+        } finally {
+            FileUtil.close(zis);
+        }
+    }
+
+    /**
+     * Single instance zips are named after the survey instance UUID
+     */
+    @NonNull
+    static String getUuid(@NonNull File source) {
+        String name = source.getName();
+        return name.substring(0, name.length() - ConstantUtil.ARCHIVE_SUFFIX.length());
+    }
+
+    /**
+     * Delete the archive. The single instance zips packed inside are kept.
+     */
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            Timber.w("Could not delete batch archive %s", file.getName());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d instances of form %s)", file.getName(),
+                transmissions.size(), formId);
+    }
+}
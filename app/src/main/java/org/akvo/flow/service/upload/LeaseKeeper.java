@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the leases of a sync pass alive while it runs. Transmissions are claimed for a limited
+ * time, so the ones left IN PROGRESS by a pass that died can be reclaimed once their lease
+ * expires. A live pass renews its leases periodically, a few times per lease duration, so that
+ * a slow upload is never mistaken for an abandoned one.
+ */
+public class LeaseKeeper {
+
+    /**
+     * Time a transmission is claimed for, unless renewed
+     */
+    public static final long LEASE_DURATION = TimeUnit.MINUTES.toMillis(30);
+
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    private final String owner;
+    private final long leaseDuration;
+    private final Renewer renewer;
+    private ScheduledExecutorService executor;
+
+    public LeaseKeeper(@NonNull String owner, @NonNull Renewer renewer) {
+        this(owner, LEASE_DURATION, renewer);
+    }
+
+    public LeaseKeeper(@NonNull String owner, long leaseDuration, @NonNull Renewer renewer) {
+        this.owner = owner;
+        this.leaseDuration = leaseDuration;
+        this.renewer = renewer;
+    }
+
+    @NonNull
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * Start renewing the leases in the background, until {@link #stop()} is called
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "lease-keeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final long period = Math.max(1, leaseDuration / RENEWALS_PER_LEASE);
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                renew();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Extend the leases of the owner by a full lease duration from now
+     */
+    void renew() {
+        try {
+            int renewed = renewer.renew(owner, System.currentTimeMillis() + leaseDuration);
+            Timber.d("Renewed %d leases of %s", renewed, owner);
+        } catch (RuntimeException e) {
+            // The next renewal may succeed before the leases expire
+            Timber.e(e, "Could not renew the leases of %s", owner);
+        }
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public interface Renewer {
+
+        /**
+         * Extend the leases held by the given owner up to the given time
+         *
+         * @return the number of renewed leases
+         */
+        int renew(@NonNull String owner, long expiry);
+    }
+}
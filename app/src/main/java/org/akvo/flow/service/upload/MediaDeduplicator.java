@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.util.ConstantUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content addressed view of the pending media files. Photos re-used across survey instances,
+ * or monitoring responses prefilled with the media of a previous submission, end up in
+ * several transmissions with the very same content. Media files are keyed by their digest, so
+ * each distinct blob is uploaded only once, and the rest of transmissions sharing its content
+ * are kept as references to it. Form data is never deduplicated, as every instance zip is
+ * unique.
+ */
+public class MediaDeduplicator {
+
+    /**
+     * Source of file digests, typically backed by the stored digests of
+     * {@link org.akvo.flow.util.FileDigestHelper}
+     */
+    public interface DigestSource {
+
+        /**
+         * @return hex digest of the file content, or null if the file cannot be read
+         */
+        @Nullable
+        String getDigest(@NonNull File file);
+    }
+
+    private final DigestSource digestSource;
+
+    public MediaDeduplicator(@NonNull DigestSource digestSource) {
+        this.digestSource = digestSource;
+    }
+
+    /**
+     * Remove from the list the media transmissions whose content is already uploaded by a
+     * previous transmission in it. The first transmission of each blob is kept, so the list
+     * order is preserved.
+     *
+     * @return references to be resolved once the blob is uploaded, keyed by the transmission
+     * uploading it. Only blobs with duplicates are included.
+     */
+    @NonNull
+    public Map<FileTransmission, List<FileTransmission>> deduplicate(
+            @NonNull List<FileTransmission> transmissions) {
+        // FileTransmission does not implement equals(). Key by identity.
+        Map<FileTransmission, List<FileTransmission>> references = new IdentityHashMap<>();
+        Map<String, FileTransmission> blobs = new HashMap<>();
+        Iterator<FileTransmission> iterator = transmissions.iterator();
+        while (iterator.hasNext()) {
+            FileTransmission transmission = iterator.next();
+            String key = getContentKey(transmission);
+            if (key == null) {
+                continue;
+            }
+            FileTransmission blob = blobs.get(key);
+            if (blob == null) {
+                blobs.put(key, transmission);
+                continue;
+            }
+            List<FileTransmission> blobReferences = references.get(blob);
+            if (blobReferences == null) {
+                blobReferences = new ArrayList<>();
+                references.put(blob, blobReferences);
+            }
+            blobReferences.add(transmission);
+            iterator.remove();
+        }
+        return references;
+    }
+
+    /**
+     * The content key includes the file extension, so a blob is only shared by files of the
+     * same content type.
+     *
+     * @return the content key of the media file, or null if it cannot be deduplicated
+     */
+    @Nullable
+    private String getContentKey(@NonNull FileTransmission transmission) {
+        String filename = transmission.getFileName();
+        if (filename == null || filename.lastIndexOf(".") < 0) {
+            return null;
+        }
+        String ext = filename.substring(filename.lastIndexOf(".")).toLowerCase(Locale.US);
+        if (ConstantUtil.ARCHIVE_SUFFIX.equals(ext)) {
+            return null;
+        }
+        File file = new File(filename);
+        if (!file.exists()) {
+            return null;
+        }
+        String digest = digestSource.getDigest(file);
+        return digest != null ? digest + ext : null;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for failed transmissions. The delay ceiling doubles with
+ * every consecutive failure, up to a maximum, and the actual delay is picked at random between
+ * half the ceiling and the ceiling itself, so devices failing at the same time (i.e. on a
+ * server outage) do not retry in lockstep.
+ */
+public class RetryBackoff {
+
+    static final long BASE_DELAY_MS = 60 * 1000;// 1 minute
+    static final long MAX_DELAY_MS = 6 * 60 * 60 * 1000;// 6 hours
+
+    /**
+     * Failures beyond this number are already capped by MAX_DELAY_MS
+     */
+    private static final int MAX_EXPONENT = 20;
+
+    private final Random random;
+
+    public RetryBackoff() {
+        this(new Random());
+    }
+
+    RetryBackoff(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * @param attempts number of consecutive failed attempts, starting at 1
+     * @return the delay, in millis, before the next attempt
+     */
+    public long getDelay(int attempts) {
+        int exponent = Math.min(Math.max(attempts, 1) - 1, MAX_EXPONENT);
+        long ceiling = Math.min(BASE_DELAY_MS << exponent, MAX_DELAY_MS);
+        long floor = ceiling / 2;
+        return floor + (long) (random.nextDouble() * (ceiling - floor));
+    }
+
+    /**
+     * @return the earliest time, in millis, the next attempt can be made
+     */
+    public long getNextAttemptTime(int attempts, long now) {
+        return now + getDelay(attempts);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.domain.FileTransmission;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Pre-flight check of the files about to be uploaded. Files re-queued after a crash, or
+ * reported missing by the server, may already be in S3. A HEAD request tells whether the
+ * remote object ETag matches the local digest, in which case the upload can be skipped.
+ * Checks are queued for the whole pending queue upfront and run on their own workers, so
+ * by the time an upload worker gets to a file its check is usually done, and the extra
+ * round trips do not add up sequentially.
+ */
+public class UploadPreflight {
+
+    public static final int WORKERS = 4;
+
+    private final ExecutorService executor;
+    private final Source source;
+
+    // FileTransmission does not implement equals(). Key by identity.
+    private final Map<FileTransmission, Future<Boolean>> checks = new IdentityHashMap<>();
+
+    public UploadPreflight(@NonNull Source source) {
+        this(WORKERS, source);
+    }
+
+    public UploadPreflight(int workers, @NonNull Source source) {
+        this.source = source;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, workers));
+    }
+
+    /**
+     * Queue the check of the given transmission, to be uploaded to the given object key
+     */
+    public synchronized void check(@NonNull FileTransmission transmission,
+            @NonNull final String objectKey) {
+        final File file = new File(transmission.getFileName());
+        checks.put(transmission, executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isUploaded(file, objectKey);
+            }
+        }));
+    }
+
+    /**
+     * Wait for the check of the given transmission.
+     *
+     * @return true if the file is already in S3. Unchecked transmissions, and any check
+     * that failed, are reported as not uploaded, so the file is uploaded as usual.
+     */
+    public boolean isUploaded(@NonNull FileTransmission transmission) {
+        Future<Boolean> check;
+        synchronized (this) {
+            check = checks.get(transmission);
+        }
+        if (check == null) {
+            return false;
+        }
+        try {
+            return check.get();
+        } catch (ExecutionException e) {
+            Timber.w("Could not check %s: %s", transmission.getFileName(),
+                    e.getCause().getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Cancel the pending checks
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private boolean isUploaded(@NonNull File file, @NonNull String objectKey)
+            throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        String remoteDigest = source.getRemoteDigest(objectKey);
+        if (remoteDigest == null) {
+            return false;
+        }
+        String localDigest = source.getLocalDigest(file);
+        return remoteDigest.equalsIgnoreCase(localDigest);
+    }
+
+    /**
+     * Digests compared by the check
+     */
+    public interface Source {
+
+        /**
+         * @return hex MD5 of the local file, or null if it cannot be read
+         */
+        @Nullable
+        String getLocalDigest(@NonNull File file);
+
+        /**
+         * @return ETag of the remote object, or null if there is no such object
+         */
+        @Nullable
+        String getRemoteDigest(@NonNull String objectKey) throws IOException;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.util.ConstantUtil;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Upload order of the pending transmissions. Files are grouped in tiers, form data first,
+ * then images and videos, so that a large media file does not hold back the submissions the
+ * dashboard needs first. Within a tier, older submissions go first, and tiers flagged as
+ * size ordered upload their smallest files first.
+ * Subclasses can tune the policy overriding {@link #getTier(FileTransmission)} and
+ * {@link #isSizeOrdered(int)}.
+ */
+public class UploadPriority implements Comparator<FileTransmission> {
+
+    public static final int TIER_FORM_DATA = 0;
+    public static final int TIER_IMAGE = 1;
+    public static final int TIER_VIDEO = 2;
+    public static final int TIER_OTHER = 3;
+
+    /**
+     * File sizes, read once per sort, as they are looked up on every comparison
+     */
+    private final Map<String, Long> sizes = new HashMap<>();
+
+    /**
+     * Sort the transmissions in upload order
+     */
+    public void sort(@NonNull List<FileTransmission> transmissions) {
+        sizes.clear();
+        for (FileTransmission transmission : transmissions) {
+            String filename = transmission.getFileName();
+            if (filename != null && !sizes.containsKey(filename)) {
+                sizes.put(filename, new File(filename).length());
+            }
+        }
+        Collections.sort(transmissions, this);
+        sizes.clear();
+    }
+
+    @Override
+    public int compare(FileTransmission lhs, FileTransmission rhs) {
+        int lhsTier = getTier(lhs);
+        int rhsTier = getTier(rhs);
+        if (lhsTier != rhsTier) {
+            return lhsTier < rhsTier ? -1 : 1;
+        }
+        int result = 0;
+        if (isSizeOrdered(lhsTier)) {
+            result = compare(getSize(lhs), getSize(rhs));
+        }
+        if (result == 0) {
+            result = compare(getId(lhs.getRespondentId()), getId(rhs.getRespondentId()));
+        }
+        if (result == 0) {
+            result = compare(getId(lhs.getId()), getId(rhs.getId()));
+        }
+        return result;
+    }
+
+    public int getTier(@NonNull FileTransmission transmission) {
+        String filename = transmission.getFileName();
+        if (filename == null) {
+            return TIER_OTHER;
+        }
+        filename = filename.toLowerCase(Locale.US);
+        if (filename.endsWith(ConstantUtil.ARCHIVE_SUFFIX)) {
+            return TIER_FORM_DATA;
+        } else if (filename.endsWith(ConstantUtil.JPG_SUFFIX)
+                || filename.endsWith(ConstantUtil.PNG_SUFFIX)) {
+            return TIER_IMAGE;
+        } else if (filename.endsWith(ConstantUtil.VIDEO_SUFFIX)) {
+            return TIER_VIDEO;
+        }
+        return TIER_OTHER;
+    }
+
+    /**
+     * @return true if the files in this tier are uploaded smallest first
+     */
+    public boolean isSizeOrdered(int tier) {
+        return tier == TIER_IMAGE;
+    }
+
+    private long getSize(@NonNull FileTransmission transmission) {
+        Long size = sizes.get(transmission.getFileName());
+        if (size == null) {
+            size = transmission.getFileName() != null ?
+                    new File(transmission.getFileName()).length() : 0L;
+        }
+        return size;
+    }
+
+    private static long getId(Long id) {
+        return id != null ? id : Long.MAX_VALUE;
+    }
+
+    private static int compare(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Outcome of an upload pass, rolled up per survey instance. A survey instance is only
+ * considered synced if every single one of its files in the pass was successfully uploaded.
+ * Files outside the pass are not accounted for here.
+ */
+public class UploadResult {
+
+    private final Set<Long> syncedInstances = new HashSet<>();
+    private final Set<Long> unsyncedInstances = new HashSet<>();
+    private int count = 0;
+
+    public void add(long surveyInstanceId, boolean synced) {
+        if (synced) {
+            syncedInstances.add(surveyInstanceId);
+        } else {
+            unsyncedInstances.add(surveyInstanceId);
+        }
+        count++;
+    }
+
+    /**
+     * Record a failure found after the upload itself, such as a rejected server notification
+     */
+    public void addFailure(long surveyInstanceId) {
+        unsyncedInstances.add(surveyInstanceId);
+    }
+
+    /**
+     * Number of transmissions whose outcome has been recorded
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return every survey instance with a transmission in the pass
+     */
+    @NonNull
+    public Set<Long> getInstances() {
+        Set<Long> instances = new HashSet<>(syncedInstances);
+        instances.addAll(unsyncedInstances);
+        return instances;
+    }
+
+    @NonNull
+    public Set<Long> getSyncedInstances() {
+        Set<Long> synced = new HashSet<>(syncedInstances);
+        synced.removeAll(unsyncedInstances);
+        return synced;
+    }
+
+    @NonNull
+    public Set<Long> getUnsyncedInstances() {
+        return new HashSet<>(unsyncedInstances);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.util.BoundedWorkerPool;
+
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Bounded pool of upload workers. Every transmission is handed to the given
+ * {@link FileUploader} on one of the workers, which is responsible for updating the
+ * transmission status. Outcomes are rolled up per survey instance only once every
+ * upload has finished, so the order in which workers complete does not matter.
+ */
+public class UploadWorkerPool {
+
+    public static final int MIN_WORKERS = 1;
+    public static final int MAX_WORKERS = 6;
+
+    private final BoundedWorkerPool pool;
+
+    public UploadWorkerPool(int workers) {
+        this.pool = new BoundedWorkerPool(workers, MIN_WORKERS, MAX_WORKERS);
+    }
+
+    public int getWorkers() {
+        return pool.getWorkers();
+    }
+
+    @NonNull
+    public UploadResult upload(@NonNull List<FileTransmission> transmissions,
+            @NonNull final FileUploader uploader) {
+        List<Boolean> synced = pool.run(transmissions,
+                new BoundedWorkerPool.Task<FileTransmission, Boolean>() {
+                    @Override
+                    public Boolean run(@NonNull FileTransmission transmission) {
+                        return uploader.upload(transmission);
+                    }
+
+                    @Override
+                    public void onError(@NonNull FileTransmission transmission,
+                            @NonNull Throwable error) {
+                        Timber.e(error, "Error uploading %s", transmission.getFileName());
+                    }
+                });
+
+        // Failed uploads, and the ones not completed if interrupted, can not be considered synced
+        UploadResult result = new UploadResult();
+        for (int i = 0; i < transmissions.size(); i++) {
+            result.add(transmissions.get(i).getRespondentId(), Boolean.TRUE.equals(synced.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Uploads a single file. Implementations are invoked concurrently.
+     */
+    public interface FileUploader {
+
+        /**
+         * @return true if the file has been successfully synced, false otherwise
+         */
+        boolean upload(@NonNull FileTransmission transmission);
+    }
+}
@@ -87,6 +87,17 @@ public class FileTransmissionArrayAdapter extends ArrayAdapter<FileTransmission>
         ((TextView) view.findViewById(R.id.startdate)).setText(startDate);
         ((TextView) view.findViewById(R.id.enddate)).setText(endDate);
         ((TextView) view.findViewById(R.id.filename)).setText(trans.getFileName());
+        ((TextView) view.findViewById(R.id.metrics)).setText(getContext().getString(
+                R.string.transmission_metrics, trans.getBytes() / 1024, trans.getDuration(),
+                trans.getFirstByteTime(), trans.getAttempts()));
+        TextView lastError = (TextView) view.findViewById(R.id.last_error);
+        if (trans.getLastError() != null) {
+            lastError.setText(getContext().getString(R.string.transmission_error,
+                    trans.getLastError()));
+            lastError.setVisibility(View.VISIBLE);
+        } else {
+            lastError.setVisibility(View.GONE);
+        }
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Runs a task for every item on a bounded number of threads, created for each run and shut
+ * down once it is over. Results are collected in the order of the items, whatever the order
+ * in which the tasks complete.
+ */
+public class BoundedWorkerPool {
+
+    private final int workers;
+
+    /**
+     * @param workers requested number of workers, clamped between min and max
+     */
+    public BoundedWorkerPool(int workers, int min, int max) {
+        this.workers = Math.max(min, Math.min(max, workers));
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Run the task for every item. If interrupted, pending tasks are cancelled and the
+     * interrupted status of the calling thread is restored.
+     *
+     * @return the task results, in the same order as the items. Tasks that failed, or did not
+     * complete, have a null result.
+     */
+    @NonNull
+    public <I, R> List<R> run(@NonNull List<I> items, @NonNull final Task<I, R> task) {
+        final int size = items.size();
+        List<R> results = new ArrayList<>(size);
+        if (size == 0) {
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, size));
+        List<Future<R>> futures = new ArrayList<>(size);
+        try {
+            for (final I item : items) {
+                futures.add(executor.submit(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        return task.run(item);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < size; i++) {
+                R result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    // A failed task does not prevent the others from completing
+                    task.onError(items.get(i), e.getCause());
+                    result = null;
+                }
+                results.add(result);
+            }
+        } catch (InterruptedException e) {
+            Timber.w("Worker pool interrupted. %d tasks not completed", size - results.size());
+            while (results.size() < size) {
+                results.add(null);
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Processes a single item. Implementations are invoked concurrently.
+     */
+    public interface Task<I, R> {
+
+        @Nullable
+        R run(@NonNull I item) throws Exception;
+
+        /**
+         * Called on the calling thread for every task that threw an exception
+         */
+        void onError(@NonNull I item, @NonNull Throwable error);
+    }
+}
@@ -177,6 +177,7 @@ public class ConstantUtil {
     public static final String S3_BUCKET = "awsBucket";
     public static final String S3_ACCESSKEY = "awsAccessKeyId";
     public static final String S3_SECRET = "awsSecretKey";
+    public static final String S3_REGION = "awsRegion";
     public static final String SENTRY_DSN = "sentryDsn";
 
     /**
@@ -247,14 +248,6 @@ public class ConstantUtil {
     public static final String ACTION_LOCALE_SYNC = "fieldsurvey.ACTION_LOCALES_SYNC";
     public static final String ACTION_DATA_SYNC = "fieldsurvey.ACTION_DATA_SYNC";
 
-    //apk update
-    public static final int REPEAT_INTERVAL_IN_SECONDS = 1 * 60 * 60 * 24; //every 24Hrs
-    public static final int FLEX_INTERVAL_IN_SECONDS = 1 * 60 * 60; //1 hour
-
-    //first runs will be faster
-    public static final int FIRST_REPEAT_INTERVAL_IN_SECONDS = 1 * 60;
-    public static final int FIRST_FLEX_INTERVAL_IN_SECOND = 30;
-
     /**
      * 7 days
      */
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.akvo.flow.data.database.SurveyDbAdapter;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import timber.log.Timber;
+
+/**
+ * Keeps track of the MD5 digest of local files, so they are hashed only once. Digests are
+ * ideally computed while the file is written, and stored along with the file size and
+ * modification date. Any later change in the file invalidates the stored value.
+ */
+public class FileDigestHelper {
+
+    private static final String MD5 = "MD5";
+
+    private final Context context;
+
+    public FileDigestHelper(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @NonNull
+    public static MessageDigest newMd5Digest() {
+        try {
+            return MessageDigest.getInstance(MD5);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the MD5 digest of the given file. The stored value will be used if the file has not
+     * changed since it was computed. Otherwise, the file will be hashed and the result stored.
+     *
+     * @return raw MD5 digest, or null if the file cannot be read
+     */
+    @Nullable
+    public byte[] getMd5(@NonNull File file) {
+        String hexMd5 = getHexMd5(file);
+        return hexMd5 != null ? FileUtil.hexToBytes(hexMd5) : null;
+    }
+
+    @Nullable
+    public String getHexMd5(@NonNull File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        final String filename = file.getAbsolutePath();
+        SurveyDbAdapter database = new SurveyDbAdapter(context).open();
+        try {
+            String md5 = database.getFileDigest(filename, file.length(), file.lastModified());
+            if (md5 == null) {
+                Timber.d("No digest found for %s. Computing it", file.getName());
+                md5 = FileUtil.hexMd5(FileUtil.getMD5Checksum(file));
+                if (md5 != null) {
+                    database.saveFileDigest(filename, md5, file.length(), file.lastModified());
+                }
+            }
+            return md5;
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Store the digest computed while writing the given file. It must be called once the file
+     * has been closed, so size and modification date are final.
+     */
+    public void saveMd5(@NonNull File file, @NonNull byte[] md5) {
+        SurveyDbAdapter database = new SurveyDbAdapter(context).open();
+        try {
+            database.saveFileDigest(file.getAbsolutePath(), FileUtil.hexMd5(md5), file.length(),
+                    file.lastModified());
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Discard the stored digest, forcing the file to be hashed again next time
+     */
+    public void invalidate(@NonNull File file) {
+        SurveyDbAdapter database = new SurveyDbAdapter(context).open();
+        try {
+            database.deleteFileDigest(file.getAbsolutePath());
+        } finally {
+            database.close();
+        }
+    }
+}
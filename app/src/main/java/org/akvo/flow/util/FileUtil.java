@@ -247,6 +247,18 @@ public class FileUtil {
         return hexMd5(getMD5Checksum(file));
     }
 
+    /**
+     * Inverse of {@link #hexMd5(byte[])}
+     */
+    public static byte[] hexToBytes(String hex) {
+        final int length = hex.length() / 2;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
     /**
      * Compare to images to determine if their content is the same. To state
      * that the two of them are the same, the datetime contained in their exif
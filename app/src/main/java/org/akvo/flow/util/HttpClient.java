@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Process-wide HTTP client, shared by the Flow API, S3 and APK downloads. Connections are
+ * released instead of disconnected, so the underlying sockets are kept alive and pooled
+ * by HttpURLConnection, and every HTTPS connection uses the same SSLSocketFactory, so TLS
+ * sessions are resumed instead of negotiated from scratch. Every connection gets the
+ * configured timeouts, stretched on poor networks, and is accounted for in the request
+ * metrics and the {@link NetworkQuality} estimate. Threads can also account the requests of a
+ * single transfer with {@link #beginTransfer()} and {@link #endTransfer()}.
+ */
+public class HttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * Idle connections kept alive per host. Matches the maximum upload concurrency.
+     */
+    private static final String MAX_CONNECTIONS = "8";
+
+    /**
+     * Error responses bigger than this are not drained, and their socket is not reused
+     */
+    private static final int MAX_DRAINED_BYTES = 64 * 1024;
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+    private static final HttpClient INSTANCE = new HttpClient();
+
+    private final SSLSocketFactory sslSocketFactory;
+    private final HttpMetrics metrics = new HttpMetrics();
+    private final NetworkQuality networkQuality = new NetworkQuality();
+    private final Map<HttpURLConnection, Long> openConnections = Collections
+            .synchronizedMap(new WeakHashMap<HttpURLConnection, Long>());
+    private final ThreadLocal<TransferStats> transfers = new ThreadLocal<>();
+
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MS;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT_MS;
+
+    private HttpClient() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", MAX_CONNECTIONS);
+        sslSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+
+    public static HttpClient getInstance() {
+        return INSTANCE;
+    }
+
+    public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeout = connectTimeoutMs;
+        this.readTimeout = readTimeoutMs;
+    }
+
+    @NonNull
+    public HttpMetrics getMetrics() {
+        return metrics;
+    }
+
+    @NonNull
+    public NetworkQuality getNetworkQuality() {
+        return networkQuality;
+    }
+
+    /**
+     * Start accounting the requests released by the calling thread as a single transfer
+     */
+    public void beginTransfer() {
+        transfers.set(new TransferStats(System.currentTimeMillis()));
+    }
+
+    /**
+     * Stop accounting the requests of the calling thread
+     *
+     * @return the figures of the transfer started with {@link #beginTransfer()}
+     */
+    @NonNull
+    public TransferStats endTransfer() {
+        final long now = System.currentTimeMillis();
+        TransferStats stats = transfers.get();
+        transfers.remove();
+        if (stats == null) {
+            stats = new TransferStats(now);
+        }
+        stats.finish(now);
+        return stats;
+    }
+
+    @NonNull
+    public HttpURLConnection open(@NonNull String url) throws IOException {
+        return open(new URL(url));
+    }
+
+    /**
+     * Open a new connection. It must be handed back with {@link #release(HttpURLConnection)}
+     * once the response has been read.
+     */
+    @NonNull
+    public HttpURLConnection open(@NonNull URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        final int timeoutFactor = networkQuality.getTimeoutFactor();
+        conn.setConnectTimeout(connectTimeout * timeoutFactor);
+        conn.setReadTimeout(readTimeout * timeoutFactor);
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+        }
+        openConnections.put(conn, System.currentTimeMillis());
+        return conn;
+    }
+
+    /**
+     * Hand the connection back once its response has been read and closed. The connection is
+     * not disconnected, so the socket stays in the keep-alive pool for the next request. The
+     * body of error responses, which callers do not read, is drained here, and the connection
+     * is only disconnected if that fails. The input stream is deliberately not touched:
+     * requesting it for a connection whose request failed would send it again.
+     */
+    public void release(@Nullable HttpURLConnection conn) {
+        release(conn, 0);
+    }
+
+    /**
+     * Release the connection of a completed transfer, sampling the network throughput
+     *
+     * @param bytes size of the request or response payload
+     */
+    public void release(@Nullable HttpURLConnection conn, long bytes) {
+        if (conn == null) {
+            return;
+        }
+        drainErrorStream(conn);
+        Long duration = record(conn);
+        if (duration != null) {
+            networkQuality.addSample(bytes, duration);
+            onTransferRequest(bytes);
+        }
+    }
+
+    /**
+     * Close the connection without reusing its socket, i.e. for interrupted transfers
+     */
+    public void abort(@Nullable HttpURLConnection conn) {
+        if (conn == null) {
+            return;
+        }
+        conn.disconnect();
+        if (record(conn) != null) {
+            onTransferRequest(0);
+        }
+    }
+
+    /**
+     * Read what is left of an error response, so that its socket can be reused. Big or broken
+     * error responses are not worth reading, and their connection is disconnected instead.
+     */
+    private static void drainErrorStream(@NonNull HttpURLConnection conn) {
+        InputStream in = conn.getErrorStream();
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            long drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAINED_BYTES) {
+                    conn.disconnect();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        } finally {
+            FileUtil.close(in);
+        }
+    }
+
+    private void onTransferRequest(long bytes) {
+        TransferStats stats = transfers.get();
+        if (stats != null) {
+            stats.onRequest(bytes, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return the time the connection has been open, in millis, or null if unknown
+     */
+    @Nullable
+    private Long record(@NonNull HttpURLConnection conn) {
+        Long start = openConnections.remove(conn);
+        if (start == null) {
+            return null;
+        }
+        long duration = System.currentTimeMillis() - start;
+        metrics.record(duration);
+        return duration;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.akvo.flow.util;
+
+import java.util.Locale;
+
+/**
+ * Request counters of the shared {@link HttpClient}
+ */
+public class HttpMetrics {
+
+    private long requests = 0;
+    private long totalTime = 0;
+    private long maxTime = 0;
+    private long receivedBytes = 0;
+    private long decodedBytes = 0;
+
+    synchronized void record(long durationMs) {
+        requests++;
+        totalTime += durationMs;
+        maxTime = Math.max(maxTime, durationMs);
+    }
+
+    /**
+     * @param received bytes of the response body, as sent over the wire
+     * @param decoded bytes of the response body once decompressed
+     */
+    synchronized void recordResponse(long received, long decoded) {
+        receivedBytes += received;
+        decodedBytes += decoded;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Average time, in milliseconds, between opening a connection and releasing it
+     */
+    public synchronized long getAverageTime() {
+        return requests > 0 ? totalTime / requests : 0;
+    }
+
+    public synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public synchronized long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /**
+     * Bandwidth saved by compressed responses, in bytes
+     */
+    public synchronized long getSavedBytes() {
+        return decodedBytes - receivedBytes;
+    }
+
+    /**
+     * @return a copy of the current counters
+     */
+    public synchronized HttpMetrics snapshot() {
+        HttpMetrics snapshot = new HttpMetrics();
+        snapshot.requests = requests;
+        snapshot.totalTime = totalTime;
+        snapshot.maxTime = maxTime;
+        snapshot.receivedBytes = receivedBytes;
+        snapshot.decodedBytes = decodedBytes;
+        return snapshot;
+    }
+
+    /**
+     * Counters accumulated since the given snapshot was taken. The counters are shared by every
+     * user of the client, so they are never reset: the delta includes the requests made by any
+     * other thread in the meantime. The max time can not be derived from two snapshots, and is
+     * the one of the current counters.
+     */
+    public synchronized HttpMetrics since(HttpMetrics snapshot) {
+        HttpMetrics delta = new HttpMetrics();
+        delta.requests = requests - snapshot.getRequests();
+        delta.totalTime = totalTime - snapshot.getTotalTime();
+        delta.maxTime = maxTime;
+        delta.receivedBytes = receivedBytes - snapshot.getReceivedBytes();
+        delta.decodedBytes = decodedBytes - snapshot.getDecodedBytes();
+        return delta;
+    }
+
+    private synchronized long getTotalTime() {
+        return totalTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "%d requests, avg: %d ms, max: %d ms, received: %d bytes, saved: %d bytes",
+                requests, getAverageTime(), maxTime, receivedBytes, getSavedBytes());
+    }
+}
@@ -31,6 +31,7 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -38,9 +39,9 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Simple utility to make http calls and read the responses
@@ -52,24 +53,56 @@ public class HttpUtil {
     private static final String TAG = HttpUtil.class.getSimpleName();
     private static final int BUFFER_SIZE = 8192;
 
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_IDENTITY = "identity";
+
     @NonNull
     public static String httpGet(String url) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) (new URL(url).openConnection());
+        HttpURLConnection conn = HttpClient.getInstance().open(url);
         final long t0 = System.currentTimeMillis();
+        ResponseStream in = null;
 
         try {
+            setAcceptEncoding(conn, true);
             int status = getStatusCode(conn);
             if (status != HttpURLConnection.HTTP_OK) {
                 throw new HttpException(conn.getResponseMessage(), status);
             }
-            InputStream in = new BufferedInputStream(conn.getInputStream());
+            in = getResponseStream(conn);
             String response = readStream(in);
             Log.d(TAG, url + ": " + (System.currentTimeMillis() - t0) + " ms");
             return response;
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            FileUtil.close(in);
+            HttpClient.getInstance().release(conn, in != null ? in.getReceivedBytes() : 0);
+        }
+    }
+
+    /**
+     * Perform a GET request, handing the response stream to the given reader as it arrives,
+     * so the response does not need to be held in memory
+     *
+     * @return the outcome of the reader
+     */
+    public static <T> T httpGet(String url, @NonNull StreamReader<T> reader) throws IOException {
+        HttpURLConnection conn = HttpClient.getInstance().open(url);
+        final long t0 = System.currentTimeMillis();
+        ResponseStream in = null;
+
+        try {
+            setAcceptEncoding(conn, true);
+            int status = getStatusCode(conn);
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new HttpException(conn.getResponseMessage(), status);
             }
+            in = getResponseStream(conn);
+            T result = reader.read(in);
+            Log.d(TAG, url + ": " + (System.currentTimeMillis() - t0) + " ms");
+            return result;
+        } finally {
+            FileUtil.close(in);
+            HttpClient.getInstance().release(conn, in != null ? in.getReceivedBytes() : 0);
         }
     }
 
@@ -77,8 +110,11 @@ public class HttpUtil {
         InputStream in = null;
         OutputStream out = null;
         HttpURLConnection conn = null;
+        long transferred = 0;
         try {
-            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn = HttpClient.getInstance().open(url);
+            // Stored as is. The transfer size is the size of the file.
+            setAcceptEncoding(conn, false);
 
             in = new BufferedInputStream(conn.getInputStream());
             out = new BufferedOutputStream(new FileOutputStream(dst));
@@ -90,10 +126,9 @@ public class HttpUtil {
                 // TODO: Use custom exception?
                 throw new IOException("Status Code: " + status + ". Expected: 200 - OK");
             }
+            transferred = dst.length();
         } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
+            HttpClient.getInstance().release(conn, transferred);
             FileUtil.close(in);
             FileUtil.close(out);
         }
@@ -108,9 +143,10 @@ public class HttpUtil {
         Writer writer;
         HttpURLConnection conn = null;
         try {
-            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn = HttpClient.getInstance().open(url);
             conn.setDoInput(true);
             conn.setDoOutput(true);
+            setAcceptEncoding(conn, true);
 
             out = new BufferedOutputStream(conn.getOutputStream());
             writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
@@ -119,7 +155,7 @@ public class HttpUtil {
             writer.flush();
             writer.close();
 
-            in = new BufferedInputStream(conn.getInputStream());
+            in = getResponseStream(conn);
 
             int status = getStatusCode(conn);
             if (status != HttpURLConnection.HTTP_OK) {
@@ -127,14 +163,67 @@ public class HttpUtil {
             }
             return readStream(in);
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            HttpClient.getInstance().release(conn);
+            FileUtil.close(out);
+            FileUtil.close(in);
+        }
+    }
+
+    /**
+     * does an HTTP Post to the url specified, sending the given JSON document as the body
+     */
+    @NonNull
+    public static String httpPostJson(String url, @NonNull String json) throws IOException {
+        OutputStream out = null;
+        InputStream in = null;
+        HttpURLConnection conn = null;
+        try {
+            final byte[] body = json.getBytes("UTF-8");
+            conn = HttpClient.getInstance().open(url);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            setAcceptEncoding(conn, true);
+
+            out = new BufferedOutputStream(conn.getOutputStream());
+            out.write(body);
+            out.flush();
+
+            int status = getStatusCode(conn);
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new HttpException(conn.getResponseMessage(), status);
             }
+            in = getResponseStream(conn);
+            return readStream(in);
+        } finally {
+            HttpClient.getInstance().release(conn);
             FileUtil.close(out);
             FileUtil.close(in);
         }
     }
 
+    /**
+     * Negotiate the encoding of the response. Left alone, HttpURLConnection asks for gzip on
+     * its own and decodes it transparently, hiding the size actually received.
+     *
+     * @param gzip whether a compressed response is accepted, or the raw bytes are needed
+     */
+    public static void setAcceptEncoding(@NonNull HttpURLConnection conn, boolean gzip) {
+        conn.setRequestProperty(HEADER_ACCEPT_ENCODING, gzip ? ENCODING_GZIP : ENCODING_IDENTITY);
+    }
+
+    /**
+     * @return the response body, decoded if the server compressed it
+     */
+    @NonNull
+    private static ResponseStream getResponseStream(@NonNull HttpURLConnection conn)
+            throws IOException {
+        return new ResponseStream(conn.getInputStream(),
+                ENCODING_GZIP.equalsIgnoreCase(conn.getContentEncoding()),
+                HttpClient.getInstance().getMetrics());
+    }
+
     private static int getStatusCode(@NonNull HttpURLConnection conn) throws IOException {
         try {
             return conn.getResponseCode();
@@ -161,7 +250,7 @@ public class HttpUtil {
         return builder.length() > 0 ? builder.substring(1) : builder.toString();
     }
 
-    private static String readStream(@NonNull InputStream in) throws IOException {
+    public static String readStream(@NonNull InputStream in) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
         StringBuilder builder = new StringBuilder();
 
@@ -185,4 +274,97 @@ public class HttpUtil {
             out.write(b, 0, read);
         }
     }
+
+    public interface StreamReader<T> {
+
+        T read(@NonNull InputStream in) throws IOException;
+    }
+
+    /**
+     * Response body, decoding gzip responses on the fly. Keeps count of the bytes received,
+     * to sample the throughput, and of the bytes decoded from them. Closing it records both
+     * in the {@link HttpMetrics}.
+     */
+    static class ResponseStream extends FilterInputStream {
+
+        private final CountingInputStream received;
+        private final CountingInputStream decoded;
+        private final HttpMetrics metrics;
+        private boolean closed = false;
+
+        ResponseStream(@NonNull InputStream in, boolean compressed, @NonNull HttpMetrics metrics)
+                throws IOException {
+            this(new CountingInputStream(new BufferedInputStream(in, BUFFER_SIZE)), compressed,
+                    metrics);
+        }
+
+        private ResponseStream(@NonNull CountingInputStream received, boolean compressed,
+                @NonNull HttpMetrics metrics) throws IOException {
+            this(received, new CountingInputStream(compressed ?
+                    new GZIPInputStream(received, BUFFER_SIZE) : received), metrics);
+        }
+
+        private ResponseStream(@NonNull CountingInputStream received,
+                @NonNull CountingInputStream decoded, @NonNull HttpMetrics metrics) {
+            super(decoded);
+            this.received = received;
+            this.decoded = decoded;
+            this.metrics = metrics;
+        }
+
+        long getReceivedBytes() {
+            return received.getCount();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                metrics.recordResponse(received.getCount(), decoded.getCount());
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Keeps count of the bytes read
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
 }
@@ -37,9 +37,11 @@ public class MediaFileHelper {
     private static final String VIDEO_SUFFIX = ".mp4";
 
     private final Context context;
+    private final FileDigestHelper digestHelper;
 
     public MediaFileHelper(Context context) {
         this.context = context;
+        this.digestHelper = new FileDigestHelper(context);
     }
 
     @NonNull
@@ -62,6 +64,9 @@ public class MediaFileHelper {
             // must check  return  value to  know if it  failed!
             Timber.e("Media file rename failed");
         }
+        // Record the digest now, while the (small) image is likely still in the page cache.
+        // Videos are hashed lazily on their first upload.
+        digestHelper.getHexMd5(imgFile);
         return absolutePath;
     }
 
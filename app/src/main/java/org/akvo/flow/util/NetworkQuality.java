@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Estimate of the current network quality, measured on the app's own HTTP traffic.
+ * Round trip times are sampled from small requests, and throughput from large transfers,
+ * each smoothed with an exponentially weighted moving average, so the estimate follows
+ * changes in the connection without jumping on a single slow request.
+ * The sync uses the estimate to adapt its concurrency, timeouts and multipart part size.
+ */
+public class NetworkQuality {
+
+    public enum Level {
+        UNKNOWN, POOR, MODERATE, GOOD
+    }
+
+    /**
+     * Transfers smaller than this are dominated by latency, and sampled as round trips
+     */
+    static final long MIN_TRANSFER_SAMPLE_BYTES = 32 * 1024;
+
+    static final long GOOD_RTT_MS = 400;
+    static final long POOR_RTT_MS = 2000;
+    static final long GOOD_THROUGHPUT_KBPS = 1000;
+    static final long POOR_THROUGHPUT_KBPS = 150;
+
+    /**
+     * Weight of every new sample in the moving averages
+     */
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    private double rttMs = -1;
+    private double throughputKbps = -1;
+
+    /**
+     * Record a completed request
+     *
+     * @param bytes      payload bytes sent or received
+     * @param durationMs time from opening the connection to releasing it
+     */
+    public synchronized void addSample(long bytes, long durationMs) {
+        durationMs = Math.max(durationMs, 1);
+        if (bytes < MIN_TRANSFER_SAMPLE_BYTES) {
+            rttMs = average(rttMs, durationMs);
+        } else {
+            throughputKbps = average(throughputKbps, bytes * 8.0 / durationMs);// bits/ms = kbps
+        }
+    }
+
+    private static double average(double current, double sample) {
+        return current < 0 ? sample : current + SAMPLE_WEIGHT * (sample - current);
+    }
+
+    /**
+     * @return the estimated round trip time in millis, or -1 if unknown
+     */
+    public synchronized long getRtt() {
+        return Math.round(rttMs);
+    }
+
+    /**
+     * @return the estimated throughput in kbps, or -1 if unknown
+     */
+    public synchronized long getThroughput() {
+        return Math.round(throughputKbps);
+    }
+
+    @NonNull
+    public synchronized Level getLevel() {
+        if (rttMs < 0 && throughputKbps < 0) {
+            return Level.UNKNOWN;
+        }
+        if (rttMs > POOR_RTT_MS || (throughputKbps >= 0 && throughputKbps < POOR_THROUGHPUT_KBPS)) {
+            return Level.POOR;
+        }
+        if (rttMs <= GOOD_RTT_MS && (throughputKbps < 0 || throughputKbps > GOOD_THROUGHPUT_KBPS)) {
+            return Level.GOOD;
+        }
+        return Level.MODERATE;
+    }
+
+    /**
+     * Concurrent uploads on slow links only compete for the same bandwidth, and make every
+     * single upload more likely to time out.
+     */
+    public int getUploadWorkers(int configuredWorkers) {
+        switch (getLevel()) {
+            case POOR:
+                return 1;
+            case MODERATE:
+                return Math.min(configuredWorkers, 2);
+            default:
+                return configuredWorkers;
+        }
+    }
+
+    /**
+     * @return the multiplier to apply to the configured socket timeouts
+     */
+    public int getTimeoutFactor() {
+        return getLevel() == Level.POOR ? 2 : 1;
+    }
+
+    public synchronized void reset() {
+        rttMs = -1;
+        throughputKbps = -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s (rtt: %d ms, throughput: %d kbps)", getLevel(),
+                getRtt(), getThroughput());
+    }
+}
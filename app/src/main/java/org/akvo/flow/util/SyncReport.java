@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.SyncSession;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Plain text report of the sync metrics, to be shared with field support. Sessions and
+ * transmissions are written as two CSV tables, with dates in UTC.
+ */
+public class SyncReport {
+
+    private static final String SESSION_HEADER = "session_start,exported,files,failed,bytes,"
+            + "export_ms,upload_ms,notify_ms,files_per_sec,mb_per_sec";
+    private static final String TRANSMISSION_HEADER = "file,status,bytes,first_byte_ms,"
+            + "duration_ms,attempts,last_error";
+
+    private final DateFormat dateFormat;
+
+    public SyncReport() {
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @NonNull
+    public String format(@NonNull List<SyncSession> sessions,
+            @NonNull List<FileTransmission> transmissions) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(SESSION_HEADER).append('\n');
+        for (SyncSession session : sessions) {
+            builder.append(dateFormat.format(new Date(session.getStart()))).append(',')
+                    .append(session.getExported()).append(',')
+                    .append(session.getFiles()).append(',')
+                    .append(session.getFailed()).append(',')
+                    .append(session.getBytes()).append(',')
+                    .append(session.getExportTime()).append(',')
+                    .append(session.getUploadTime()).append(',')
+                    .append(session.getNotifyTime()).append(',')
+                    .append(String.format(Locale.US, "%.2f", session.getFilesPerSecond()))
+                    .append(',')
+                    .append(String.format(Locale.US, "%.3f", session.getMegabytesPerSecond()))
+                    .append('\n');
+        }
+
+        builder.append('\n').append(TRANSMISSION_HEADER).append('\n');
+        for (FileTransmission transmission : transmissions) {
+            builder.append(escape(getName(transmission.getFileName()))).append(',')
+                    .append(transmission.getStatus()).append(',')
+                    .append(transmission.getBytes()).append(',')
+                    .append(transmission.getFirstByteTime()).append(',')
+                    .append(transmission.getDuration()).append(',')
+                    .append(transmission.getAttempts()).append(',')
+                    .append(escape(transmission.getLastError()))
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Only the file name is reported. Paths tell nothing to support staff.
+     */
+    private static String getName(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        return filename.substring(filename.lastIndexOf('/') + 1);
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
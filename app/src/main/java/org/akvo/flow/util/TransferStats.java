@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.akvo.flow.util;
+
+/**
+ * Transfer figures of a single file, possibly spanning several requests (i.e. multipart
+ * uploads or retries). Accounted by {@link HttpClient} for the requests made by the thread
+ * that started the transfer.
+ */
+public class TransferStats {
+
+    private final long start;
+    private long end = -1;
+    private long firstResponse = -1;
+    private long bytes = 0;
+    private int requests = 0;
+
+    TransferStats(long start) {
+        this.start = start;
+    }
+
+    void onRequest(long bytes, long time) {
+        requests++;
+        this.bytes += bytes;
+        if (firstResponse < 0) {
+            firstResponse = time;
+        }
+    }
+
+    void finish(long time) {
+        end = time;
+    }
+
+    /**
+     * Payload bytes sent or received
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Time, in milliseconds, from the start of the transfer to the first completed request,
+     * or 0 if no request was made
+     */
+    public long getFirstByteTime() {
+        return firstResponse < 0 ? 0 : firstResponse - start;
+    }
+
+    /**
+     * Total time of the transfer, in milliseconds
+     */
+    public long getDuration() {
+        return end < 0 ? 0 : end - start;
+    }
+}
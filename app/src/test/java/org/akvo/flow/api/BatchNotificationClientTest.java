@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.akvo.flow.domain.ProcessingNotification;
+import org.akvo.flow.exception.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+public class BatchNotificationClientTest {
+
+    private HttpServer server;
+    private String url;
+
+    /**
+     * Status replied by the stand-in server for the whole batch request
+     */
+    private int batchStatus = 200;
+    private int requests = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        // Local stand-in for the processor endpoint: form "404" has been deleted
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/processor", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests++;
+                byte[] body = new byte[0];
+                if (batchStatus == 200) {
+                    JsonNode files = new ObjectMapper().readTree(exchange.getRequestBody())
+                            .get("files");
+                    StringBuilder results = new StringBuilder("{\"results\":[");
+                    for (int i = 0; i < files.size(); i++) {
+                        JsonNode file = files.get(i);
+                        int status = "404".equals(file.get("formID").asText()) ? 404 : 200;
+                        results.append(i > 0 ? "," : "").append("{\"fileName\":\"")
+                                .append(file.get("fileName").asText())
+                                .append("\",\"status\":").append(status).append("}");
+                    }
+                    body = results.append("]}").toString().getBytes("UTF-8");
+                }
+                exchange.sendResponseHeaders(batchStatus, body.length > 0 ? body.length : -1);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/processor?action=batch";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void send_shouldReturnEveryFileStatusInOneRequest() throws Exception {
+        List<ProcessingNotification> notifications = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            notifications.add(new ProcessingNotification("123", "image", "img" + i + ".jpg"));
+        }
+        notifications.add(new ProcessingNotification("404", "submit", "deleted.zip"));
+
+        Map<String, Integer> results = new BatchNotificationClient().send(url, notifications);
+
+        assertEquals(1, requests);
+        assertEquals(21, results.size());
+        assertEquals(Integer.valueOf(200), results.get("img7.jpg"));
+        assertEquals(Integer.valueOf(404), results.get("deleted.zip"));
+    }
+
+    @Test
+    public void send_shouldReturnNullIfBatchesNotSupported() throws Exception {
+        batchStatus = 404;
+        List<ProcessingNotification> notifications = new ArrayList<>();
+        notifications.add(new ProcessingNotification("123", "submit", "a.zip"));
+
+        assertNull(new BatchNotificationClient().send(url, notifications));
+    }
+
+    @Test
+    public void send_shouldThrowOnServerErrors() throws Exception {
+        batchStatus = 500;
+        List<ProcessingNotification> notifications = new ArrayList<>();
+        notifications.add(new ProcessingNotification("123", "submit", "a.zip"));
+
+        try {
+            new BatchNotificationClient().send(url, notifications);
+            fail("HttpException expected");
+        } catch (HttpException e) {
+            assertEquals(500, e.getStatus());
+        }
+    }
+
+    @Test
+    public void send_shouldThrowOnBadRequests() throws Exception {
+        // A malformed batch does not mean the endpoint is missing
+        batchStatus = 400;
+        List<ProcessingNotification> notifications = new ArrayList<>();
+        notifications.add(new ProcessingNotification("123", "submit", "a.zip"));
+
+        try {
+            new BatchNotificationClient().send(url, notifications);
+            fail("HttpException expected");
+        } catch (HttpException e) {
+            assertEquals(400, e.getStatus());
+        }
+    }
+
+    @Test
+    public void parse_shouldReturnNullForNonBatchResponses() throws Exception {
+        BatchNotificationClient client = new BatchNotificationClient();
+
+        assertNull(client.parse("OK"));
+        assertNull(client.parse("{\"status\":\"ok\"}"));
+    }
+}
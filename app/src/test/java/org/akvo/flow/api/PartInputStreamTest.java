@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class PartInputStreamTest {
+
+    private static final int FILE_SIZE = 100000;
+    private static final int PART_SIZE = 30000;
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("part", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testPartsCoverTheFile() throws IOException {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (long offset = 0; offset < FILE_SIZE; offset += PART_SIZE) {
+            final int size = (int) Math.min(PART_SIZE, FILE_SIZE - offset);
+            byte[] part = read(new S3Api.PartInputStream(file, offset, size));
+            assertEquals(size, part.length);
+            joined.write(part);
+        }
+        assertTrue(Arrays.equals(content, joined.toByteArray()));
+    }
+
+    @Test
+    public void testSingleByteReadsStopAtTheEndOfThePart() throws IOException {
+        InputStream in = new S3Api.PartInputStream(file, PART_SIZE, 3);
+        try {
+            assertEquals(content[PART_SIZE] & 0xff, in.read());
+            assertEquals(content[PART_SIZE + 1] & 0xff, in.read());
+            assertEquals(content[PART_SIZE + 2] & 0xff, in.read());
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(new byte[10], 0, 10));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.serialization.response;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.akvo.flow.domain.response.FormInstance;
+import org.akvo.flow.domain.response.Response;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class FormInstanceWriterTest {
+
+    @Test
+    public void testOutputMatchesObjectMapper() throws Exception {
+        FormInstance formInstance = formInstance();
+        List<Response> responses = new ArrayList<>();
+        responses.add(response("1", "VALUE", "Answer with \"quotes\" and \u00fcn\u00efcode", 0));
+        responses.add(response("2", "GEOSHAPE", "{\"features\":[]}", 3));
+        formInstance.setResponses(responses);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FormInstanceWriter writer = new FormInstanceWriter(out);
+        writer.writeHeader(formInstance);
+        for (Response response : responses) {
+            writer.writeResponse(response);
+        }
+        writer.close();
+
+        assertEquals(new ObjectMapper().writeValueAsString(formInstance), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testNoResponses() throws Exception {
+        FormInstance formInstance = formInstance();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FormInstanceWriter writer = new FormInstanceWriter(out);
+        writer.writeHeader(formInstance);
+        writer.close();
+
+        assertEquals(new ObjectMapper().writeValueAsString(formInstance), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEmptyResponses() throws Exception {
+        FormInstance formInstance = formInstance();
+        formInstance.setResponses(new ArrayList<Response>());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FormInstanceWriter writer = new FormInstanceWriter(out);
+        writer.writeHeader(formInstance);
+        writer.startResponses();
+        writer.close();
+
+        assertEquals(new ObjectMapper().writeValueAsString(formInstance), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testTargetStreamIsLeftOpen() throws Exception {
+        final boolean[] closed = { false };
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        FormInstanceWriter writer = new FormInstanceWriter(out);
+        writer.writeHeader(formInstance());
+        writer.close();
+
+        assertEquals(false, closed[0]);
+        assertTrue(out.size() > 0);
+    }
+
+    private FormInstance formInstance() {
+        FormInstance formInstance = new FormInstance();
+        formInstance.setUUID("uuid-1");
+        formInstance.setFormId("1234");
+        formInstance.setDataPointId("abcd-efgh");
+        formInstance.setDeviceId("device");
+        formInstance.setSubmissionDate(1500000000000L);
+        formInstance.setDuration(120);
+        formInstance.setUsername("User");
+        formInstance.setEmail(null);
+        return formInstance;
+    }
+
+    private Response response(String questionId, String type, String value, int iteration) {
+        Response response = new Response();
+        response.setQuestionId(questionId);
+        response.setAnswerType(type);
+        response.setValue(value);
+        response.setIteration(iteration);
+        return response;
+    }
+}
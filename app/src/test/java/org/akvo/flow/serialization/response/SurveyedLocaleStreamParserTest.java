@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.serialization.response;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.util.ConstantUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class SurveyedLocaleStreamParserTest {
+
+    private static final String RESPONSE = "{\"resultCount\":2,\"surveyedLocaleData\":["
+            + "{\"id\":\"abc-1\",\"displayName\":\"Well \\u00fcn\\u00efcode\","
+            + "\"lat\":-1.5,\"lon\":36.8,\"surveyGroupId\":10,"
+            + "\"lastUpdateDateTime\":1490000000000,\"ignored\":{\"a\":[1,2]},"
+            + "\"surveyInstances\":[{\"uuid\":\"u1\",\"surveyId\":\"20\",\"submitter\":\"Ann\","
+            + "\"collectionDate\":1480000000000,\"qasList\":["
+            + "{\"q\":\"1\",\"a\":\"Yes\"},{\"q\":2,\"a\":42},{\"q\":\"3\"}]}]},"
+            + "{\"id\":\"abc-2\",\"displayName\":null,\"lat\":null,\"surveyGroupId\":\"10\","
+            + "\"lastUpdateDateTime\":\"1490000000001\",\"surveyInstances\":[]}"
+            + "]}";
+
+    @Test
+    public void testParseDataPoints() throws Exception {
+        List<SurveyedLocale> dataPoints = parse(RESPONSE);
+        assertEquals(2, dataPoints.size());
+
+        SurveyedLocale dataPoint = dataPoints.get(0);
+        assertEquals("abc-1", dataPoint.getId());
+        assertEquals("Well \u00fcn\u00efcode", dataPoint.getName());
+        assertEquals(1490000000000L, dataPoint.getLastModified());
+        assertEquals(10L, dataPoint.getSurveyGroupId());
+        assertEquals(-1.5, dataPoint.getLatitude());
+        assertEquals(36.8, dataPoint.getLongitude());
+        assertEquals(1, dataPoint.getSurveyInstances().size());
+
+        SurveyInstance surveyInstance = dataPoint.getSurveyInstances().get(0);
+        assertEquals("u1", surveyInstance.getUuid());
+        assertEquals("20", surveyInstance.getSurveyId());
+        assertEquals("Ann", surveyInstance.getSubmitter());
+        assertEquals(1480000000000L, surveyInstance.getDate());
+        // Answers without a value are skipped
+        List<QuestionResponse> responses = surveyInstance.getResponses();
+        assertEquals(2, responses.size());
+        assertResponse("1", "Yes", responses.get(0));
+        assertResponse("2", "42", responses.get(1));
+
+        // Optional attributes may be null, and numbers quoted
+        dataPoint = dataPoints.get(1);
+        assertEquals("abc-2", dataPoint.getId());
+        assertNull(dataPoint.getName());
+        assertEquals(1490000000001L, dataPoint.getLastModified());
+        assertEquals(10L, dataPoint.getSurveyGroupId());
+        assertNull(dataPoint.getLatitude());
+        assertNull(dataPoint.getLongitude());
+        assertTrue(dataPoint.getSurveyInstances().isEmpty());
+    }
+
+    @Test
+    public void testMissingRequiredAttribute() throws Exception {
+        try {
+            parse("{\"surveyedLocaleData\":[{\"id\":\"abc-1\",\"surveyGroupId\":10,"
+                    + "\"surveyInstances\":[]}]}");
+            fail("Data points with no modification date are invalid");
+        } catch (JsonParseException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testTruncatedResponse() throws Exception {
+        try {
+            parse(RESPONSE.substring(0, RESPONSE.length() / 2));
+            fail("Truncated responses are invalid");
+        } catch (JsonParseException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testNoDataPoints() throws Exception {
+        try {
+            parse("{\"resultCount\":0}");
+            fail("Responses with no data point list are invalid");
+        } catch (JsonParseException e) {
+            // Expected
+        }
+        assertEquals(0, parse("{\"surveyedLocaleData\":[]}").size());
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        SurveyedLocaleStreamParser.Paging paging = parsePaging(RESPONSE);
+        assertFalse(paging.isPaged());
+        assertNull(paging.getCursor());
+
+        paging = parsePaging("{\"cursor\":\"E9oBCgo\",\"surveyedLocaleData\":[]}");
+        assertTrue(paging.isPaged());
+        assertEquals("E9oBCgo", paging.getCursor());
+
+        // Last page
+        paging = parsePaging("{\"surveyedLocaleData\":[],\"cursor\":null}");
+        assertTrue(paging.isPaged());
+        assertNull(paging.getCursor());
+    }
+
+    private static SurveyedLocaleStreamParser.Paging parsePaging(String json) throws IOException {
+        SurveyedLocaleStreamParser parser = new SurveyedLocaleStreamParser();
+        parser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")),
+                new SurveyedLocaleStreamParser.Callback() {
+                    @Override
+                    public void onSurveyedLocale(SurveyedLocale surveyedLocale) {
+                    }
+                });
+        return parser.getPaging();
+    }
+
+    private static List<SurveyedLocale> parse(String json) throws IOException {
+        final List<SurveyedLocale> surveyedLocales = new ArrayList<>();
+        new SurveyedLocaleStreamParser().parse(new ByteArrayInputStream(json.getBytes("UTF-8")),
+                new SurveyedLocaleStreamParser.Callback() {
+                    @Override
+                    public void onSurveyedLocale(SurveyedLocale surveyedLocale) {
+                        surveyedLocales.add(surveyedLocale);
+                    }
+                });
+        return surveyedLocales;
+    }
+
+    private static void assertResponse(String questionId, String value,
+            QuestionResponse response) {
+        assertEquals(questionId, response.getQuestionId());
+        assertEquals(value, response.getValue());
+        assertEquals(ConstantUtil.VALUE_RESPONSE_TYPE, response.getType());
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.datapoint;
+
+import org.akvo.flow.domain.QuestionResponse;
+import org.akvo.flow.domain.SurveyInstance;
+import org.akvo.flow.domain.SurveyedLocale;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser;
+import org.akvo.flow.serialization.response.SurveyedLocaleStreamParser.Paging;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class DataPointPipelineTest {
+
+    @Test
+    public void testPagesAreStoredInOrderUntilNoNewDataPoints() throws Exception {
+        // 25 data points, modified at 0..24, served in pages of 10
+        FakeServer server = new FakeServer(25, 10);
+        FakeDatabase database = new FakeDatabase();
+
+        DataPointPipeline.Result result = new DataPointPipeline(4, 2)
+                .run(null, null, 0, server, database);
+
+        assertEquals(25, result.getRecords());
+        assertTrue(result.isCorrect());
+        // The last data point of every page is served, and stored, again in the next one
+        List<String> ids = database.getDistinctIds();
+        assertEquals(25, ids.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals("dp-" + i, ids.get(i));
+        }
+        // Each page starts at the last data point of the previous one
+        assertEquals(4, server.requests.size());
+        assertEquals(null, server.requests.get(0));
+        assertEquals("9", server.requests.get(1));
+        assertEquals("18", server.requests.get(2));
+        assertEquals("24", server.requests.get(3));
+    }
+
+    @Test
+    public void testNextPageIsFetchedWhileStoring() throws Exception {
+        FakeServer server = new FakeServer(20, 10);
+        final CountDownLatch secondPage = server.secondPage;
+        final AtomicInteger overlapped = new AtomicInteger();
+        FakeDatabase database = new FakeDatabase() {
+            @Override
+            public void store(List<SurveyedLocale> batch) {
+                // The first batch is not stored until the next page has been requested
+                try {
+                    if (stored.isEmpty() && secondPage.await(5, TimeUnit.SECONDS)) {
+                        overlapped.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.store(batch);
+            }
+        };
+
+        new DataPointPipeline(10, 2).run(null, null, 0, server, database);
+
+        assertEquals(1, overlapped.get());
+        assertEquals(20, database.getDistinctIds().size());
+    }
+
+    @Test
+    public void testFetchStageIsBounded() throws Exception {
+        FakeServer server = new FakeServer(100, 100);
+        final int[] maxAhead = { 0 };
+        final FakeServer source = server;
+        FakeDatabase database = new FakeDatabase() {
+            @Override
+            public void store(List<SurveyedLocale> batch) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.store(batch);
+                maxAhead[0] = Math.max(maxAhead[0], source.parsed.get() - stored.size());
+            }
+        };
+
+        new DataPointPipeline(5, 2).run(null, null, 0, server, database);
+
+        // Up to two queued batches, the one being stored, and the one being read
+        assertTrue("Fetch stage ran " + maxAhead[0] + " ahead", maxAhead[0] <= 4 * 5);
+        assertEquals(100, database.getDistinctIds().size());
+    }
+
+    @Test
+    public void testBatchesReadBeforeAnErrorAreStored() throws Exception {
+        FakeServer server = new FakeServer(25, 10);
+        server.failAt = 15;
+        FakeDatabase database = new FakeDatabase();
+
+        try {
+            new DataPointPipeline(4, 2).run(null, null, 0, server, database);
+            fail("The fetch error should be thrown");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+        // The first page, 0..9, plus the full batch of the second one, 9..12
+        assertEquals(14, database.stored.size());
+        assertEquals(12, database.stored.get(13).getLastModified());
+    }
+
+    @Test
+    public void testStoreErrorStopsTheFetchStage() throws Exception {
+        FakeServer server = new FakeServer(1000, 100);
+        FakeDatabase database = new FakeDatabase() {
+            @Override
+            public void store(List<SurveyedLocale> batch) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+
+        try {
+            new DataPointPipeline(10, 1).run(null, null, 0, server, database);
+            fail("The store error should be thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        // The fetch stage is blocked on the first page, until cancelled
+        server.fetcher.join(5000);
+        assertFalse(server.fetcher.isAlive());
+        assertEquals(1, server.requests.size());
+    }
+
+    @Test
+    public void testCorruptedDataPointsAreReported() throws Exception {
+        FakeServer server = new FakeServer(5, 10);
+        server.emptyAt = 3;
+
+        DataPointPipeline.Result result = new DataPointPipeline()
+                .run(null, null, 0, server, new FakeDatabase());
+
+        assertFalse(result.isCorrect());
+        assertEquals(5, result.getRecords());
+    }
+
+    @Test
+    public void testCursorPagesAreFetchedOnce() throws Exception {
+        FakeServer server = new FakeServer(25, 10);
+        server.paged = true;
+        FakeDatabase database = new FakeDatabase();
+
+        DataPointPipeline.Result result = new DataPointPipeline(4, 2)
+                .run("5", null, 0, server, database);
+
+        assertEquals(25, result.getRecords());
+        assertEquals(25, database.stored.size());
+        assertEquals(3, server.cursors.size());
+        assertEquals(null, server.cursors.get(0));
+        assertEquals("10", server.cursors.get(1));
+        assertEquals("20", server.cursors.get(2));
+        // Every page is checkpointed with the cursor of the next one, cleared at the end
+        assertEquals(3, database.cursors.size());
+        assertEquals("10", database.cursors.get(0));
+        assertEquals("20", database.cursors.get(1));
+        assertEquals(null, database.cursors.get(2));
+    }
+
+    @Test
+    public void testSyncResumesFromStoredCursor() throws Exception {
+        FakeServer server = new FakeServer(25, 10);
+        server.paged = true;
+        FakeDatabase database = new FakeDatabase();
+
+        DataPointPipeline.Result result = new DataPointPipeline(4, 2)
+                .run("5", "20", 50, server, database);
+
+        assertEquals(5, result.getRecords());
+        assertEquals(1, server.cursors.size());
+        assertEquals("20", server.cursors.get(0));
+        assertEquals(Integer.valueOf(50), server.pageSizes.get(0));
+        assertEquals("dp-20", database.stored.get(0).getId());
+    }
+
+    @Test
+    public void testEmptyLastPageClearsCursor() throws Exception {
+        FakeServer server = new FakeServer(20, 10);
+        server.paged = true;
+        FakeDatabase database = new FakeDatabase();
+
+        new DataPointPipeline(4, 2).run(null, "20", 0, server, database);
+
+        assertEquals(0, database.stored.size());
+        assertEquals(1, database.cursors.size());
+        assertEquals(null, database.cursors.get(0));
+    }
+
+    /**
+     * Serves data points modified at 0..count-1, from the given time on, inclusive
+     */
+    private static class FakeServer implements DataPointPipeline.Source {
+
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> cursors = Collections.synchronizedList(new ArrayList<String>());
+        final List<Integer> pageSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch secondPage = new CountDownLatch(1);
+        final AtomicInteger parsed = new AtomicInteger();
+        volatile Thread fetcher;
+        final int count;
+        final int pageSize;
+        int failAt = -1;
+        int emptyAt = -1;
+        boolean paged = false;
+
+        FakeServer(int count, int pageSize) {
+            this.count = count;
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * Paged by cursor, the page starts at the data point following the previous page.
+         * The cursor is ignored otherwise.
+         */
+        @Override
+        public Paging fetch(String syncTime, String cursor, int pageSize,
+                SurveyedLocaleStreamParser.Callback callback) throws IOException {
+            fetcher = Thread.currentThread();
+            requests.add(syncTime);
+            cursors.add(cursor);
+            pageSizes.add(pageSize);
+            if (requests.size() == 2) {
+                secondPage.countDown();
+            }
+            int from;
+            if (paged) {
+                from = cursor != null ? Integer.parseInt(cursor) : 0;
+            } else {
+                from = syncTime != null ? Integer.parseInt(syncTime) : 0;
+            }
+            int to = Math.min(from + this.pageSize, count);
+            for (int i = from; i < to; i++) {
+                if (i == failAt) {
+                    throw new IOException("Connection reset");
+                }
+                parsed.incrementAndGet();
+                callback.onSurveyedLocale(dataPoint(i, i != emptyAt));
+            }
+            if (!paged) {
+                return Paging.NONE;
+            }
+            return new Paging(true, to < count ? String.valueOf(to) : null);
+        }
+    }
+
+    private static class FakeDatabase implements DataPointPipeline.Sink {
+
+        final List<SurveyedLocale> stored = new ArrayList<>();
+        final List<String> cursors = new ArrayList<>();
+
+        @Override
+        public void store(List<SurveyedLocale> batch) {
+            stored.addAll(batch);
+        }
+
+        @Override
+        public void onPageStored(int records, String cursor, int pageSize) {
+            cursors.add(cursor);
+        }
+
+        List<String> getDistinctIds() {
+            List<String> ids = new ArrayList<>();
+            for (SurveyedLocale dataPoint : stored) {
+                if (!ids.contains(dataPoint.getId())) {
+                    ids.add(dataPoint.getId());
+                }
+            }
+            return ids;
+        }
+    }
+
+    private static SurveyedLocale dataPoint(int i, boolean withInstances) {
+        SurveyedLocale dataPoint = new SurveyedLocale("dp-" + i, null, i, 1L, null, null);
+        List<SurveyInstance> instances = new ArrayList<>();
+        if (withInstances) {
+            instances.add(new SurveyInstance("uuid-" + i, "2", "", i,
+                    new ArrayList<QuestionResponse>()));
+        }
+        dataPoint.setSurveyInstances(instances);
+        return dataPoint;
+    }
+}
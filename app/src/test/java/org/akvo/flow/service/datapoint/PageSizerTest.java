@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.datapoint;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class PageSizerTest {
+
+    @Test
+    public void testDefaultPageSize() {
+        assertEquals(PageSizer.DEFAULT_PAGE_SIZE, new PageSizer(0).getPageSize());
+        assertEquals(PageSizer.MAX_PAGE_SIZE, new PageSizer(10000).getPageSize());
+    }
+
+    @Test
+    public void testFastPagesGrowUpToTwice() {
+        PageSizer pageSizer = new PageSizer(100);
+        pageSizer.onPage(100, 10);
+        assertEquals(200, pageSizer.getPageSize());
+        for (int i = 0; i < 10; i++) {
+            pageSizer.onPage(pageSizer.getPageSize(), 10);
+        }
+        assertEquals(PageSizer.MAX_PAGE_SIZE, pageSizer.getPageSize());
+    }
+
+    @Test
+    public void testSlowPagesShrinkHalfway() {
+        PageSizer pageSizer = new PageSizer(100);
+        // 100 data points in 10 s: 50 fit in the target time
+        pageSizer.onPage(100, 2 * PageSizer.TARGET_PAGE_TIME_MS);
+        assertEquals(75, pageSizer.getPageSize());
+        for (int i = 0; i < 10; i++) {
+            pageSizer.onPage(pageSizer.getPageSize(), 60 * 1000);
+        }
+        assertEquals(PageSizer.MIN_PAGE_SIZE, pageSizer.getPageSize());
+    }
+
+    @Test
+    public void testSteadyThroughputConverges() {
+        PageSizer pageSizer = new PageSizer(PageSizer.MIN_PAGE_SIZE);
+        // 40 data points per second
+        for (int i = 0; i < 20; i++) {
+            int pageSize = pageSizer.getPageSize();
+            pageSizer.onPage(pageSize, pageSize * 1000L / 40);
+        }
+        // 200 data points in 5 s, give or take the rounding
+        assertEquals(200, pageSizer.getPageSize(), 1);
+    }
+
+    @Test
+    public void testShortPagesAreIgnored() {
+        PageSizer pageSizer = new PageSizer(100);
+        pageSizer.onPage(3, 10 * 1000);
+        assertEquals(100, pageSizer.getPageSize());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.export;
+
+import org.akvo.flow.domain.response.FormInstance;
+import org.akvo.flow.domain.response.Response;
+import org.akvo.flow.serialization.response.FormInstanceWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class ExportWorkerPoolTest {
+
+    private static final int INSTANCES = 20;
+    private static final int RESPONSES_PER_INSTANCE = 60;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("export", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void constructor_shouldBoundWorkerCount() throws Exception {
+        assertEquals(ExportWorkerPool.MIN_WORKERS, new ExportWorkerPool(0).getWorkers());
+        assertEquals(ExportWorkerPool.MAX_WORKERS, new ExportWorkerPool(100).getWorkers());
+    }
+
+    @Test
+    public void export_shouldKeepIdOrderAndSkipFailures() throws Exception {
+        long[] ids = { 5, 3, 9, 1 };
+        List<Long> results = new ExportWorkerPool(4).export(ids,
+                new ExportWorkerPool.SurveyInstanceExporter<Long>() {
+                    @Override
+                    public Long export(long surveyInstanceId) throws Exception {
+                        if (surveyInstanceId == 9) {
+                            throw new IllegalStateException("boom");
+                        }
+                        Thread.sleep(50 / surveyInstanceId);// Complete out of order
+                        return surveyInstanceId;
+                    }
+                });
+
+        assertEquals(4, results.size());
+        assertEquals(Long.valueOf(5), results.get(0));
+        assertEquals(Long.valueOf(3), results.get(1));
+        assertNull(results.get(2));
+        assertEquals(Long.valueOf(1), results.get(3));
+    }
+
+    @Test
+    public void export_shouldExportOnEveryWorkerAtOnce() throws Exception {
+        // Every export waits for all the workers to be busy, which only happens if they run
+        // concurrently
+        final int workers = ExportWorkerPool.MAX_WORKERS;
+        final CountDownLatch allBusy = new CountDownLatch(workers);
+        long[] ids = new long[workers * 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        List<Boolean> results = new ExportWorkerPool(workers).export(ids,
+                new ExportWorkerPool.SurveyInstanceExporter<Boolean>() {
+                    @Override
+                    public Boolean export(long surveyInstanceId) throws Exception {
+                        allBusy.countDown();
+                        return allBusy.await(5, TimeUnit.SECONDS);
+                    }
+                });
+
+        assertEquals(ids.length, results.size());
+        for (Boolean allWorkersBusy : results) {
+            assertTrue(allWorkersBusy);
+        }
+    }
+
+    /**
+     * Export of synthetic pending instances (JSON, SHA1, HMAC and deflate into a zip file)
+     */
+    @Test
+    public void export_shouldWriteEveryZipFile() throws Exception {
+        long[] ids = new long[INSTANCES];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        List<File> files = new ExportWorkerPool().export(ids, new ZipExporter());
+
+        assertEquals(INSTANCES, files.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i + ".zip", files.get(i).getName());
+            assertTrue(files.get(i).length() > 0);
+        }
+    }
+
+    /**
+     * Same steps as the service export, on a synthetic form instance
+     */
+    private class ZipExporter implements ExportWorkerPool.SurveyInstanceExporter<File> {
+
+        @Override
+        public File export(long surveyInstanceId) throws Exception {
+            Random random = new Random(surveyInstanceId);
+            File file = new File(dir, surveyInstanceId + ".zip");
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+            MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+
+            zos.putNextEntry(new ZipEntry("data.json"));
+            FormInstanceWriter writer = new FormInstanceWriter(new DigestOutputStream(zos, sha1));
+            FormInstance formInstance = new FormInstance();
+            formInstance.setUUID(String.valueOf(surveyInstanceId));
+            formInstance.setFormId("1234");
+            writer.writeHeader(formInstance);
+            Response response = new Response();
+            for (int i = 0; i < RESPONSES_PER_INSTANCE; i++) {
+                StringBuilder value = new StringBuilder();
+                int length = i % 10 == 0 ? 4000 : 40;// A few geoshape-like answers
+                for (int j = 0; j < length; j++) {
+                    value.append(random.nextInt(10));
+                }
+                response.setQuestionId(String.valueOf(i));
+                response.setAnswerType("VALUE");
+                response.setValue(value.toString());
+                response.setIteration(0);
+                writer.writeResponse(response);
+            }
+            writer.close();
+            zos.closeEntry();
+
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec("secret".getBytes("UTF-8"), "HmacSHA1"));
+            zos.putNextEntry(new ZipEntry("signature.sig"));
+            zos.write(mac.doFinal(sha1.digest()));
+            zos.closeEntry();
+            zos.close();
+            return file;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.schedule;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class SyncWindowPlannerTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long NOW = 1000 * HOUR;
+
+    private final SyncWindowPlanner planner = new SyncWindowPlanner(2 * HOUR);
+
+    @Test
+    public void runsEveryJobOnFirstWindow() {
+        List<SyncJob> jobs = planner.getDueJobs(NOW, Collections.<SyncJob, Long>emptyMap(),
+                true);
+        assertEquals(Arrays.asList(SyncJob.values()), jobs);
+    }
+
+    @Test
+    public void runsOnlyUploadRightAfterFullWindow() {
+        Map<SyncJob, Long> lastRuns = lastRuns(NOW - HOUR);
+        assertEquals(Collections.singletonList(SyncJob.UPLOAD),
+                planner.getDueJobs(NOW, lastRuns, true));
+    }
+
+    @Test
+    public void pullsJobsDueBeforeNextWindow() {
+        // Form assignments (6h) would become due in one hour, before the next window
+        Map<SyncJob, Long> lastRuns = lastRuns(NOW - 5 * HOUR);
+        List<SyncJob> jobs = planner.getDueJobs(NOW, lastRuns, true);
+        assertEquals(Arrays.asList(SyncJob.UPLOAD, SyncJob.FORM_ASSIGNMENTS), jobs);
+    }
+
+    @Test
+    public void defersChargingJobsUntilOverdue() {
+        Map<SyncJob, Long> lastRuns = lastRuns(NOW - 13 * HOUR);
+        assertTrue(!planner.getDueJobs(NOW, lastRuns, false).contains(SyncJob.DATA_POINTS));
+        assertTrue(planner.getDueJobs(NOW, lastRuns, true).contains(SyncJob.DATA_POINTS));
+
+        lastRuns = lastRuns(NOW - 24 * HOUR);
+        assertTrue(planner.getDueJobs(NOW, lastRuns, false).contains(SyncJob.DATA_POINTS));
+    }
+
+    @Test
+    public void runsJobsLastRunInTheFuture() {
+        // The clock has been set back
+        Map<SyncJob, Long> lastRuns = lastRuns(NOW + 10 * HOUR);
+        assertEquals(Arrays.asList(SyncJob.values()), planner.getDueJobs(NOW, lastRuns, true));
+    }
+
+    private Map<SyncJob, Long> lastRuns(long time) {
+        Map<SyncJob, Long> lastRuns = new EnumMap<>(SyncJob.class);
+        for (SyncJob job : SyncJob.values()) {
+            lastRuns.put(job, time);
+        }
+        return lastRuns;
+    }
+}
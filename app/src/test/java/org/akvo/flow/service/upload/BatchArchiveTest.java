@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class BatchArchiveTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("batch", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testPacksFormDataByForm() throws Exception {
+        FileTransmission image = transmission(1, "f1", "photo.jpg");
+        FileTransmission first = transmission(2, "f1", "uuid-1.zip");
+        FileTransmission lone = transmission(3, "f2", "uuid-2.zip");
+        FileTransmission second = transmission(4, "f1", "uuid-3.zip");
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(image);
+        transmissions.add(first);
+        transmissions.add(lone);
+        transmissions.add(second);
+
+        List<BatchArchive> batches = BatchArchive.pack(transmissions, dir);
+
+        assertEquals(1, batches.size());
+        BatchArchive batch = batches.get(0);
+        assertEquals("f1", batch.getFormId());
+        assertEquals(2, batch.getTransmissions().size());
+        assertTrue(batch.getFile().getName().startsWith(BatchArchive.PREFIX));
+
+        // Media files and lone instances are left to be uploaded on their own
+        assertEquals(2, transmissions.size());
+        assertSame(image, transmissions.get(0));
+        assertSame(lone, transmissions.get(1));
+
+        Map<String, String> entries = readEntries(batch.getFile());
+        assertEquals(5, entries.size());
+        assertEquals("{\"uuid\":\"uuid-1\"}", entries.get("uuid-1/data.json"));
+        assertEquals("sig-uuid-1", entries.get("uuid-1/.sig"));
+        assertEquals("{\"uuid\":\"uuid-3\"}", entries.get("uuid-3/data.json"));
+        assertEquals("sig-uuid-3", entries.get("uuid-3/.sig"));
+
+        JsonNode index = new ObjectMapper().readTree(entries.get(BatchArchive.INDEX_ENTRY));
+        assertEquals(BatchArchive.FORMAT_VERSION, index.get("version").asInt());
+        assertEquals("f1", index.get("formId").asText());
+        assertEquals(2, index.get("instances").size());
+        assertEquals("uuid-1", index.get("instances").get(0).asText());
+        assertEquals("uuid-3", index.get("instances").get(1).asText());
+
+        batch.delete();
+        assertTrue(!batch.getFile().exists());
+        assertTrue(new File(first.getFileName()).exists());
+    }
+
+    @Test
+    public void testSplitsLargeForms() throws Exception {
+        List<FileTransmission> transmissions = new ArrayList<>();
+        int count = BatchArchive.MAX_INSTANCES * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            transmissions.add(transmission(i, "f1", "uuid-" + i + ".zip"));
+        }
+
+        List<BatchArchive> batches = BatchArchive.pack(transmissions, dir);
+
+        // The trailing single instance is not worth a batch
+        assertEquals(2, batches.size());
+        assertEquals(BatchArchive.MAX_INSTANCES, batches.get(0).getTransmissions().size());
+        assertEquals(BatchArchive.MAX_INSTANCES, batches.get(1).getTransmissions().size());
+        assertEquals(1, transmissions.size());
+    }
+
+    private FileTransmission transmission(long respondentId, String formId, String name)
+            throws IOException {
+        File file = new File(dir, name);
+        if (name.endsWith(".zip")) {
+            String uuid = name.substring(0, name.length() - 4);
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+            zos.putNextEntry(new ZipEntry("data.json"));
+            zos.write(("{\"uuid\":\"" + uuid + "\"}").getBytes("UTF-8"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry(".sig"));
+            zos.write(("sig-" + uuid).getBytes("UTF-8"));
+            zos.closeEntry();
+            zos.close();
+        } else {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[16]);
+            out.close();
+        }
+        FileTransmission transmission = new FileTransmission();
+        transmission.setRespondentId(respondentId);
+        transmission.setFormId(formId);
+        transmission.setFileName(file.getAbsolutePath());
+        return transmission;
+    }
+
+    private Map<String, String> readEntries(File zip) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(zip));
+        ZipEntry entry;
+        byte[] buffer = new byte[1024];
+        while ((entry = zis.getNextEntry()) != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int read;
+            while ((read = zis.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            entries.put(entry.getName(), out.toString("UTF-8"));
+        }
+        zis.close();
+        return entries;
+    }
+}
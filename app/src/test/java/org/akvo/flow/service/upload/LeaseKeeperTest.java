@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class LeaseKeeperTest {
+
+    @Test
+    public void testRenewalExtendsByFullLease() {
+        final AtomicLong expiry = new AtomicLong();
+        LeaseKeeper keeper = new LeaseKeeper("pass", 60000, new LeaseKeeper.Renewer() {
+            @Override
+            public int renew(String owner, long time) {
+                assertEquals("pass", owner);
+                expiry.set(time);
+                return 1;
+            }
+        });
+        long now = System.currentTimeMillis();
+        keeper.renew();
+        assertTrue(expiry.get() >= now + 60000);
+    }
+
+    @Test
+    public void testRenewsPeriodicallyUntilStopped() throws Exception {
+        final AtomicInteger renewals = new AtomicInteger();
+        final AtomicReference<Thread> renewalThread = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        LeaseKeeper keeper = new LeaseKeeper("pass", 90, new LeaseKeeper.Renewer() {
+            @Override
+            public int renew(String owner, long time) {
+                renewalThread.set(Thread.currentThread());
+                renewals.incrementAndGet();
+                latch.countDown();
+                return 1;
+            }
+        });
+        keeper.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        keeper.stop();
+        // Once its thread is gone, nothing renews the leases anymore
+        renewalThread.get().join(5000);
+        assertFalse(renewalThread.get().isAlive());
+        assertTrue(renewals.get() >= 2);
+    }
+
+    @Test
+    public void testFailedRenewalIsNotFatal() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        LeaseKeeper keeper = new LeaseKeeper("pass", 60, new LeaseKeeper.Renewer() {
+            @Override
+            public int renew(String owner, long time) {
+                latch.countDown();
+                throw new IllegalStateException("database is locked");
+            }
+        });
+        keeper.start();
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            keeper.stop();
+        }
+    }
+}
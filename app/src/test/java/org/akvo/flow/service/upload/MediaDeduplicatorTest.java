@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+public class MediaDeduplicatorTest {
+
+    private final Map<String, String> digests = new HashMap<>();
+
+    private final MediaDeduplicator deduplicator = new MediaDeduplicator(
+            new MediaDeduplicator.DigestSource() {
+                @Override
+                public String getDigest(File file) {
+                    return digests.get(file.getName());
+                }
+            });
+
+    @Test
+    public void testDuplicatesBecomeReferences() throws Exception {
+        FileTransmission photo = transmission("photo.jpg", "aaa");
+        FileTransmission sameFile = transmission("photo.jpg", "aaa");
+        FileTransmission form = transmission("form.zip", "aaa");
+        FileTransmission copy = transmission("copy.jpg", "aaa");
+        FileTransmission other = transmission("other.jpg", "bbb");
+        FileTransmission video = transmission("video.mp4", "aaa");
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(form);
+        transmissions.add(photo);
+        transmissions.add(sameFile);
+        transmissions.add(other);
+        transmissions.add(copy);
+        transmissions.add(video);
+
+        Map<FileTransmission, List<FileTransmission>> references = deduplicator
+                .deduplicate(transmissions);
+
+        // Form data is never deduplicated, and the content type is part of the content key
+        assertEquals(4, transmissions.size());
+        assertSame(form, transmissions.get(0));
+        assertSame(photo, transmissions.get(1));
+        assertSame(other, transmissions.get(2));
+        assertSame(video, transmissions.get(3));
+
+        assertEquals(1, references.size());
+        List<FileTransmission> photoReferences = references.get(photo);
+        assertEquals(2, photoReferences.size());
+        assertSame(sameFile, photoReferences.get(0));
+        assertSame(copy, photoReferences.get(1));
+    }
+
+    @Test
+    public void testUnreadableFilesAreKept() throws Exception {
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(transmission("a.jpg", null));
+        transmissions.add(transmission("a.jpg", null));
+        FileTransmission missing = new FileTransmission();
+        missing.setFileName("/missing/b.jpg");
+        transmissions.add(missing);
+
+        assertEquals(0, deduplicator.deduplicate(transmissions).size());
+        assertEquals(3, transmissions.size());
+    }
+
+    private FileTransmission transmission(String name, String digest) throws IOException {
+        File file = File.createTempFile("media", name);
+        file.deleteOnExit();
+        // Temp files get a unique name. Digests are looked up by the actual one.
+        digests.put(file.getName(), digest);
+        FileTransmission transmission = new FileTransmission();
+        transmission.setFileName(file.getAbsolutePath());
+        return transmission;
+    }
+}
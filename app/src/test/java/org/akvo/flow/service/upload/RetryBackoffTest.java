@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class RetryBackoffTest {
+
+    @Test
+    public void testDelayDoublesWithEveryFailure() {
+        RetryBackoff backoff = new RetryBackoff(new Random(42));
+        long ceiling = RetryBackoff.BASE_DELAY_MS;
+        for (int attempts = 1; attempts <= 8; attempts++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = backoff.getDelay(attempts);
+                assertTrue(delay >= ceiling / 2);
+                assertTrue(delay <= ceiling);
+            }
+            ceiling *= 2;
+        }
+    }
+
+    @Test
+    public void testDelayIsCapped() {
+        RetryBackoff backoff = new RetryBackoff(new Random(42));
+        for (int attempts : new int[] { 10, 50, Integer.MAX_VALUE }) {
+            long delay = backoff.getDelay(attempts);
+            assertTrue(delay >= RetryBackoff.MAX_DELAY_MS / 2);
+            assertTrue(delay <= RetryBackoff.MAX_DELAY_MS);
+        }
+    }
+
+    @Test
+    public void testDelayIsJittered() {
+        RetryBackoff backoff = new RetryBackoff(new Random(42));
+        long first = backoff.getDelay(5);
+        boolean jittered = false;
+        for (int i = 0; i < 10 && !jittered; i++) {
+            jittered = backoff.getDelay(5) != first;
+        }
+        assertTrue(jittered);
+    }
+
+    @Test
+    public void testNextAttemptTime() {
+        RetryBackoff backoff = new RetryBackoff(new Random(42) {
+            @Override
+            public double nextDouble() {
+                return 0;
+            }
+        });
+        assertEquals(1000 + RetryBackoff.BASE_DELAY_MS / 2, backoff.getNextAttemptTime(1, 1000));
+    }
+}
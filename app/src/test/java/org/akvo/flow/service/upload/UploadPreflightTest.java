@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class UploadPreflightTest {
+
+    @Test
+    public void testOnlyMatchingObjectsAreSkipped() throws Exception {
+        UploadPreflight preflight = new UploadPreflight(2, new UploadPreflight.Source() {
+            @Override
+            public String getLocalDigest(File file) {
+                return "abc";
+            }
+
+            @Override
+            public String getRemoteDigest(String objectKey) throws IOException {
+                switch (objectKey) {
+                    case "images/same.jpg":
+                        return "ABC";
+                    case "images/changed.jpg":
+                        return "def";
+                    case "images/error.jpg":
+                        throw new IOException("Connection reset");
+                    default:
+                        return null;
+                }
+            }
+        });
+        FileTransmission same = transmission();
+        FileTransmission changed = transmission();
+        FileTransmission missing = transmission();
+        FileTransmission error = transmission();
+        preflight.check(same, "images/same.jpg");
+        preflight.check(changed, "images/changed.jpg");
+        preflight.check(missing, "images/missing.jpg");
+        preflight.check(error, "images/error.jpg");
+
+        assertTrue(preflight.isUploaded(same));
+        assertFalse(preflight.isUploaded(changed));
+        assertFalse(preflight.isUploaded(missing));
+        assertFalse(preflight.isUploaded(error));
+        assertFalse(preflight.isUploaded(transmission()));
+        preflight.shutdown();
+    }
+
+    @Test
+    public void testChecksRunConcurrently() throws Exception {
+        final int count = 4;
+        final CountDownLatch started = new CountDownLatch(count);
+        UploadPreflight preflight = new UploadPreflight(count, new UploadPreflight.Source() {
+            @Override
+            public String getLocalDigest(File file) {
+                return "abc";
+            }
+
+            @Override
+            public String getRemoteDigest(String objectKey) throws IOException {
+                // Each check waits for the rest, so this only succeeds if all of them overlap
+                started.countDown();
+                try {
+                    return started.await(5, TimeUnit.SECONDS) ? "abc" : null;
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+        });
+        FileTransmission[] transmissions = new FileTransmission[count];
+        for (int i = 0; i < count; i++) {
+            transmissions[i] = transmission();
+            preflight.check(transmissions[i], "images/" + i + ".jpg");
+        }
+        for (FileTransmission transmission : transmissions) {
+            assertTrue(preflight.isUploaded(transmission));
+        }
+        preflight.shutdown();
+    }
+
+    private FileTransmission transmission() throws IOException {
+        File file = File.createTempFile("preflight", ".jpg");
+        file.deleteOnExit();
+        FileTransmission transmission = new FileTransmission();
+        transmission.setFileName(file.getAbsolutePath());
+        return transmission;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.service.upload;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+public class UploadPriorityTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("priority", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testFormDataFirstThenImagesBySizeThenVideos() throws Exception {
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(transmission(1, 2, "video.mp4", 100));
+        transmissions.add(transmission(2, 2, "large.jpg", 3000));
+        transmissions.add(transmission(3, 2, "b.zip", 10));
+        transmissions.add(transmission(4, 1, "small.png", 20));
+        transmissions.add(transmission(5, 1, "a.zip", 10));
+        transmissions.add(transmission(6, 1, "old.mp4", 5000));
+
+        new UploadPriority().sort(transmissions);
+
+        assertOrder(transmissions, "a.zip", "b.zip", "small.png", "large.jpg", "old.mp4",
+                "video.mp4");
+    }
+
+    @Test
+    public void testPolicyCanBeTuned() throws Exception {
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(transmission(1, 1, "large.jpg", 3000));
+        transmissions.add(transmission(2, 2, "small.jpg", 20));
+
+        UploadPriority noSizeOrder = new UploadPriority() {
+            @Override
+            public boolean isSizeOrdered(int tier) {
+                return false;
+            }
+        };
+        noSizeOrder.sort(transmissions);
+
+        assertOrder(transmissions, "large.jpg", "small.jpg");
+    }
+
+    private FileTransmission transmission(long id, long surveyInstanceId, String name, int size)
+            throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+
+        FileTransmission transmission = new FileTransmission();
+        transmission.setId(id);
+        transmission.setRespondentId(surveyInstanceId);
+        transmission.setFileName(file.getAbsolutePath());
+        return transmission;
+    }
+
+    private void assertOrder(List<FileTransmission> transmissions, String... names) {
+        assertEquals(names.length, transmissions.size());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], new File(transmissions.get(i).getFileName()).getName());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.service.upload;
+
+import android.support.annotation.NonNull;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class UploadWorkerPoolTest {
+
+    @Test
+    public void constructor_shouldBoundWorkerCount() throws Exception {
+        assertEquals(UploadWorkerPool.MIN_WORKERS, new UploadWorkerPool(0).getWorkers());
+        assertEquals(UploadWorkerPool.MAX_WORKERS, new UploadWorkerPool(100).getWorkers());
+        assertEquals(2, new UploadWorkerPool(2).getWorkers());
+    }
+
+    @Test
+    public void upload_shouldUploadEveryTransmission() throws Exception {
+        FakeS3 s3 = new FakeS3();
+        List<FileTransmission> transmissions = transmissions(20, 4);
+
+        UploadResult result = new UploadWorkerPool(4).upload(transmissions, s3);
+
+        assertEquals(20, s3.objects.size());
+        assertEquals(5, result.getSyncedInstances().size());
+        assertTrue(result.getUnsyncedInstances().isEmpty());
+    }
+
+    @Test
+    public void upload_shouldNotSyncInstanceIfFailureFinishesFirst() throws Exception {
+        // The failing upload completes before the successful one of the same instance
+        final CountDownLatch failureDone = new CountDownLatch(1);
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(transmission(1L, "ok.jpg"));
+        transmissions.add(transmission(1L, "ko.jpg"));
+
+        UploadResult result = new UploadWorkerPool(2).upload(transmissions,
+                new UploadWorkerPool.FileUploader() {
+                    @Override
+                    public boolean upload(@NonNull FileTransmission transmission) {
+                        if ("ko.jpg".equals(transmission.getFileName())) {
+                            failureDone.countDown();
+                            return false;
+                        }
+                        await(failureDone);
+                        return true;
+                    }
+                });
+
+        assertTrue(result.getSyncedInstances().isEmpty());
+        assertEquals(Collections.singleton(1L), result.getUnsyncedInstances());
+    }
+
+    @Test
+    public void upload_shouldNotSyncInstanceIfFailureFinishesLast() throws Exception {
+        final CountDownLatch successDone = new CountDownLatch(1);
+        List<FileTransmission> transmissions = new ArrayList<>();
+        transmissions.add(transmission(1L, "ko.jpg"));
+        transmissions.add(transmission(1L, "ok.jpg"));
+        transmissions.add(transmission(2L, "other.zip"));
+
+        UploadResult result = new UploadWorkerPool(3).upload(transmissions,
+                new UploadWorkerPool.FileUploader() {
+                    @Override
+                    public boolean upload(@NonNull FileTransmission transmission) {
+                        if ("ko.jpg".equals(transmission.getFileName())) {
+                            await(successDone);
+                            return false;
+                        }
+                        successDone.countDown();
+                        return true;
+                    }
+                });
+
+        assertEquals(Collections.singleton(2L), result.getSyncedInstances());
+        assertEquals(Collections.singleton(1L), result.getUnsyncedInstances());
+    }
+
+    @Test
+    public void upload_shouldTreatUploaderErrorsAsFailures() throws Exception {
+        List<FileTransmission> transmissions = Collections.singletonList(transmission(7L, "a.zip"));
+
+        UploadResult result = new UploadWorkerPool(1).upload(transmissions,
+                new UploadWorkerPool.FileUploader() {
+                    @Override
+                    public boolean upload(@NonNull FileTransmission transmission) {
+                        throw new IllegalStateException("boom");
+                    }
+                });
+
+        assertEquals(Collections.singleton(7L), result.getUnsyncedInstances());
+    }
+
+    @Test
+    public void upload_shouldRunAsManyUploadsAsWorkersAtOnce() throws Exception {
+        // Every upload waits for all the workers to be busy, which only happens if they run
+        // concurrently. Uploads of later files must never exceed the worker count.
+        final int workers = UploadWorkerPool.MAX_WORKERS;
+        final CountDownLatch allBusy = new CountDownLatch(workers);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+
+        UploadResult result = new UploadWorkerPool(workers).upload(transmissions(workers * 3, 3),
+                new UploadWorkerPool.FileUploader() {
+                    @Override
+                    public boolean upload(@NonNull FileTransmission transmission) {
+                        int current = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), current));
+                        }
+                        allBusy.countDown();
+                        try {
+                            if (!allBusy.await(5, TimeUnit.SECONDS)) {
+                                timeouts.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        return true;
+                    }
+                });
+
+        assertEquals(0, timeouts.get());
+        assertEquals(workers, maxRunning.get());
+        assertTrue(result.getUnsyncedInstances().isEmpty());
+        assertEquals(workers, result.getSyncedInstances().size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<FileTransmission> transmissions(int count, int filesPerInstance) {
+        List<FileTransmission> transmissions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            transmissions.add(transmission((long) (i / filesPerInstance), "file" + i + ".jpg"));
+        }
+        return transmissions;
+    }
+
+    private static FileTransmission transmission(Long surveyInstanceId, String filename) {
+        FileTransmission transmission = new FileTransmission();
+        transmission.setRespondentId(surveyInstanceId);
+        transmission.setFileName(filename);
+        transmission.setFormId("123");
+        return transmission;
+    }
+
+    /**
+     * Minimal in-memory S3 stand-in
+     */
+    private static class FakeS3 implements UploadWorkerPool.FileUploader {
+
+        final Map<String, String> objects = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean upload(@NonNull FileTransmission transmission) {
+            objects.put(transmission.getFileName(), transmission.getFormId());
+            return true;
+        }
+    }
+}
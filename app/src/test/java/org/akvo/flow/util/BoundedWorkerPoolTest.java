@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class BoundedWorkerPoolTest {
+
+    @Test
+    public void constructor_shouldClampWorkerCount() throws Exception {
+        assertEquals(1, new BoundedWorkerPool(0, 1, 4).getWorkers());
+        assertEquals(4, new BoundedWorkerPool(100, 1, 4).getWorkers());
+        assertEquals(3, new BoundedWorkerPool(3, 1, 4).getWorkers());
+    }
+
+    @Test
+    public void run_shouldKeepItemOrderAndReportFailures() throws Exception {
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        List<Integer> results = new BoundedWorkerPool(3, 1, 4).run(
+                Arrays.asList("a", "bb", "boom", "dddd"),
+                new BoundedWorkerPool.Task<String, Integer>() {
+                    @Override
+                    public Integer run(@NonNull String item) throws Exception {
+                        if ("boom".equals(item)) {
+                            throw new IllegalStateException(item);
+                        }
+                        return item.length();
+                    }
+
+                    @Override
+                    public void onError(@NonNull String item, @NonNull Throwable error) {
+                        errors.add(item);
+                    }
+                });
+
+        assertEquals(Arrays.asList(1, 2, null, 4), results);
+        assertEquals(Collections.singletonList("boom"), errors);
+    }
+
+    @Test
+    public void run_shouldReturnNullResultsIfInterrupted() throws Exception {
+        // Tasks never complete before the pool is shut down
+        final CountDownLatch never = new CountDownLatch(1);
+        Thread.currentThread().interrupt();
+
+        List<String> results = new BoundedWorkerPool(1, 1, 1).run(Arrays.asList("a", "b"),
+                new BoundedWorkerPool.Task<String, String>() {
+                    @Override
+                    public String run(@NonNull String item) throws Exception {
+                        never.await();
+                        return item;
+                    }
+
+                    @Override
+                    public void onError(@NonNull String item, @NonNull Throwable error) {
+                    }
+                });
+
+        // Restored, and cleared, for the rest of the suite
+        assertTrue(Thread.interrupted());
+        assertEquals(2, results.size());
+        assertNull(results.get(0));
+        assertNull(results.get(1));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+public class FileUtilTest {
+
+    @Test
+    public void hexToBytes_shouldReverseHexMd5() throws Exception {
+        byte[] md5 = MessageDigest.getInstance("MD5").digest("akvo flow".getBytes("UTF-8"));
+
+        String hex = FileUtil.hexMd5(md5);
+
+        assertEquals(32, hex.length());
+        assertArrayEquals(md5, FileUtil.hexToBytes(hex));
+    }
+
+    @Test
+    public void hexToBytes_shouldHandleHighBytes() throws Exception {
+        byte[] bytes = FileUtil.hexToBytes("00ff7f80");
+
+        assertArrayEquals(new byte[] { 0, (byte) 0xff, 0x7f, (byte) 0x80 }, bytes);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class HttpClientTest {
+
+    private static final int REQUESTS = 200;
+    private static final long SETUP_DELAY_MS = 10;
+
+    private HttpServer server;
+    private String url;
+    private HttpMetrics start;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                boolean missing = exchange.getRequestURI().getPath().startsWith("/missing");
+                byte[] body = (missing ? "not found" : "ok").getBytes("UTF-8");
+                exchange.sendResponseHeaders(missing ? 404 : 200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        start = HttpClient.getInstance().getMetrics().snapshot();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testReleasedConnectionsAreReused() throws Exception {
+        HttpClient client = HttpClient.getInstance();
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpURLConnection conn = client.open(url);
+            assertEquals("ok\n", HttpUtil.readStream(conn.getInputStream()));
+            client.release(conn);
+        }
+        assertEquals(REQUESTS, client.getMetrics().since(start).getRequests());
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testErrorResponsesAreDrained() throws Exception {
+        HttpClient client = HttpClient.getInstance();
+        for (int i = 0; i < 20; i++) {
+            // As in S3Api, the body of the error response is not read by the caller
+            HttpURLConnection conn = client.open(url + "missing");
+            assertEquals(404, conn.getResponseCode());
+            client.release(conn);
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    /**
+     * Simulates a 200 file sync against a server whose connection setup takes
+     * {@link #SETUP_DELAY_MS}, as a TCP and TLS handshake would on a mobile network. Every
+     * new socket pays the setup, so pooled connections must only open one.
+     */
+    @Test
+    public void testPooledConnectionsSkipSetup() throws Exception {
+        HandshakeDelayServer delayed = new HandshakeDelayServer(SETUP_DELAY_MS);
+        try {
+            HttpClient client = HttpClient.getInstance();
+            String delayedUrl = "http://127.0.0.1:" + delayed.getPort() + "/";
+
+            for (int i = 0; i < REQUESTS; i++) {
+                HttpURLConnection conn = client.open(delayedUrl);
+                assertEquals("ok\n", HttpUtil.readStream(conn.getInputStream()));
+                client.release(conn);
+            }
+            assertEquals(1, delayed.getConnections());
+
+            for (int i = 0; i < REQUESTS; i++) {
+                // Without keep-alive, as when connections were disconnected after every request
+                HttpURLConnection conn = client.open(delayedUrl);
+                conn.setRequestProperty("Connection", "close");
+                HttpUtil.readStream(conn.getInputStream());
+                client.release(conn);
+            }
+            // The first one still goes over the pooled socket, the next ones open their own
+            assertEquals(REQUESTS, delayed.getConnections());
+        } finally {
+            delayed.close();
+        }
+    }
+
+    @Test
+    public void testAbortedConnectionsAreNotReused() throws Exception {
+        HttpClient client = HttpClient.getInstance();
+        for (int i = 0; i < REQUESTS; i++) {
+            // Interrupted transfer: the response body is never read
+            HttpURLConnection conn = client.open(url);
+            assertEquals(200, conn.getResponseCode());
+            client.abort(conn);
+        }
+        assertEquals(REQUESTS, client.getMetrics().since(start).getRequests());
+        assertTrue(clientPorts.size() > 1);
+    }
+
+    @Test
+    public void testTransferAccountsRequestsOfItsThread() throws Exception {
+        HttpClient client = HttpClient.getInstance();
+        client.beginTransfer();
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnection conn = client.open(url);
+            HttpUtil.readStream(conn.getInputStream());
+            client.release(conn, 100);
+        }
+        TransferStats stats = client.endTransfer();
+
+        assertEquals(3, stats.getRequests());
+        assertEquals(300, stats.getBytes());
+        assertTrue(stats.getFirstByteTime() <= stats.getDuration());
+
+        // Requests after the transfer are not accounted
+        HttpURLConnection conn = client.open(url);
+        HttpUtil.readStream(conn.getInputStream());
+        client.release(conn, 100);
+        assertEquals(0, client.endTransfer().getRequests());
+    }
+
+    /**
+     * Minimal keep-alive HTTP server, answering "ok" to every request. Every new connection is
+     * held for the given delay before its first request is read.
+     */
+    private static class HandshakeDelayServer implements Runnable {
+
+        private final ServerSocket serverSocket;
+        private final long delayMs;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        HandshakeDelayServer(long delayMs) throws IOException {
+            this.delayMs = delayMs;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "handshake-delay-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getConnections() {
+            return connections.get();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                Thread.sleep(delayMs);
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                boolean close = false;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        // Request line and headers
+                        close |= line.equalsIgnoreCase("Connection: close");
+                        continue;
+                    }
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n"
+                            + (close ? "Connection: close\r\n" : "") + "\r\nok\n")
+                            .getBytes("US-ASCII"));
+                    out.flush();
+                    if (close) {
+                        break;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Connection closed
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.akvo.flow.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class HttpUtilTest {
+
+    private static final String BODY;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("{\"id\":\"").append(i).append("\",\"name\":\"data point\"}\n");
+        }
+        BODY = builder.toString();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private HttpMetrics start;
+    private volatile String acceptEncoding;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = BODY.getBytes("UTF-8");
+                if ("gzip".equals(acceptEncoding)) {
+                    body = gzip(body);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        start = HttpClient.getInstance().getMetrics().snapshot();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testGzipResponseIsDecoded() throws Exception {
+        assertEquals(BODY, HttpUtil.httpGet(url));
+        assertEquals("gzip", acceptEncoding);
+
+        HttpMetrics metrics = HttpClient.getInstance().getMetrics().since(start);
+        assertEquals(BODY.length(), metrics.getDecodedBytes());
+        assertTrue(metrics.getReceivedBytes() < metrics.getDecodedBytes());
+        assertTrue(metrics.getSavedBytes() > 0);
+    }
+
+    @Test
+    public void testStreamedResponseIsDecoded() throws Exception {
+        String body = HttpUtil.httpGet(url, new HttpUtil.StreamReader<String>() {
+            @Override
+            public String read(InputStream in) throws IOException {
+                return HttpUtil.readStream(in);
+            }
+        });
+        assertEquals(BODY, body);
+        assertEquals("gzip", acceptEncoding);
+        assertTrue(HttpClient.getInstance().getMetrics().since(start).getSavedBytes() > 0);
+    }
+
+    @Test
+    public void testDownloadedFileKeepsRawBytes() throws Exception {
+        File file = new File(folder.getRoot(), "download.txt");
+        HttpUtil.httpGet(url, file);
+
+        assertEquals("identity", acceptEncoding);
+        assertEquals(BODY.length(), file.length());
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ * This file is part of Akvo Flow.
+ *
+ * Akvo Flow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Akvo Flow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.akvo.flow.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class NetworkQualityTest {
+
+    @Test
+    public void testUnknownUntilSampled() {
+        NetworkQuality quality = new NetworkQuality();
+        assertEquals(NetworkQuality.Level.UNKNOWN, quality.getLevel());
+        assertEquals(4, quality.getUploadWorkers(4));
+        assertEquals(1, quality.getTimeoutFactor());
+    }
+
+    @Test
+    public void testFastLink() {
+        NetworkQuality quality = new NetworkQuality();
+        quality.addSample(200, 80);
+        quality.addSample(5 * 1024 * 1024, 4000);// ~10 Mbps
+        assertEquals(80, quality.getRtt());
+        assertEquals(NetworkQuality.Level.GOOD, quality.getLevel());
+        assertEquals(4, quality.getUploadWorkers(4));
+    }
+
+    @Test
+    public void testSlowLink() {
+        NetworkQuality quality = new NetworkQuality();
+        quality.addSample(200, 600);
+        quality.addSample(1024 * 1024, 100 * 1000);// ~80 kbps
+        assertEquals(NetworkQuality.Level.POOR, quality.getLevel());
+        assertEquals(1, quality.getUploadWorkers(4));
+        assertEquals(2, quality.getTimeoutFactor());
+    }
+
+    @Test
+    public void testEstimateFollowsTheConnection() {
+        NetworkQuality quality = new NetworkQuality();
+        quality.addSample(200, 3000);
+        assertEquals(NetworkQuality.Level.POOR, quality.getLevel());
+        for (int i = 0; i < 20; i++) {
+            quality.addSample(200, 100);
+        }
+        assertEquals(NetworkQuality.Level.GOOD, quality.getLevel());
+    }
+}
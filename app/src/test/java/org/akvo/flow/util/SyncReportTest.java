@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 Stichting Akvo (Akvo Foundation)
+ *
+ *  This file is part of Akvo Flow.
+ *
+ *  Akvo Flow is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Akvo Flow is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Akvo Flow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.akvo.flow.util;
+
+import org.akvo.flow.domain.FileTransmission;
+import org.akvo.flow.domain.SyncSession;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+
+public class SyncReportTest {
+
+    @Test
+    public void testSessionRates() {
+        SyncSession session = new SyncSession(0);
+        session.setFiles(10);
+        session.setBytes(4 * 1024 * 1024);
+        session.setUploadTime(2000);
+
+        assertEquals(5.0, session.getFilesPerSecond(), 0.001);
+        assertEquals(2.0, session.getMegabytesPerSecond(), 0.001);
+        assertEquals(0.0, new SyncSession(0).getFilesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testFormat() {
+        SyncSession session = new SyncSession(0);
+        session.setExported(2);
+        session.setFiles(4);
+        session.setFailed(1);
+        session.setBytes(1024 * 1024);
+        session.setExportTime(150);
+        session.setUploadTime(1000);
+        session.setNotifyTime(80);
+
+        FileTransmission transmission = new FileTransmission();
+        transmission.setFileName("/sdcard/akvoflow/data/files/abc.zip");
+        transmission.setStatus(3);
+        transmission.setBytes(2048);
+        transmission.setFirstByteTime(120);
+        transmission.setDuration(400);
+        transmission.setAttempts(2);
+        transmission.setLastError("Notification error, 500");
+
+        String report = new SyncReport().format(Collections.singletonList(session),
+                Collections.singletonList(transmission));
+
+        String[] lines = report.split("\\n");
+        assertEquals(5, lines.length);
+        assertEquals("1970-01-01T00:00:00Z,2,4,1,1048576,150,1000,80,4.00,1.000", lines[1]);
+        assertEquals("", lines[2]);
+        assertEquals("abc.zip,3,2048,120,400,2,\"Notification error, 500\"", lines[4]);
+    }
+}